@@ -0,0 +1,253 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+/**
+ * Generated inputs shared by the benchmarks. Everything is built from a fixed
+ * seed so runs are comparable.
+ */
+final class BenchData {
+
+    public static final int ONE_MB = 1024 * 1024;
+
+    private static final String[] WORDS = { "the", "of", "and", "poem", "Rossetti", "letter", "manuscript",
+        "printed", "edition", "volume", "chapter", "Blake", "illuminated", "plate", "engraving", "London",
+        "publisher", "catalogue", "stanza", "sonnet", "ballad", "review", "Athenaeum", "periodical" };
+
+    private static final String DC = "http://purl.org/dc/elements/1.1/";
+    private static final String COLLEX = "http://www.collex.org/schema#";
+    private static final String ROLE = "http://www.loc.gov/loc.terms/relators/";
+    private static final String RDF_TYPE = "http://www.w3.org/1999/02/22-rdf-syntax-ns#type";
+
+    private BenchData() {
+    }
+
+    /**
+     * A short metadata value such as a title, with a stray entity and extra spaces
+     */
+    public static String smallField() {
+        return "The  Blessed Damozel &amp; other   Poems,\n  by D. G. Rossetti ";
+    }
+
+    /**
+     * OCR-like text of about <code>size</code> chars: words broken by odd
+     * whitespace, hyphenation, entity references, stray control characters and
+     * the occasional unknown character.
+     */
+    public static String ocrText(final int size) {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(size + 64);
+        while (text.length() < size) {
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+            int r = random.nextInt(100);
+            if (r < 70) {
+                text.append(' ');
+            } else if (r < 80) {
+                text.append("  ");
+            } else if (r < 87) {
+                text.append(".\n");
+            } else if (r < 90) {
+                text.append("-\n");
+            } else if (r < 93) {
+                text.append("\t");
+            } else if (r < 95) {
+                text.append(" &amp; ");
+            } else if (r < 96) {
+                text.append(" &#8212; ");
+            } else if (r < 97) {
+                text.append('\uFFFD');
+            } else if (r < 98) {
+                text.append("\r\n");
+            } else {
+                text.append(" \u00e6sthetic ");
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * A raw HTML page of about <code>size</code> chars wrapping OCR-like paragraphs
+     */
+    public static String htmlPage(final int size) {
+        Random random = new Random(7);
+        StringBuilder html = new StringBuilder(size + 256);
+        html.append("<html><head><title>Page</title><style>p { margin: 0 }</style></head><body>\n");
+        html.append("<script type=\"text/javascript\">var x = 1; if (x < 2) { x++; }</script>\n");
+        String words = ocrText(4096);
+        while (html.length() < size) {
+            int start = random.nextInt(words.length() - 400);
+            html.append("<p class=\"text\">").append(words, start, start + 300);
+            html.append("<i>emphasis</i> and <b>bold</b>&nbsp;text&#160;here</p>\r\n");
+            if (random.nextInt(10) == 0) {
+                html.append("<div><a href=\"http://example.org/page\">link</a><br/></div>\n");
+            }
+        }
+        html.append("</body></html>");
+        return html.toString();
+    }
+
+    /**
+     * Dates in the forms seen in archives, from a single year to a wide range
+     */
+    public static String[] dates() {
+        return new String[] { "1862", "1862-12-25", "184u", "18uu", "1800,1850", "1850-1860", "1500-1900",
+            "1000-2000" };
+    }
+
+    /**
+     * Metadata for a typical document, optionally with full text
+     */
+    public static Document document(final int index, final String text) {
+        Document doc = new Document();
+        put(doc, "uri", "http://www.rossettiarchive.org/docs/doc" + index + ".rawtext");
+        put(doc, "archive", "rossetti");
+        put(doc, "title", "The Blessed Damozel, part " + index);
+        put(doc, "title_sort", "blessed damozel, part " + index);
+        put(doc, "role_AUT", "Rossetti, Dante Gabriel");
+        put(doc, "role_PBL", "Ellis and White");
+        put(doc, "author_sort", "Rossetti, Dante Gabriel");
+        put(doc, "genre", "Poetry");
+        put(doc, "genre", "Primary");
+        put(doc, "discipline", "Literature");
+        put(doc, "doc_type", "Codex");
+        put(doc, "freeculture", "T");
+        put(doc, "has_full_text", text == null ? "F" : "T");
+        put(doc, "is_ocr", "F");
+        put(doc, "federation", "NINES");
+        put(doc, "url", "http://www.rossettiarchive.org/docs/doc" + index + ".rawtext.html");
+        put(doc, "thumbnail", "http://www.rossettiarchive.org/img/thumbs/doc" + index + ".jpg");
+        for (String year : NinesStatementHandler.parseYears("1850-1870")) {
+            put(doc, "year", year);
+        }
+        put(doc, "year_sort", "1850");
+        put(doc, "decade", "1850");
+        put(doc, "century", "1800");
+        if (text != null) {
+            put(doc, "text", text);
+        }
+        return doc;
+    }
+
+    /**
+     * The statements of a typical RDF document, in the order the parser
+     * delivers them
+     */
+    public static List<Statement> statements(final int index) {
+        ValueFactory vf = ValueFactoryImpl.getInstance();
+        URI subject = vf.createURI("http://www.rossettiarchive.org/docs/doc" + index + ".rawtext");
+        List<Statement> statements = new ArrayList<Statement>();
+        statements.add(vf.createStatement(subject, vf.createURI(RDF_TYPE), vf.createURI(COLLEX + "nines")));
+        statements.add(vf.createStatement(subject, vf.createURI(COLLEX + "archive"), vf.createLiteral("rossetti")));
+        statements.add(vf.createStatement(subject, vf.createURI(DC + "title"), vf.createLiteral(smallField())));
+        statements.add(vf.createStatement(subject, vf.createURI(ROLE + "AUT"),
+            vf.createLiteral("Rossetti, Dante Gabriel")));
+        statements.add(vf.createStatement(subject, vf.createURI(ROLE + "PBL"), vf.createLiteral("Ellis and White")));
+        statements.add(vf.createStatement(subject, vf.createURI(DC + "type"), vf.createLiteral("Codex")));
+        statements.add(vf.createStatement(subject, vf.createURI(COLLEX + "genre"), vf.createLiteral("Poetry")));
+        statements.add(vf.createStatement(subject, vf.createURI(COLLEX + "genre"), vf.createLiteral("Primary")));
+        statements.add(vf.createStatement(subject, vf.createURI(COLLEX + "discipline"),
+            vf.createLiteral("Literature")));
+        statements.add(vf.createStatement(subject, vf.createURI(COLLEX + "freeculture"), vf.createLiteral("true")));
+        statements.add(vf.createStatement(subject, vf.createURI(COLLEX + "federation"), vf.createLiteral("NINES")));
+        statements.add(vf.createStatement(subject, vf.createURI(DC + "date"), vf.createLiteral("1870")));
+        statements.add(vf.createStatement(subject, vf.createURI(DC + "source"),
+            vf.createLiteral("The Germ, no. 2 (1850)")));
+        statements.add(vf.createStatement(subject, vf.createURI("http://www.w3.org/2000/01/rdf-schema#seeAlso"),
+            vf.createURI("http://www.rossettiarchive.org/docs/doc" + index + ".rawtext.html")));
+        statements.add(vf.createStatement(subject, vf.createURI(COLLEX + "thumbnail"),
+            vf.createURI("http://www.rossettiarchive.org/img/thumbs/doc" + index + ".jpg")));
+        statements.add(vf.createStatement(subject, vf.createURI(COLLEX + "text"), vf.createLiteral(ocrText(2048))));
+        return statements;
+    }
+
+    /**
+     * Statements the handler looks at but adds no field for, so that handling
+     * them costs only the predicate dispatch. Predicates come from the start,
+     * middle and end of the handler's list, plus some it does not handle at all.
+     */
+    public static List<Statement> dispatchStatements() {
+        ValueFactory vf = ValueFactoryImpl.getInstance();
+        URI subject = vf.createURI("http://www.rossettiarchive.org/docs/doc0.rawtext");
+        List<Statement> statements = new ArrayList<Statement>();
+        statements.add(vf.createStatement(subject, vf.createURI(COLLEX + "ocr"), vf.createLiteral("false")));
+        statements.add(vf.createStatement(subject, vf.createURI(COLLEX + "typewright"), vf.createLiteral("false")));
+        statements.add(vf.createStatement(subject, vf.createURI(COLLEX + "fulltext"), vf.createLiteral("true")));
+        statements.add(vf.createStatement(subject, vf.createURI(COLLEX + "freeculture"), vf.createLiteral("maybe")));
+        statements.add(vf.createStatement(subject, vf.createURI(COLLEX + "genre"), vf.createLiteral("Primary")));
+        statements.add(vf.createStatement(subject, vf.createURI(DC + "creator"), vf.createLiteral("Rossetti")));
+        statements.add(vf.createStatement(subject, vf.createURI("http://www.w3.org/2000/01/rdf-schema#label"),
+            vf.createLiteral("a label")));
+        statements.add(vf.createStatement(subject, vf.createURI("http://www.w3.org/1999/02/22-rdf-syntax-ns#value"),
+            vf.createLiteral("a value")));
+        statements.add(vf.createStatement(subject, vf.createURI("http://purl.org/dc/terms/created"),
+            vf.createLiteral("1870")));
+        return statements;
+    }
+
+    /**
+     * An RDF/XML file holding <code>count</code> typical objects
+     */
+    public static String rdfXml(final int count) {
+        StringBuilder rdf = new StringBuilder();
+        rdf.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        rdf.append("<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"");
+        rdf.append(" xmlns:rdfs=\"http://www.w3.org/2000/01/rdf-schema#\" xmlns:role=\"").append(ROLE).append("\"");
+        rdf.append(" xmlns:dc=\"").append(DC).append("\" xmlns:collex=\"").append(COLLEX).append("\"");
+        rdf.append(" xmlns:ra=\"http://www.rossettiarchive.org/schema#\">\n");
+        for (int i = 0; i < count; i++) {
+            rdf.append("  <ra:doc rdf:about=\"http://www.rossettiarchive.org/docs/doc").append(i).append(".rawtext\">\n");
+            rdf.append("    <collex:archive>rossetti</collex:archive>\n");
+            rdf.append("    <dc:title>The Blessed Damozel, part ").append(i).append("</dc:title>\n");
+            rdf.append("    <role:AUT>Rossetti, Dante Gabriel</role:AUT>\n");
+            rdf.append("    <role:PBL>Ellis and White</role:PBL>\n");
+            rdf.append("    <dc:type>Codex</dc:type>\n");
+            rdf.append("    <collex:genre>Poetry</collex:genre>\n");
+            rdf.append("    <collex:discipline>Literature</collex:discipline>\n");
+            rdf.append("    <collex:freeculture>true</collex:freeculture>\n");
+            rdf.append("    <collex:federation>NINES</collex:federation>\n");
+            rdf.append("    <dc:date>1870</dc:date>\n");
+            rdf.append("    <rdfs:seeAlso rdf:resource=\"http://www.rossettiarchive.org/docs/doc").append(i);
+            rdf.append(".rawtext.html\"/>\n");
+            rdf.append("  </ra:doc>\n");
+        }
+        rdf.append("</rdf:RDF>\n");
+        return rdf.toString();
+    }
+
+    /**
+     * An error report that writes to a scratch file
+     */
+    public static ErrorReport errorReport() throws IOException {
+        File report = File.createTempFile("bench_report", ".txt");
+        report.deleteOnExit();
+        return new ErrorReport(report);
+    }
+
+    private static void put(final Document doc, final String name, final String value) {
+        doc.add(name, value);
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per document work after parsing: validation and JSON serialization, for
+ * metadata only documents and documents carrying 1 MB of OCR text
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentBenchmark {
+
+    @Param({ "metadata", "ocr" })
+    public String input;
+
+    private Document document;
+
+    @Setup
+    public void setup() {
+        String text = "ocr".equals(this.input) ? BenchData.ocrText(BenchData.ONE_MB) : null;
+        this.document = BenchData.document(1, text);
+    }
+
+    @Benchmark
+    public Document build() {
+        return BenchData.document(1, null);
+    }
+
+    @Benchmark
+    public long docToJson() throws IOException {
+        JsonBatch batch = new JsonBatch(64 * 1024);
+        RDFIndexer.docToJson(batch, this.document, "2013-01-01");
+        batch.finish();
+        return batch.size();
+    }
+
+    @Benchmark
+    public ArrayList<String> validateObject() {
+        return ValidationUtility.validateObject(false, this.document);
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * HTML stripping of spidered raw text (RawTextCleaner.cleanText) on a 1 MB
+ * page. Each tag removal copies the rest of the page, so a single call takes
+ * seconds; it is timed one call at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class RawTextCleanerBenchmark {
+
+    private String html;
+    private RawTextCleaner cleaner;
+
+    @Setup
+    public void setup() throws Exception {
+        this.html = BenchData.htmlPage(BenchData.ONE_MB);
+        this.cleaner = new RawTextCleaner(new RDFIndexerConfig(), BenchData.errorReport());
+    }
+
+    @Benchmark
+    public String cleanText() {
+        return this.cleaner.cleanText(this.html);
+    }
+}
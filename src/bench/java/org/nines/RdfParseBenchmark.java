@@ -0,0 +1,123 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.ntriples.NTriplesWriter;
+import org.openrdf.rio.rdfxml.RDFXMLParser;
+import org.openrdf.rio.turtle.TurtleWriter;
+
+/**
+ * RdfDocumentParser.parse of a whole file, from a single object (archives of
+ * many tiny files, where per file setup matters) to a thousand, in each of
+ * the input formats. The N-Triples and Turtle files are written by Rio from
+ * the RDF/XML one, so all three hold the same statements.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RdfParseBenchmark {
+
+    @Param({ "1", "1000" })
+    public int objects;
+
+    @Param({ "rdf", "nt", "ttl" })
+    public String format;
+
+    private File file;
+    private ErrorReport errorReport;
+    private LinkCollector linkCollector;
+    private RDFIndexerConfig config;
+    private RDFIndexerConfig cachedConfig;
+    private File cacheDir;
+    private final DocumentSink sink = new DocumentSink() {
+        public void document(String uri, Document document) {
+            // dropped
+        }
+    };
+
+    @Setup
+    public void setup() throws Exception {
+        String rdf = BenchData.rdfXml(this.objects);
+        this.file = File.createTempFile("bench", "." + this.format);
+        if (this.format.equals("rdf")) {
+            FileUtils.writeStringToFile(this.file, rdf, "UTF-8");
+        } else {
+            OutputStream out = new FileOutputStream(this.file);
+            try {
+                RDFHandler writer = this.format.equals("nt") ? new NTriplesWriter(out) : new TurtleWriter(out);
+                RDFXMLParser parser = new RDFXMLParser();
+                parser.setRDFHandler(writer);
+                parser.parse(new StringReader(rdf), "http://bench/");
+            } finally {
+                IOUtils.closeQuietly(out);
+            }
+        }
+        this.errorReport = BenchData.errorReport();
+        this.linkCollector = new LinkCollector();
+        this.config = new RDFIndexerConfig();
+        this.config.archiveName = "rossetti";
+        this.config.mode = RDFIndexerConfig.Mode.TEST;
+
+        // the same run with the file already in the parse cache
+        this.cacheDir = File.createTempFile("bench", ".cache");
+        this.cacheDir.delete();
+        this.cachedConfig = new RDFIndexerConfig();
+        this.cachedConfig.archiveName = this.config.archiveName;
+        this.cachedConfig.mode = this.config.mode;
+        this.cachedConfig.parseCache = new ParseCache(this.cacheDir, 1000000000L, this.cachedConfig);
+        RdfDocumentParser.parse(this.file, this.errorReport, this.linkCollector, this.cachedConfig, this.sink);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.file.delete();
+        FileUtils.deleteQuietly(this.cacheDir);
+    }
+
+    @Benchmark
+    public int parse() throws Exception {
+        return RdfDocumentParser.parse(this.file, this.errorReport, this.linkCollector, this.config, this.sink);
+    }
+
+    @Benchmark
+    public int replay() throws Exception {
+        return RdfDocumentParser.parse(this.file, this.errorReport, this.linkCollector, this.cachedConfig, this.sink);
+    }
+}
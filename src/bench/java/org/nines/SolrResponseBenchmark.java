@@ -0,0 +1,123 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Reading one page of a select response with OCR text, as RDFCompare does:
+ * the whole body as a String and a tree, against SolrClient's streaming reader
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SolrResponseBenchmark {
+
+    @Param({ "500" })
+    public int pageSize;
+
+    @Param({ "20000" })
+    public int textSize;
+
+    private byte[] body;
+
+    @Setup
+    public void setup() throws Exception {
+        JsonArray docs = new JsonArray();
+        String text = BenchData.ocrText(this.textSize);
+        for (int i = 0; i < this.pageSize; i++) {
+            JsonObject doc = new JsonObject();
+            doc.addProperty("uri", "http://bench/doc" + i);
+            doc.addProperty("archive", "bench");
+            JsonArray titles = new JsonArray();
+            titles.add(new JsonParser().parse("\"Title " + i + "\""));
+            doc.add("title", titles);
+            doc.addProperty("text", text);
+            docs.add(doc);
+        }
+        JsonObject response = new JsonObject();
+        response.addProperty("numFound", this.pageSize);
+        response.add("docs", docs);
+        JsonObject data = new JsonObject();
+        data.add("response", response);
+        data.addProperty("nextCursorMark", "AoE/bench");
+        this.body = data.toString().getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public List<JsonObject> tree() throws IOException {
+        String res = IOUtils.toString(new ByteArrayInputStream(this.body), "UTF-8");
+        JsonObject data = new JsonParser().parse(res).getAsJsonObject();
+        List<JsonObject> result = new ArrayList<JsonObject>();
+        Iterator<JsonElement> i = data.get("response").getAsJsonObject().get("docs").getAsJsonArray().iterator();
+        while (i.hasNext()) {
+            result.add(i.next().getAsJsonObject());
+        }
+        return result;
+    }
+
+    @Benchmark
+    public void stream(final Blackhole hole) throws IOException {
+        read(SolrClient.TEXT_ALL, hole);
+    }
+
+    @Benchmark
+    public void streamTruncated(final Blackhole hole) throws IOException {
+        read(1000, hole);
+    }
+
+    @Benchmark
+    public void streamSkipText(final Blackhole hole) throws IOException {
+        read(SolrClient.TEXT_SKIP, hole);
+    }
+
+    private void read(final int textLimit, final Blackhole hole) throws IOException {
+        SolrClient.readResponse(new InputStreamReader(new ByteArrayInputStream(this.body), "UTF-8"), textLimit,
+            new SolrClient.ResultHandler() {
+                public void document(JsonObject doc) {
+                    hole.consume(doc);
+                }
+            });
+    }
+}
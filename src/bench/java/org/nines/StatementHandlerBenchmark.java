@@ -0,0 +1,92 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openrdf.model.Statement;
+
+/**
+ * Statement dispatch in NinesStatementHandler: one typical document of
+ * metadata statements with a short inline text, handled and collected, and
+ * the dispatch alone for statements that add no field
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatementHandlerBenchmark {
+
+    // statements in BenchData.dispatchStatements
+    private static final int DISPATCH_STATEMENTS = 9;
+
+    private List<Statement> statements;
+    private List<Statement> dispatchStatements;
+    private NinesStatementHandler dispatchHandler;
+    private ErrorReport errorReport;
+    private LinkCollector linkCollector;
+    private RDFIndexerConfig config;
+    private File file;
+
+    @Setup
+    public void setup() throws Exception {
+        this.statements = BenchData.statements(1);
+        this.errorReport = BenchData.errorReport();
+        this.linkCollector = new LinkCollector();
+        this.config = new RDFIndexerConfig();
+        this.config.archiveName = "rossetti";
+        this.config.mode = RDFIndexerConfig.Mode.TEST;
+        this.file = new File("bench.rdf");
+
+        this.dispatchStatements = BenchData.dispatchStatements();
+        this.dispatchHandler = new NinesStatementHandler(this.errorReport, this.linkCollector, this.config);
+        this.dispatchHandler.setFile(this.file);
+    }
+
+    @Benchmark
+    public HashMap<String, Document> handleDocument() throws Exception {
+        NinesStatementHandler handler = new NinesStatementHandler(this.errorReport, this.linkCollector, this.config);
+        handler.setFile(this.file);
+        for (Statement statement : this.statements) {
+            handler.handleStatement(statement);
+        }
+        return handler.getDocuments();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DISPATCH_STATEMENTS)
+    public void dispatch() throws Exception {
+        for (Statement statement : this.dispatchStatements) {
+            this.dispatchHandler.handleStatement(statement);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cleaning applied to every field value in NinesStatementHandler.addFieldEntry
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextUtilsBenchmark {
+
+    @Param({ "word", "small", "ocr" })
+    public String input;
+
+    private String text;
+    private ErrorReport errorReport;
+
+    @Setup
+    public void setup() throws Exception {
+        if ("word".equals(this.input)) {
+            this.text = "Rossetti, Dante Gabriel";
+        } else if ("small".equals(this.input)) {
+            this.text = BenchData.smallField();
+        } else {
+            this.text = BenchData.ocrText(BenchData.ONE_MB);
+        }
+        this.errorReport = BenchData.errorReport();
+    }
+
+    @Benchmark
+    public String stripEscapeSequences() {
+        return TextUtils.stripEscapeSequences(this.text, this.errorReport, "http://bench/doc");
+    }
+
+    @Benchmark
+    public String normalizeWhitespace() {
+        return TextUtils.normalizeWhitespace(this.text);
+    }
+
+    @Benchmark
+    public String stripUnknownUTF8() {
+        return TextUtils.stripUnknownUTF8(this.text, this.errorReport, "http://bench/doc");
+    }
+
+    @Benchmark
+    public String addFieldEntryCleaning() {
+        String data = TextUtils.stripEscapeSequences(this.text, this.errorReport, "http://bench/doc");
+        data = TextUtils.normalizeWhitespace(data);
+        return TextUtils.stripUnknownUTF8(data, this.errorReport, "http://bench/doc");
+    }
+
+    @Benchmark
+    public String cleanField() {
+        return TextUtils.cleanField(this.text, this.errorReport, null, "http://bench/doc");
+    }
+}
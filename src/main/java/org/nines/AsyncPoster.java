@@ -8,17 +8,61 @@ import java.util.Iterator;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 
 
+/**
+ * Posts payloads and commits to SOLR on a pool of worker threads. The amount of
+ * outstanding work is capped both in requests and in payload bytes; once either
+ * cap is reached the caller blocks until a worker finishes, so a slow SOLR
+ * cannot make pending payloads pile up in memory.
+ *
+ * Each post and commit returns a Future that fails with the IOException of a
+ * request SOLR did not accept, and failures are counted for the end of the
+ * run. While SOLR is down new work is held back until its circuit breaker
+ * lets requests through again.
+ */
 @SuppressWarnings("rawtypes")
 public class AsyncPoster {
 
-    private ExecutorService service = null;
+    private ThreadPoolExecutor service = null;
     private List<Future> pending = null;
     private Logger log = Logger.getLogger( AsyncPoster.class );
+    private static final Metrics.Timer WAIT_TIMER = Metrics.timer( "solr.wait" );
+    private static final Metrics.Histogram POST_BYTES = Metrics.histogram( "post.bytes" );
+    private static final Metrics.Histogram POST_DOCS = Metrics.histogram( "post.documents" );
+
+    // flow control
+    private final Object flowLock = new Object( );
+    private final int maxInFlightRequests;
+    private final long maxInFlightBytes;
+    private int inFlightRequests = 0;
+    private long inFlightBytes = 0;
+
+    // stats
+    private int peakInFlightRequests = 0;
+    private long peakInFlightBytes = 0;
+    private int blockedCount = 0;
+    private long blockedNanos = 0;
+    private int submitted = 0;
+    private int commitCount = 0;
+    private long commitNanos = 0;
+    private int failedCount = 0;
 
     public AsyncPoster( final int concurrent ) {
-        this.service = Executors.newFixedThreadPool( concurrent );
+        this( concurrent, Long.MAX_VALUE, Integer.MAX_VALUE );
+    }
+
+    /**
+     * @param concurrent Number of worker threads posting to SOLR
+     * @param maxInFlightBytes Max payload bytes queued or being posted before the caller blocks
+     * @param maxInFlightRequests Max requests queued or being posted before the caller blocks
+     */
+    public AsyncPoster( final int concurrent, final long maxInFlightBytes, final int maxInFlightRequests ) {
+        this.service = new ThreadPoolExecutor( concurrent, concurrent, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>( ) );
+        this.maxInFlightBytes = Math.max( 1, maxInFlightBytes );
+        this.maxInFlightRequests = Math.max( 1, maxInFlightRequests );
         pending = new ArrayList<Future>( );
     }
 
@@ -31,82 +75,320 @@ public class AsyncPoster {
         } catch (InterruptedException e) {
             // do nothing...
         }
+        log.info( getStats( ) );
     }
 
-    public void asyncPost( final SolrClient client, final String archive, final String payload ) {
-        removeDone( );
-        pending.add( this.service.submit( new SolrPoster( client, payload, archive ) ) );
+    /**
+     * Notified on the posting thread once SOLR has accepted a payload
+     */
+    public interface PostListener {
+        void posted( JsonBatch payload );
     }
 
-    public void asyncCommit( final SolrClient client, final String archive ) {
-        removeDone( );
-        pending.add( this.service.submit( new SolrCommitter( client, archive ) ) );
+    public Future<?> asyncPost( final SolrClient client, final String archive, final JsonBatch payload ) {
+        return asyncPost( client, archive, payload, null );
+    }
+
+    /**
+     * Queue a batch to be posted
+     * 
+     * @return Completes once SOLR accepted the batch, or fails with the reason it did not
+     */
+    public Future<?> asyncPost( final SolrClient client, final String archive, final JsonBatch payload,
+        final PostListener listener ) {
+        long bytes = payload.size( );
+        POST_BYTES.update( bytes );
+        POST_DOCS.update( payload.getDocumentCount( ) );
+        awaitAvailable( client );
+        acquire( bytes );
+        return submit( new SolrPoster( client, payload, archive, listener ), bytes );
+    }
+
+    public Future<?> asyncCommit( final SolrClient client, final String archive ) {
+        return asyncCommit( client, archive, false );
+    }
+
+    /**
+     * Queue a commit. It runs once every post and commit queued before it is
+     * done, so with several workers it cannot overtake a batch still posting.
+     */
+    public Future<?> asyncCommit( final SolrClient client, final String archive, final boolean soft ) {
+        awaitAvailable( client );
+        acquire( 0 );
+        List<Future> earlier;
+        synchronized( pending ) {
+            earlier = new ArrayList<Future>( pending );
+        }
+        return submit( new SolrCommitter( client, archive, soft, earlier ), 0 );
     }
 
     // wait for any pending tasks to complete
     public void waitForPending( ) {
 
         log.info( "Waiting for pending tasks..." );
-        while( pending.isEmpty( ) == false ) {
+        while( true ) {
+            Future next;
+            synchronized( pending ) {
+                if ( pending.isEmpty( ) ) {
+                    break;
+                }
+                next = pending.get( 0 );
+            }
             try {
-                pending.get( 0 ).get( );
-                pending.remove( 0 );
+                next.get( );
             } catch( InterruptedException ex ) {
                 // do nothing...
             } catch( ExecutionException ex ) {
-                // do nothing...
+                // logged and counted by the task
+            }
+            if ( next.isDone( ) ) {
+                synchronized( pending ) {
+                    pending.remove( next );
+                }
             }
         }
         log.info( "All pending tasks complete" );
     }
 
     public void removeDone( ) {
-       for( Iterator<Future> f = pending.iterator( ); f.hasNext( ); ) {
-          if( f.next( ).isDone( ) == true ) {
-              f.remove( );
-          }
+       synchronized( pending ) {
+           for( Iterator<Future> f = pending.iterator( ); f.hasNext( ); ) {
+              if( f.next( ).isDone( ) == true ) {
+                  f.remove( );
+              }
+           }
        }
     }
 
+    /**
+     * @return Number of requests waiting for a free worker
+     */
+    public int getQueueDepth( ) {
+        return this.service.getQueue( ).size( );
+    }
+
+    /**
+     * @return Number of requests queued or being posted
+     */
+    public int getInFlightRequests( ) {
+        synchronized( flowLock ) {
+            return this.inFlightRequests;
+        }
+    }
+
+    /**
+     * @return Payload bytes queued or being posted
+     */
+    public long getInFlightBytes( ) {
+        synchronized( flowLock ) {
+            return this.inFlightBytes;
+        }
+    }
+
+    /**
+     * @return Total time in milliseconds that callers spent blocked on the in-flight caps
+     */
+    public long getBlockedMillis( ) {
+        synchronized( flowLock ) {
+            return TimeUnit.NANOSECONDS.toMillis( this.blockedNanos );
+        }
+    }
+
+    /**
+     * @return Number of times a caller had to block on the in-flight caps
+     */
+    public int getBlockedCount( ) {
+        synchronized( flowLock ) {
+            return this.blockedCount;
+        }
+    }
+
+    /**
+     * @return Total time in milliseconds spent waiting for SOLR commits
+     */
+    public long getCommitMillis( ) {
+        synchronized( flowLock ) {
+            return TimeUnit.NANOSECONDS.toMillis( this.commitNanos );
+        }
+    }
+
+    public int getCommitCount( ) {
+        synchronized( flowLock ) {
+            return this.commitCount;
+        }
+    }
+
+    /**
+     * @return Number of posts and commits SOLR did not accept
+     */
+    public int getFailedCount( ) {
+        synchronized( flowLock ) {
+            return this.failedCount;
+        }
+    }
+
+    public String getStats( ) {
+        synchronized( flowLock ) {
+            return "Poster stats: " + this.submitted + " requests, " + this.service.getMaximumPoolSize( )
+                + " workers, queue depth " + getQueueDepth( ) + ", peak in-flight " + this.peakInFlightRequests
+                + " requests / " + this.peakInFlightBytes + " bytes, blocked " + this.blockedCount + " times for "
+                + TimeUnit.NANOSECONDS.toMillis( this.blockedNanos ) + " ms, " + this.commitCount + " commits in "
+                + TimeUnit.NANOSECONDS.toMillis( this.commitNanos ) + " ms, " + this.failedCount + " failed";
+        }
+    }
+
+    private Future<?> submit( final Callable<Void> task, final long bytes ) {
+        removeDone( );
+        try {
+            Future<?> f = this.service.submit( new Callable<Void>( ) {
+                public Void call( ) throws Exception {
+                    try {
+                        return task.call( );
+                    } catch( Exception ex ) {
+                        synchronized( flowLock ) {
+                            failedCount++;
+                        }
+                        throw ex;
+                    } finally {
+                        release( bytes );
+                    }
+                }
+            } );
+            synchronized( pending ) {
+                pending.add( f );
+            }
+            return f;
+        } catch( RejectedExecutionException ex ) {
+            release( bytes );
+            throw ex;
+        }
+    }
+
+    // hold new work back while SOLR is down
+    private void awaitAvailable( final SolrClient client ) {
+        try {
+            client.awaitAvailable( );
+        } catch( InterruptedException ex ) {
+            Thread.currentThread( ).interrupt( );
+        }
+    }
+
+    // block until there is room for another request of the given size. A payload bigger
+    // than the byte cap is still let through once nothing else is in flight
+    private void acquire( final long bytes ) {
+        synchronized( flowLock ) {
+            if ( mustWait( bytes ) ) {
+                long start = System.nanoTime( );
+                this.blockedCount++;
+                log.info( "  waiting for SOLR: " + this.inFlightRequests + " requests / " + this.inFlightBytes
+                    + " bytes in flight, queue depth " + getQueueDepth( ) );
+                while ( mustWait( bytes ) ) {
+                    try {
+                        flowLock.wait( );
+                    } catch( InterruptedException ex ) {
+                        Thread.currentThread( ).interrupt( );
+                        break;
+                    }
+                }
+                this.blockedNanos += WAIT_TIMER.stop( start );
+            }
+            this.inFlightRequests++;
+            this.inFlightBytes += bytes;
+            this.submitted++;
+            this.peakInFlightRequests = Math.max( this.peakInFlightRequests, this.inFlightRequests );
+            this.peakInFlightBytes = Math.max( this.peakInFlightBytes, this.inFlightBytes );
+        }
+    }
+
+    private boolean mustWait( final long bytes ) {
+        if ( this.inFlightRequests >= this.maxInFlightRequests ) {
+            return true;
+        }
+        return this.inFlightRequests > 0 && this.inFlightBytes + bytes > this.maxInFlightBytes;
+    }
+
+    private void release( final long bytes ) {
+        synchronized( flowLock ) {
+            this.inFlightRequests--;
+            this.inFlightBytes -= bytes;
+            flowLock.notifyAll( );
+        }
+    }
+
     // Worker thread to post data to solr
-    private class SolrPoster implements Runnable {
+    private class SolrPoster implements Callable<Void> {
 
         private final SolrClient client;
-        private final String payload;
+        private final JsonBatch payload;
         private final String archive;
+        private final PostListener listener;
 
-        public SolrPoster( final SolrClient client, final String payload, final String archive ) {
+        public SolrPoster( final SolrClient client, final JsonBatch payload, final String archive,
+            final PostListener listener ) {
             this.client = client;
             this.archive = archive;
             this.payload = payload;
+            this.listener = listener;
 
-            log.info( "  posting: payload size " + this.payload.length( ) + " to SOLR archive " + this.archive );
+            log.info( "  posting: payload size " + this.payload.size( ) + " (" + this.payload.getDocumentCount( )
+                + " documents) to SOLR archive " + this.archive );
         }
 
-        public void run( ) {
+        public Void call( ) throws IOException {
             try {
                 client.postJSON( this.payload, this.archive );
             } catch( IOException ex ) {
                 log.error( "Post to SOLR FAILED: " + ex.getMessage( ) );
-                ex.printStackTrace( );
+                throw ex;
             }
+            if ( this.listener != null ) {
+                this.listener.posted( this.payload );
+            }
+            return null;
         }
     }
 
     // Worker thread to commit data to solr
-    private class SolrCommitter implements Runnable {
+    private class SolrCommitter implements Callable<Void> {
 
         private final SolrClient client;
         private final String archive;
+        private final boolean soft;
+        private final List<Future> earlier;
 
-        public SolrCommitter( final SolrClient client, final String archive ) {
+        public SolrCommitter( final SolrClient client, final String archive, final boolean soft,
+            final List<Future> earlier ) {
             this.client = client;
             this.archive = archive;
-            log.info("  committing to SOLR archive " + archive );
+            this.soft = soft;
+            this.earlier = earlier;
+            log.info("  " + ( soft ? "soft " : "" ) + "committing to SOLR archive " + archive );
         }
 
-        public void run( ) {
-            client.commit( this.archive );
+        public Void call( ) throws IOException {
+            // the queue is first in, first out, so everything submitted earlier
+            // has already been taken by a worker and cannot wait on this one
+            for ( Future f : this.earlier ) {
+                try {
+                    f.get( );
+                } catch( InterruptedException ex ) {
+                    Thread.currentThread( ).interrupt( );
+                    throw new InterruptedIOException( "Interrupted before commit" );
+                } catch( ExecutionException ex ) {
+                    // logged and counted by the task; commit what did get through
+                }
+            }
+            long start = System.nanoTime( );
+            try {
+                client.commit( this.archive, this.soft );
+            } finally {
+                long elapsed = System.nanoTime( ) - start;
+                synchronized( flowLock ) {
+                    commitCount++;
+                    commitNanos += elapsed;
+                }
+            }
+            return null;
         }
     }
 }
@@ -0,0 +1,168 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.InterruptedIOException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Stops every thread from sending requests to SOLR while it is down, instead
+ * of each one finding out for itself.
+ *
+ * The circuit opens after a number of failures in a row. While it is open,
+ * requests wait in {@link #acquire} until the cooldown has passed. The first
+ * request after that probes SOLR on its own: if it succeeds the circuit
+ * closes and the waiting requests go ahead, if it fails the circuit opens
+ * again with twice the cooldown, up to a maximum.
+ */
+final class CircuitBreaker {
+
+    public static final int DEFAULT_THRESHOLD = 5;
+    public static final long DEFAULT_COOLDOWN = 10 * 1000;
+    public static final long DEFAULT_MAX_COOLDOWN = 5 * 60 * 1000;
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    };
+
+    private static final Metrics.Counter OPENED = Metrics.counter("solr.circuit.opened");
+    private static final Metrics.Timer WAIT_TIMER = Metrics.timer("solr.circuit.wait");
+
+    private final Logger log = Logger.getLogger(CircuitBreaker.class);
+    private final int threshold;
+    private final long minCooldown;
+    private final long maxCooldown;
+
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long cooldown;
+    private long openUntil = 0;
+    private Thread prober = null;
+
+    public CircuitBreaker() {
+        this(DEFAULT_THRESHOLD, DEFAULT_COOLDOWN, DEFAULT_MAX_COOLDOWN);
+    }
+
+    /**
+     * @param threshold Failures in a row that open the circuit
+     * @param cooldownMillis How long the circuit first stays open
+     * @param maxCooldownMillis Longest the circuit stays open after failed probes
+     */
+    public CircuitBreaker(final int threshold, final long cooldownMillis, final long maxCooldownMillis) {
+        this.threshold = Math.max(1, threshold);
+        this.minCooldown = Math.max(1, cooldownMillis);
+        this.maxCooldown = Math.max(this.minCooldown, maxCooldownMillis);
+        this.cooldown = this.minCooldown;
+    }
+
+    /**
+     * Wait until a request may be sent. Returns at once while the circuit is
+     * closed; otherwise waits out the cooldown and, while a probe is out,
+     * its outcome. Every call must be followed by {@link #success},
+     * {@link #failure} or, if the request never reached SOLR, {@link #cancel}.
+     *
+     * @throws InterruptedIOException if the thread is interrupted while it waits
+     */
+    public synchronized void acquire() throws InterruptedIOException {
+        if (this.state == State.CLOSED) {
+            return;
+        }
+        long start = WAIT_TIMER.start();
+        try {
+            while (this.state != State.CLOSED) {
+                long now = System.currentTimeMillis();
+                if (this.state == State.OPEN && now >= this.openUntil) {
+                    this.state = State.HALF_OPEN;
+                    this.prober = Thread.currentThread();
+                    this.log.info("SOLR circuit half open: probing");
+                    return;
+                }
+                wait(this.state == State.OPEN ? this.openUntil - now : 0);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while SOLR circuit was open");
+        } finally {
+            WAIT_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * Wait while the circuit is open and its cooldown has not passed. Lets
+     * producers hold back new work without taking part in the probe.
+     */
+    public synchronized void awaitCooldown() throws InterruptedException {
+        long now;
+        while (this.state == State.OPEN && (now = System.currentTimeMillis()) < this.openUntil) {
+            wait(this.openUntil - now);
+        }
+    }
+
+    /**
+     * SOLR answered the request
+     */
+    public synchronized void success() {
+        if (this.state != State.CLOSED) {
+            this.log.info("SOLR circuit closed");
+            notifyAll();
+        }
+        this.state = State.CLOSED;
+        this.prober = null;
+        this.failures = 0;
+        this.cooldown = this.minCooldown;
+    }
+
+    /**
+     * The request never reached SOLR, so it says nothing about it. If it was
+     * the probe, the next request to come along probes instead.
+     */
+    public synchronized void cancel() {
+        if (this.state == State.HALF_OPEN && this.prober == Thread.currentThread()) {
+            this.state = State.OPEN;
+            this.prober = null;
+            this.openUntil = System.currentTimeMillis();
+            notifyAll();
+        }
+    }
+
+    /**
+     * SOLR could not be reached or was unable to handle the request
+     */
+    public synchronized void failure() {
+        this.failures++;
+        if (this.state == State.HALF_OPEN) {
+            this.cooldown = Math.min(this.cooldown * 2, this.maxCooldown);
+            open();
+        } else if (this.state == State.CLOSED && this.failures >= this.threshold) {
+            open();
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return this.state != State.CLOSED;
+    }
+
+    private void open() {
+        this.state = State.OPEN;
+        this.prober = null;
+        this.openUntil = System.currentTimeMillis() + this.cooldown;
+        OPENED.inc();
+        this.log.error("SOLR circuit open after " + this.failures + " failures in a row; pausing requests for "
+            + this.cooldown + " ms");
+        notifyAll();
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+/**
+ * Decides when the indexer commits to SOLR while it posts batches. A run
+ * always ends with one hard commit; the policy only controls the commits in
+ * between.
+ *
+ * A policy is a comma separated list of rules:
+ * <ul>
+ * <li><code>final</code> - no intermediate commits</li>
+ * <li><code>posts:N</code> - hard commit every N posts (the old behavior)</li>
+ * <li><code>docs:N</code> - hard commit once N documents were posted</li>
+ * <li><code>hard:S</code> - hard commit at most every S seconds</li>
+ * <li><code>soft:S</code> - soft commit at most every S seconds</li>
+ * <li><code>within:MS</code> - pass commitWithin=MS on every update and let
+ * SOLR schedule the commits</li>
+ * </ul>
+ * For example <code>soft:60,docs:200000</code>.
+ */
+final class CommitPolicy {
+
+    public static final String DEFAULT = "posts:5";
+
+    public enum Commit {
+        NONE, SOFT, HARD
+    };
+
+    private final String spec;
+    private int everyPosts = 0;
+    private long everyDocs = 0;
+    private long hardIntervalMillis = 0;
+    private long softIntervalMillis = 0;
+    private int commitWithinMillis = 0;
+
+    private int posts = 0;
+    private long docs = 0;
+    private long lastHard;
+    private long lastSoft;
+
+    private CommitPolicy(final String spec, final long now) {
+        this.spec = spec;
+        this.lastHard = now;
+        this.lastSoft = now;
+    }
+
+    /**
+     * Parse a policy
+     *
+     * @param spec Comma separated rules, see class description
+     * @return The policy
+     * @throws IllegalArgumentException if the policy is not valid
+     */
+    public static CommitPolicy parse(final String spec) {
+        return parse(spec, System.currentTimeMillis());
+    }
+
+    static CommitPolicy parse(final String spec, final long now) {
+        CommitPolicy policy = new CommitPolicy(spec, now);
+        for (String rule : spec.split(",")) {
+            rule = rule.trim();
+            if (rule.equals("final")) {
+                continue;
+            }
+            int pos = rule.indexOf(':');
+            if (pos < 0) {
+                throw new IllegalArgumentException("Invalid commit rule '" + rule + "'");
+            }
+            String name = rule.substring(0, pos);
+            long value;
+            try {
+                value = Long.parseLong(rule.substring(pos + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid commit rule '" + rule + "'");
+            }
+            if (value <= 0) {
+                throw new IllegalArgumentException("Commit rule '" + rule + "' must be positive");
+            }
+            if (name.equals("posts")) {
+                policy.everyPosts = (int) value;
+            } else if (name.equals("docs")) {
+                policy.everyDocs = value;
+            } else if (name.equals("hard")) {
+                policy.hardIntervalMillis = value * 1000;
+            } else if (name.equals("soft")) {
+                policy.softIntervalMillis = value * 1000;
+            } else if (name.equals("within")) {
+                policy.commitWithinMillis = (int) value;
+            } else {
+                throw new IllegalArgumentException("Unknown commit rule '" + name + "'");
+            }
+        }
+        return policy;
+    }
+
+    /**
+     * @return Value for commitWithin on update requests in milliseconds, 0 if not used
+     */
+    public int getCommitWithin() {
+        return this.commitWithinMillis;
+    }
+
+    /**
+     * Note a posted batch and decide whether to commit after it
+     *
+     * @param docCount Number of documents in the batch
+     * @return The commit to issue, if any
+     */
+    public Commit afterPost(final int docCount) {
+        return afterPost(docCount, System.currentTimeMillis());
+    }
+
+    synchronized Commit afterPost(final int docCount, final long now) {
+        this.posts++;
+        this.docs += docCount;
+        if ((this.everyPosts > 0 && this.posts >= this.everyPosts)
+            || (this.everyDocs > 0 && this.docs >= this.everyDocs)
+            || (this.hardIntervalMillis > 0 && now - this.lastHard >= this.hardIntervalMillis)) {
+            this.posts = 0;
+            this.docs = 0;
+            this.lastHard = now;
+            this.lastSoft = now;
+            return Commit.HARD;
+        }
+        if (this.softIntervalMillis > 0 && now - this.lastSoft >= this.softIntervalMillis) {
+            this.lastSoft = now;
+            return Commit.SOFT;
+        }
+        return Commit.NONE;
+    }
+
+    public String toString() {
+        return this.spec;
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Finds the corrected text file for a document URI. Corrected texts are named
+ * after the URI of their document with ':' replaced by <code>_C_</code>, '/'
+ * by <code>_S_</code> and <code>.txt</code> appended.
+ *
+ * Rather than decoding every file name into a URI, the index keeps a sorted
+ * array of 64 bit hashes of the file names and answers a lookup by encoding
+ * the URI, hashing it and searching the array; a hit is confirmed against the
+ * file system. The index is built the first time it is used. When given a
+ * cache file the hashes are saved there and reused by later runs for as long
+ * as the directory is not modified.
+ */
+final class CorrectedTextIndex {
+
+    private static final Logger LOG = Logger.getLogger(CorrectedTextIndex.class.getName());
+    private static final int CACHE_VERSION = 1;
+
+    private final File dir;
+    private final File cacheFile;
+    private long[] hashes = null;
+
+    /**
+     * @param dir The corrected text directory of the archive. It need not exist;
+     *        null means no corrected text.
+     * @param cacheFile Where to keep the hashes between runs, or null
+     */
+    public CorrectedTextIndex(final File dir, final File cacheFile) {
+        this.dir = dir;
+        this.cacheFile = cacheFile;
+    }
+
+    public File getDirectory() {
+        return this.dir;
+    }
+
+    /**
+     * @return The corrected text file for <code>uri</code>, or null if it has none
+     */
+    public File find(final String uri) {
+        String name = fileName(uri);
+        if (Arrays.binarySearch(getHashes(), hash(name)) < 0) {
+            return null;
+        }
+        File file = new File(this.dir, name);
+        return file.exists() ? file : null;
+    }
+
+    public boolean contains(final String uri) {
+        return find(uri) != null;
+    }
+
+    /**
+     * @return The number of corrected text files
+     */
+    public int size() {
+        return getHashes().length;
+    }
+
+    static String fileName(final String uri) {
+        return uri.replace(":", "_C_").replace("/", "_S_") + ".txt";
+    }
+
+    // 64 bit FNV-1a
+    static long hash(final String name) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < name.length(); i++) {
+            h ^= name.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private synchronized long[] getHashes() {
+        if (this.hashes == null) {
+            this.hashes = load();
+        }
+        return this.hashes;
+    }
+
+    private long[] load() {
+        if (this.dir == null || this.dir.isDirectory() == false) {
+            return new long[0];
+        }
+
+        long modified = this.dir.lastModified();
+        long[] cached = readCache(modified);
+        if (cached != null) {
+            LOG.info("Loaded " + cached.length + " corrected text entries from " + this.cacheFile);
+            return cached;
+        }
+
+        long listed = System.currentTimeMillis();
+        String[] names = this.dir.list();
+        if (names == null) {
+            return new long[0];
+        }
+        long[] built = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (name.endsWith(".txt")) {
+                built[count++] = hash(name);
+            }
+        }
+        built = Arrays.copyOf(built, count);
+        Arrays.sort(built);
+        LOG.info("Indexed " + count + " corrected text files in " + this.dir);
+
+        writeCache(modified, listed, built);
+        return built;
+    }
+
+    // the cached hashes, if they were listed from this directory as it is now
+    private long[] readCache(final long modified) {
+        if (this.cacheFile == null || this.cacheFile.exists() == false) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.cacheFile)));
+            if (in.readInt() != CACHE_VERSION || in.readUTF().equals(this.dir.getAbsolutePath()) == false) {
+                return null;
+            }
+            long cachedModified = in.readLong();
+            long listed = in.readLong();
+
+            // file system times may only have one second resolution; a listing taken
+            // in the same second as the last change may have missed part of it
+            if (cachedModified != modified || listed - modified < 1000) {
+                return null;
+            }
+            long[] cached = new long[in.readInt()];
+            for (int i = 0; i < cached.length; i++) {
+                cached[i] = in.readLong();
+            }
+            return cached;
+        } catch (IOException e) {
+            LOG.warn("Ignoring unreadable corrected text cache " + this.cacheFile + ": " + e.getMessage());
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private void writeCache(final long modified, final long listed, final long[] built) {
+        if (this.cacheFile == null) {
+            return;
+        }
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.cacheFile)));
+            out.writeInt(CACHE_VERSION);
+            out.writeUTF(this.dir.getAbsolutePath());
+            out.writeLong(modified);
+            out.writeLong(listed);
+            out.writeInt(built.length);
+            for (long h : built) {
+                out.writeLong(h);
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to write corrected text cache " + this.cacheFile + ": " + e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The fields of one parsed object. Field names are interned to small integer
+ * ids shared by all documents; the fields are kept in two parallel arrays in
+ * the order they were first added. A field with one value holds the string
+ * itself, a field with more holds a {@link Values} array, so the common single
+ * valued field costs no allocation beyond its slot.
+ *
+ * Documents are built by one thread; the field id table is shared and safe to
+ * use from any thread.
+ */
+final class Document {
+
+    private static final int INITIAL_FIELDS = 24;
+
+    // field name <-> id. Names of the SOLR schema are registered up front, others
+    // (role_*, tags) as they are first seen
+    private static final ConcurrentMap<String, Integer> FIELD_IDS = new ConcurrentHashMap<String, Integer>();
+    private static volatile String[] fieldNames = new String[0];
+    static {
+        for (String name : RDFIndexerConfig.ALL_FIELDS) {
+            fieldId(name);
+        }
+        for (String name : ValidationUtility.ROLE_FIELDS) {
+            fieldId(name);
+        }
+    }
+
+    private int[] ids = new int[INITIAL_FIELDS];
+    private Object[] values = new Object[INITIAL_FIELDS];
+    private int size = 0;
+
+    /**
+     * @return The id of field <code>name</code>, registering it if it is new
+     */
+    static int fieldId(final String name) {
+        Integer id = FIELD_IDS.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (FIELD_IDS) {
+            id = FIELD_IDS.get(name);
+            if (id == null) {
+                String[] names = Arrays.copyOf(fieldNames, fieldNames.length + 1);
+                names[names.length - 1] = name;
+                fieldNames = names;
+                id = names.length - 1;
+                FIELD_IDS.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    static String fieldName(final int id) {
+        return fieldNames[id];
+    }
+
+    /**
+     * Add a value to a field, after any it already has
+     */
+    public void add(final String name, final String value) {
+        int id = fieldId(name);
+        int slot = slot(id);
+        if (slot < 0) {
+            append(id, value);
+        } else if (this.values[slot] instanceof Values) {
+            ((Values) this.values[slot]).append(value);
+        } else {
+            this.values[slot] = new Values((String) this.values[slot], value);
+        }
+    }
+
+    /**
+     * Replace all values of a field with <code>value</code>
+     */
+    public void set(final String name, final String value) {
+        int id = fieldId(name);
+        int slot = slot(id);
+        if (slot < 0) {
+            append(id, value);
+        } else {
+            this.values[slot] = value;
+        }
+    }
+
+    /**
+     * Replace all values of a field. An empty list removes the field.
+     */
+    public void set(final String name, final List<String> list) {
+        remove(name);
+        for (String value : list) {
+            add(name, value);
+        }
+    }
+
+    public boolean has(final String name) {
+        Integer id = FIELD_IDS.get(name);
+        return id != null && slot(id) >= 0;
+    }
+
+    /**
+     * @return The values of a field, or null if the document does not have it.
+     *         The list is a read only view.
+     */
+    public List<String> get(final String name) {
+        Integer id = FIELD_IDS.get(name);
+        if (id == null) {
+            return null;
+        }
+        int slot = slot(id);
+        return slot < 0 ? null : values(slot);
+    }
+
+    /**
+     * @return The first value of a field or "" if there is none
+     */
+    public String getFirst(final String name) {
+        List<String> list = get(name);
+        return list == null || list.isEmpty() ? "" : list.get(0);
+    }
+
+    /**
+     * @return The last value of a field or "" if there is none
+     */
+    public String getLast(final String name) {
+        List<String> list = get(name);
+        return list == null || list.isEmpty() ? "" : list.get(list.size() - 1);
+    }
+
+    /**
+     * Remove a field
+     *
+     * @return Its values, or null if the document did not have it
+     */
+    public List<String> remove(final String name) {
+        Integer id = FIELD_IDS.get(name);
+        int slot = id == null ? -1 : slot(id);
+        if (slot < 0) {
+            return null;
+        }
+        List<String> removed = new ArrayList<String>(values(slot));
+        System.arraycopy(this.ids, slot + 1, this.ids, slot, this.size - slot - 1);
+        System.arraycopy(this.values, slot + 1, this.values, slot, this.size - slot - 1);
+        this.size--;
+        this.values[this.size] = null;
+        return removed;
+    }
+
+    /**
+     * Drop all but the first <code>count</code> values of a field
+     */
+    public void truncate(final String name, final int count) {
+        Integer id = FIELD_IDS.get(name);
+        int slot = id == null ? -1 : slot(id);
+        if (slot >= 0 && this.values[slot] instanceof Values) {
+            Values multi = (Values) this.values[slot];
+            if (count == 1) {
+                this.values[slot] = multi.items[0];
+            } else if (count < multi.count) {
+                Arrays.fill(multi.items, count, multi.count, null);
+                multi.count = count;
+            }
+        }
+    }
+
+    /**
+     * @return The number of fields
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return The name of the field in <code>slot</code>, 0 to size() - 1
+     */
+    public String name(final int slot) {
+        return fieldName(this.ids[slot]);
+    }
+
+    /**
+     * @return The values of the field in <code>slot</code>, as a read only view
+     */
+    public List<String> values(final int slot) {
+        Object value = this.values[slot];
+        if (value instanceof Values) {
+            return (Values) value;
+        }
+        return Collections.singletonList((String) value);
+    }
+
+    /**
+     * @return The names of all fields, in the order they were added
+     */
+    public List<String> names() {
+        List<String> names = new ArrayList<String>(this.size);
+        for (int i = 0; i < this.size; i++) {
+            names.add(name(i));
+        }
+        return names;
+    }
+
+    private int slot(final int id) {
+        for (int i = 0; i < this.size; i++) {
+            if (this.ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void append(final int id, final String value) {
+        if (this.size == this.ids.length) {
+            this.ids = Arrays.copyOf(this.ids, this.size * 2);
+            this.values = Arrays.copyOf(this.values, this.size * 2);
+        }
+        this.ids[this.size] = id;
+        this.values[this.size] = value;
+        this.size++;
+    }
+
+    /**
+     * The values of a multi-valued field
+     */
+    private static final class Values extends AbstractList<String> {
+        private String[] items;
+        private int count;
+
+        Values(final String first, final String second) {
+            this.items = new String[] { first, second, null, null };
+            this.count = 2;
+        }
+
+        void append(final String value) {
+            if (this.count == this.items.length) {
+                this.items = Arrays.copyOf(this.items, this.count * 2);
+            }
+            this.items[this.count++] = value;
+        }
+
+        @Override
+        public String get(final int index) {
+            if (index >= this.count) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.count);
+            }
+            return this.items[index];
+        }
+
+        @Override
+        public int size() {
+            return this.count;
+        }
+    }
+}
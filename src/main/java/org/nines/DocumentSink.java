@@ -0,0 +1,29 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+/**
+ * Receives each object of an RDF file as soon as the parser has finished it,
+ * so that it can be validated and posted while the rest of the file is parsed.
+ */
+interface DocumentSink {
+
+    /**
+     * @param uri The URI of the object
+     * @param document Its fields, complete. The sink may keep or change it.
+     */
+    void document(String uri, Document document);
+}
@@ -29,6 +29,9 @@ public class ErrorReport {
   private int errorCount;
   private Set<String> fileCount;
   private Set<String> objectCount;
+
+  // errors added by a thread that is recording a parse are also kept for the parse cache
+  private final ThreadLocal<ParseCache.Recorder> recorders = new ThreadLocal<ParseCache.Recorder>();
   
   public ErrorReport( File reportFile ) throws IOException {
     //create the empty report.txt
@@ -38,7 +41,11 @@ public class ErrorReport {
     objectCount = new HashSet<String>();
   }
   
-  public void addError( IndexerError e ) {
+  public synchronized void addError( IndexerError e ) {
+    ParseCache.Recorder recorder = recorders.get();
+    if (recorder != null) {
+      recorder.error(e);
+    }
     try {
 		report.write(e.toString() + "\r\n");
 	} 
@@ -50,7 +57,15 @@ public class ErrorReport {
     errorCount++;
   }
   
-  public void flush() {
+  void startRecording( ParseCache.Recorder recorder ) {
+    recorders.set(recorder);
+  }
+
+  void stopRecording() {
+    recorders.remove();
+  }
+
+  public synchronized void flush() {
    try {
 		report.flush();
 	} catch (IOException e) {
@@ -58,7 +73,7 @@ public class ErrorReport {
 	}
   }
   
-  public void close() {
+  public synchronized void close() {
      try {
 		report.flush();
 	    report.close();	  
@@ -67,11 +82,11 @@ public class ErrorReport {
 	}
   }
 
-  public ErrorSummary getSummary() {
+  public synchronized ErrorSummary getSummary() {
     return new ErrorSummary(fileCount.size(), objectCount.size(), errorCount);
   }
 
-	public int getErrorCount() {
+	public synchronized int getErrorCount() {
 		return errorCount;
 	}
 }
\ No newline at end of file
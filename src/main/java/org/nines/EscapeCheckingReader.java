@@ -0,0 +1,259 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Passes RDF source through unchanged while looking for escape sequences that
+ * are probably wrong. This is the streaming form of running
+ * <code>StringEscapeUtils.unescapeXml</code> over the whole file and reporting
+ * every <code>&amp;#</code> left in the result: a double escaped entity such
+ * as <code>&amp;amp;#8212;</code> or a numeric entity that does not decode.
+ *
+ * The XML unescaping is replayed one character at a time and only a small
+ * window of the unescaped text is kept for the snippets, so the file never has
+ * to be held in memory. Positions and snippets are the same as the whole file
+ * scan produced.
+ */
+final class EscapeCheckingReader extends FilterReader {
+
+    // chars of unescaped text either side of a suspicious sequence in the snippet
+    private static final int SNIPPET_RADIUS = 25;
+
+    // an entity longer than this cannot decode, so its text is passed on as is
+    private static final int MAX_ENTITY = 32;
+
+    private static final int WINDOW_KEEP = 2 * SNIPPET_RADIUS + 2;
+    private static final int WINDOW_MAX = 4096;
+
+    private final List<String> warnings = new ArrayList<String>();
+    private final LinkedList<Long> pending = new LinkedList<Long>();
+
+    // entity being collected, without the leading '&'
+    private final StringBuilder entity = new StringBuilder();
+    private boolean inEntity = false;
+
+    // tail of the unescaped text; window[0] is unescaped char number windowStart
+    private final StringBuilder window = new StringBuilder();
+    private long windowStart = 0;
+    private long emitted = 0;
+    private char last = 0;
+    private boolean finished = false;
+
+    public EscapeCheckingReader(final Reader in) {
+        super(in);
+    }
+
+    /**
+     * @return One message per suspicious escape sequence found so far
+     */
+    public List<String> getWarnings() {
+        return this.warnings;
+    }
+
+    /**
+     * Read and check the rest of the source. Used when the parser stops early,
+     * so the whole file is still checked.
+     */
+    public void drain() throws IOException {
+        char[] buf = new char[8192];
+        while (read(buf, 0, buf.length) != -1) {
+            // checked as it is read
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int c = this.in.read();
+        if (c == -1) {
+            finish();
+        } else {
+            scan((char) c);
+        }
+        return c;
+    }
+
+    @Override
+    public int read(final char[] cbuf, final int off, final int len) throws IOException {
+        int n = this.in.read(cbuf, off, len);
+        if (n == -1) {
+            finish();
+        } else {
+            for (int i = off; i < off + n; i++) {
+                scan(cbuf[i]);
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        // skipped text must still be checked
+        char[] buf = new char[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int len = read(buf, 0, (int) Math.min(n - skipped, buf.length));
+            if (len == -1) {
+                break;
+            }
+            skipped += len;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Does not close the underlying reader. XML parsers close their input when
+     * they stop, and the rest of the file may still need to be drained; the
+     * owner of the stream closes it.
+     */
+    @Override
+    public void close() {
+    }
+
+    // replay of the unescape loop in commons-lang Entities.unescape
+    private void scan(final char c) {
+        if (this.inEntity == false) {
+            if (c == '&') {
+                this.inEntity = true;
+                this.entity.setLength(0);
+            } else {
+                emit(c);
+            }
+            return;
+        }
+
+        if (c == ';') {
+            this.inEntity = false;
+            int value = entityValue(this.entity);
+            if (value == -1) {
+                emit('&');
+                emitAll(this.entity);
+                emit(';');
+            } else {
+                emit((char) value);
+            }
+        } else if (c == '&') {
+            // another '&' before the ';': the first one is plain text
+            emit('&');
+            emitAll(this.entity);
+            this.entity.setLength(0);
+        } else {
+            this.entity.append(c);
+            if (this.entity.length() > MAX_ENTITY) {
+                this.inEntity = false;
+                emit('&');
+                emitAll(this.entity);
+            }
+        }
+    }
+
+    private static int entityValue(final CharSequence content) {
+        int len = content.length();
+        if (len == 0) {
+            return -1;
+        }
+        if (content.charAt(0) == '#') {
+            if (len == 1) {
+                return -1;
+            }
+            int value;
+            try {
+                char hex = content.charAt(1);
+                if (hex == 'x' || hex == 'X') {
+                    value = Integer.parseInt(content.subSequence(2, len).toString(), 16);
+                } else {
+                    value = Integer.parseInt(content.subSequence(1, len).toString(), 10);
+                }
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+            return value > 0xFFFF ? -1 : value;
+        }
+        String name = content.toString();
+        if (name.equals("quot")) {
+            return '"';
+        } else if (name.equals("amp")) {
+            return '&';
+        } else if (name.equals("lt")) {
+            return '<';
+        } else if (name.equals("gt")) {
+            return '>';
+        } else if (name.equals("apos")) {
+            return '\'';
+        }
+        return -1;
+    }
+
+    private void emitAll(final CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            emit(text.charAt(i));
+        }
+    }
+
+    // one char of unescaped text
+    private void emit(final char c) {
+        if (this.last == '&' && c == '#') {
+            this.pending.add(this.emitted - 1);
+        }
+        this.window.append(c);
+        this.emitted++;
+        this.last = c;
+
+        while (this.pending.isEmpty() == false && this.emitted >= this.pending.getFirst() + SNIPPET_RADIUS) {
+            report(this.pending.removeFirst());
+        }
+        if (this.window.length() > WINDOW_MAX) {
+            int drop = this.window.length() - WINDOW_KEEP;
+            this.window.delete(0, drop);
+            this.windowStart += drop;
+        }
+    }
+
+    private void report(final long pos) {
+        long from = Math.max(0, pos - SNIPPET_RADIUS);
+        long to = Math.min(this.emitted, pos + SNIPPET_RADIUS);
+        String snip = this.window.substring((int) (from - this.windowStart), (int) (to - this.windowStart));
+        this.warnings.add("Potentially Invalid Escape sequence.\n   Position: [" + pos + "]\n   Snippet: [" + snip
+            + "]");
+    }
+
+    private void finish() {
+        if (this.finished) {
+            return;
+        }
+        this.finished = true;
+        if (this.inEntity) {
+            // no ';' before the end: the '&' is plain text
+            this.inEntity = false;
+            emit('&');
+            emitAll(this.entity);
+        }
+        while (this.pending.isEmpty() == false) {
+            report(this.pending.removeFirst());
+        }
+    }
+}
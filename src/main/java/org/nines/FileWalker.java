@@ -0,0 +1,213 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Walks a directory tree depth first and hands out the files one at a time,
+ * in the same order a recursive listFiles walk would visit them. Only the
+ * listings of the directories on the current path are held in memory, so work
+ * can start on the first file straight away.
+ *
+ * With more than one scan thread the listings of the next few sibling
+ * directories are read ahead in the background, which helps on network file
+ * systems where each listing is slow.
+ */
+final class FileWalker implements Iterator<File> {
+
+    private static final Logger LOG = Logger.getLogger(FileWalker.class.getName());
+
+    // sibling directories listed ahead of the walk per scan thread
+    private static final int PREFETCH_PER_THREAD = 2;
+
+    private final boolean rdfOnly;
+    private final List<Frame> stack = new ArrayList<Frame>();
+    private final ExecutorService scanner;
+    private final int prefetch;
+    private File next;
+    private int count = 0;
+
+    // one directory being walked
+    private static final class Frame {
+        final File[] entries;
+        final List<Future<File[]>> listings;
+        int pos = 0;
+        int scanned = 0;   // entries checked by the read ahead
+        int listing = 0;   // read ahead listings not yet used
+
+        Frame(File[] entries) {
+            this.entries = entries;
+            this.listings = new ArrayList<Future<File[]>>(entries.length);
+            for (int i = 0; i < entries.length; i++) {
+                this.listings.add(null);
+            }
+        }
+    }
+
+    /**
+     * @param root Directory to walk, or a single file
+     * @param rdfOnly If true only files with an RDF extension are returned, see
+     *        RdfDocumentParser.isRdfFile
+     * @param scanThreads Number of threads listing directories; 1 lists them as they are reached
+     */
+    public FileWalker(final File root, final boolean rdfOnly, final int scanThreads) {
+        this.rdfOnly = rdfOnly;
+        if (scanThreads > 1) {
+            this.scanner = Executors.newFixedThreadPool(scanThreads);
+            this.prefetch = scanThreads * PREFETCH_PER_THREAD;
+        } else {
+            this.scanner = null;
+            this.prefetch = 0;
+        }
+        if (root.isDirectory()) {
+            enter(root, list(root));
+        } else {
+            LOG.info("loading file: " + root.getPath());
+            this.next = root;
+        }
+    }
+
+    /**
+     * @return Number of files returned so far
+     */
+    public int getCount() {
+        return this.count;
+    }
+
+    public boolean hasNext() {
+        if (this.next == null) {
+            this.next = advance();
+        }
+        return this.next != null;
+    }
+
+    public File next() {
+        if (hasNext() == false) {
+            throw new NoSuchElementException();
+        }
+        File file = this.next;
+        this.next = null;
+        this.count++;
+        return file;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stop any read ahead. Must be called if the walk is abandoned early.
+     */
+    public void close() {
+        if (this.scanner != null) {
+            this.scanner.shutdownNow();
+        }
+    }
+
+    private File advance() {
+        while (this.stack.isEmpty() == false) {
+            Frame frame = this.stack.get(this.stack.size() - 1);
+            if (frame.pos == frame.entries.length) {
+                this.stack.remove(this.stack.size() - 1);
+                continue;
+            }
+            int pos = frame.pos++;
+            File entry = frame.entries[pos];
+            Future<File[]> listing = frame.listings.set(pos, null);
+            if (listing != null) {
+                frame.listing--;
+            }
+            String name = entry.getName();
+            if (isSourceControl(entry)) {
+                LOG.info("Skipping source control directory");
+                continue;
+            }
+            if (entry.isDirectory()) {
+                readAhead(frame);
+                enter(entry, listing == null ? list(entry) : await(entry, listing));
+                continue;
+            }
+            if (this.rdfOnly == false || RdfDocumentParser.isRdfFile(name)) {
+                return entry;
+            }
+        }
+        close();
+        return null;
+    }
+
+    private void enter(final File dir, final File[] entries) {
+        LOG.info("loading directory: " + dir.getPath() + " (" + this.count + " files so far)");
+        Frame frame = new Frame(entries);
+        this.stack.add(frame);
+        readAhead(frame);
+    }
+
+    // start listing the next few directories after the current position in a frame
+    private void readAhead(final Frame frame) {
+        if (this.scanner == null) {
+            return;
+        }
+        frame.scanned = Math.max(frame.scanned, frame.pos);
+        while (frame.listing < this.prefetch && frame.scanned < frame.entries.length) {
+            final File entry = frame.entries[frame.scanned];
+            if (isSourceControl(entry) == false && entry.isDirectory()) {
+                frame.listings.set(frame.scanned, this.scanner.submit(new Callable<File[]>() {
+                    public File[] call() {
+                        return list(entry);
+                    }
+                }));
+                frame.listing++;
+            }
+            frame.scanned++;
+        }
+    }
+
+    private static boolean isSourceControl(final File entry) {
+        return entry.getName().endsWith(".svn") || entry.getName().endsWith(".git");
+    }
+
+    private static File[] await(final File dir, final Future<File[]> listing) {
+        try {
+            return listing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.error("Unable to list " + dir, e.getCause());
+        }
+        return list(dir);
+    }
+
+    private static File[] list(final File dir) {
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            LOG.error("Unable to list directory " + dir);
+            return new File[0];
+        }
+        return entries;
+    }
+}
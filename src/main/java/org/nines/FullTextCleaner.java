@@ -53,7 +53,7 @@ public class FullTextCleaner {
         this.log = Logger.getLogger(FullTextCleaner.class.getName());
         this.custom = custom;
         
-        Charset cs = Charset.availableCharsets().get("UTF-8");
+        Charset cs = Charset.forName("UTF-8");
         this.decoder = cs.newDecoder();
         this.decoder.onMalformedInput(CodingErrorAction.REPLACE);
         this.decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
@@ -0,0 +1,179 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Durable record of the files an INDEX or SPIDER run has finished with, so an
+ * interrupted run can be resumed without starting over.
+ *
+ * For indexing a file only counts as finished once every batch holding its
+ * documents has been acknowledged by SOLR. Batches are numbered as they are
+ * queued and the checkpoint only moves past a batch once it and all batches
+ * before it have been posted; a failed post stalls the checkpoint, so the
+ * files behind it are redone on resume.
+ *
+ * The checkpoint is an append-only list of absolute paths. It is removed once
+ * a run completes.
+ */
+final class IndexCheckpoint {
+
+    private final File checkpointFile;
+    private final Set<String> done = new HashSet<String>();
+    private final Map<Long, List<File>> acked = new HashMap<Long, List<File>>();
+    private FileOutputStream stream;
+    private Writer writer;
+    private long lastQueued = 0;
+    private long lastPosted = 0;
+
+    public IndexCheckpoint(final File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    public File getFile() {
+        return this.checkpointFile;
+    }
+
+    /**
+     * Open the checkpoint for writing.
+     *
+     * @param resume If true, files recorded by the previous run are kept and
+     *            reported as done; otherwise the checkpoint starts empty
+     * @throws IOException
+     */
+    public synchronized void open(final boolean resume) throws IOException {
+        this.done.clear();
+        if (resume && this.checkpointFile.exists()) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.checkpointFile), "UTF-8"));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.length() > 0) {
+                        this.done.add(line);
+                    }
+                }
+            } finally {
+                IOUtils.closeQuietly(reader);
+            }
+        }
+        this.stream = new FileOutputStream(this.checkpointFile, resume);
+        this.writer = new OutputStreamWriter(this.stream, "UTF-8");
+    }
+
+    /**
+     * @return Number of files recorded as done
+     */
+    public synchronized int size() {
+        return this.done.size();
+    }
+
+    public synchronized boolean isDone(final File file) {
+        return this.done.contains(file.getAbsolutePath());
+    }
+
+    /**
+     * Record files that need nothing more from SOLR (spidered files)
+     *
+     * @param file
+     * @throws IOException
+     */
+    public synchronized void markDone(final File file) throws IOException {
+        write(Collections.singletonList(file));
+        sync();
+    }
+
+    /**
+     * Note that a batch is about to be posted
+     *
+     * @return The sequence number of the batch
+     */
+    public synchronized long batchQueued() {
+        return ++this.lastQueued;
+    }
+
+    /**
+     * SOLR acknowledged a batch. The files whose last documents were in it are
+     * recorded once every earlier batch has been acknowledged too.
+     *
+     * @param sequence The sequence number from batchQueued
+     * @param files The files that finished in this batch
+     * @throws IOException
+     */
+    public synchronized void batchPosted(final long sequence, final List<File> files) throws IOException {
+        this.acked.put(sequence, files);
+        boolean advanced = false;
+        while (this.acked.containsKey(this.lastPosted + 1)) {
+            this.lastPosted++;
+            write(this.acked.remove(this.lastPosted));
+            advanced = true;
+        }
+        if (advanced) {
+            sync();
+        }
+    }
+
+    /**
+     * Close the checkpoint. If every queued batch was acknowledged the run is
+     * complete and the checkpoint is removed.
+     *
+     * @return true if the run completed and the checkpoint was removed
+     */
+    public synchronized boolean close() {
+        IOUtils.closeQuietly(this.writer);
+        this.writer = null;
+        if (this.lastPosted == this.lastQueued) {
+            return this.checkpointFile.delete();
+        }
+        return false;
+    }
+
+    private void write(final Collection<File> files) throws IOException {
+        if (this.writer == null) {
+            throw new IOException("Checkpoint " + this.checkpointFile + " is not open");
+        }
+        for (File file : files) {
+            String path = file.getAbsolutePath();
+            if (this.done.add(path)) {
+                this.writer.write(path);
+                this.writer.write('\n');
+            }
+        }
+    }
+
+    // make sure recorded files survive a crash
+    private void sync() throws IOException {
+        this.writer.flush();
+        this.stream.getFD().sync();
+    }
+}
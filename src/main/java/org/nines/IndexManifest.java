@@ -0,0 +1,259 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Record of the RDF files that went into an archive: path, size, modification
+ * time, content hash and the URIs each file produced. Incremental indexing uses
+ * it to skip files that have not changed since the last run and to find the
+ * URIs whose source files have gone away.
+ *
+ * The manifest is a plain text file. Each file is an <code>F</code> line
+ * (path, size, mtime, hash; tab separated) followed by one <code>U</code>
+ * line per URI.
+ */
+final class IndexManifest {
+
+    private final File manifestFile;
+    private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+    /**
+     * What is known about one RDF file
+     */
+    static final class Entry {
+        final String path;
+        final long size;
+        final long lastModified;
+        final String hash;
+        final List<String> uris;
+
+        Entry(String path, long size, long lastModified, String hash, List<String> uris) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.uris = uris;
+        }
+    }
+
+    public IndexManifest(final File manifestFile) {
+        this.manifestFile = manifestFile;
+    }
+
+    public File getFile() {
+        return this.manifestFile;
+    }
+
+    /**
+     * Load the manifest from disk. A missing manifest is treated as empty.
+     * @throws IOException
+     */
+    public synchronized void load() throws IOException {
+        this.entries.clear();
+        if (this.manifestFile.exists() == false) {
+            return;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.manifestFile), "UTF-8"));
+            Entry current = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("F\t")) {
+                    String[] parts = line.split("\t");
+                    if (parts.length != 5) {
+                        throw new IOException("Corrupt manifest line: " + line);
+                    }
+                    current = new Entry(parts[1], Long.parseLong(parts[2]), Long.parseLong(parts[3]), parts[4],
+                        new ArrayList<String>());
+                    this.entries.put(current.path, current);
+                } else if (line.startsWith("U\t") && current != null) {
+                    current.uris.add(line.substring(2));
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt manifest " + this.manifestFile + ": " + e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Write the manifest to disk. The new manifest replaces the old one only
+     * once it has been completely written.
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        File tmp = new File(this.manifestFile.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+            for (Entry entry : this.entries.values()) {
+                writer.write("F\t" + entry.path + "\t" + entry.size + "\t" + entry.lastModified + "\t" + entry.hash
+                    + "\n");
+                for (String uri : entry.uris) {
+                    writer.write("U\t" + uri + "\n");
+                }
+            }
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+        if (this.manifestFile.exists() && this.manifestFile.delete() == false) {
+            throw new IOException("Unable to replace manifest " + this.manifestFile);
+        }
+        if (tmp.renameTo(this.manifestFile) == false) {
+            throw new IOException("Unable to write manifest " + this.manifestFile);
+        }
+    }
+
+    public synchronized Entry get(final File file) {
+        return this.entries.get(file.getAbsolutePath());
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Check if a file is unchanged since it was recorded. Size and modification time
+     * are checked first; the content is only hashed when they differ, so a file that
+     * was touched but not edited still counts as unchanged.
+     *
+     * @param file
+     * @return true if the recorded content matches the file on disk
+     * @throws IOException
+     */
+    public boolean isUnchanged(final File file) throws IOException {
+        Entry entry = get(file);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.size == file.length() && entry.lastModified == file.lastModified()) {
+            return true;
+        }
+        if (entry.size != file.length()) {
+            return false;
+        }
+        String hash = hash(file);
+        if (hash.equals(entry.hash)) {
+            // same content; remember the new timestamp so it is not hashed again
+            synchronized (this) {
+                this.entries.put(entry.path, new Entry(entry.path, entry.size, file.lastModified(), hash, entry.uris));
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record the URIs a file produced, replacing anything known about it before
+     *
+     * @param file
+     * @param uris
+     * @throws IOException
+     */
+    public void update(final File file, final Collection<String> uris) throws IOException {
+        Entry entry = new Entry(file.getAbsolutePath(), file.length(), file.lastModified(), hash(file),
+            new ArrayList<String>(uris));
+        synchronized (this) {
+            this.entries.put(entry.path, entry);
+        }
+    }
+
+    /**
+     * Drop the entries for files that were not seen in this run
+     *
+     * @param seenPaths Absolute paths of all files present in this run
+     * @return The entries that were removed
+     */
+    public synchronized List<Entry> removeMissing(final Set<String> seenPaths) {
+        List<Entry> removed = new ArrayList<Entry>();
+        for (Iterator<Entry> i = this.entries.values().iterator(); i.hasNext();) {
+            Entry entry = i.next();
+            if (seenPaths.contains(entry.path) == false) {
+                removed.add(entry);
+                i.remove();
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return Every URI currently produced by a file in the manifest
+     */
+    public synchronized Set<String> getAllUris() {
+        Set<String> uris = new HashSet<String>();
+        for (Entry entry : this.entries.values()) {
+            uris.addAll(entry.uris);
+        }
+        return uris;
+    }
+
+    /**
+     * Compute the SHA-1 of a file's content as a hex string
+     */
+    public static String hash(final File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1 is not available");
+        }
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            byte[] buf = new byte[64 * 1024];
+            int len;
+            while ((len = is.read(buf)) != -1) {
+                digest.update(buf, 0, len);
+            }
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+        return toHex(digest.digest());
+    }
+
+    static String toHex(final byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -24,6 +24,10 @@ class IndexerError {
     return uri;
   }
 
+  public String getMessage() {
+    return errMsg;
+  }
+
   public String toString() {
     return filename + "\t" + uri + "\t" + errMsg;
   }
@@ -0,0 +1,361 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+
+/**
+ * A batch of SOLR documents written as a JSON array straight into a
+ * growing UTF-8 buffer. Each document is serialized exactly once and the
+ * byte size of the batch is tracked as it grows, so the indexer can decide
+ * when to post without re-serializing the pending documents.
+ *
+ * Usage: beginDocument, any number of field calls, endDocument; repeat. Call
+ * finish once the batch is complete and hand it to the poster.
+ */
+final class JsonBatch implements SolrClient.Payload {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final char LINE_SEPARATOR = (char) 0x2028;
+    private static final char PARAGRAPH_SEPARATOR = (char) 0x2029;
+    private static final Metrics.Timer TEXT_TIMER = Metrics.timer( "text.read" );
+    private static final Metrics.Histogram TEXT_SIZE = Metrics.histogram( "text.chars" );
+
+    private final Buffer buffer;
+    private final Writer out;
+    private final List<File> completedFiles = new ArrayList<File>( );
+    private int docCount = 0;
+    private boolean firstField = true;
+    private boolean finished = false;
+
+    public JsonBatch( final int initialSize ) {
+        this.buffer = new Buffer( initialSize );
+        this.out = new OutputStreamWriter( this.buffer, UTF8 );
+        write( '[' );
+    }
+
+    public void beginDocument( ) {
+        if ( this.finished ) {
+            throw new IllegalStateException( "Batch has already been finished" );
+        }
+        if ( this.docCount > 0 ) {
+            write( ',' );
+        }
+        write( '{' );
+        this.firstField = true;
+    }
+
+    /**
+     * Write a multi-valued field of the current document
+     */
+    public void field( final String name, final List<String> values ) {
+        writeName( name );
+        write( '[' );
+        for ( int i = 0; i < values.size(); i++ ) {
+            if ( i > 0 ) {
+                write( ',' );
+            }
+            writeString( values.get( i ) );
+        }
+        write( ']' );
+    }
+
+    /**
+     * Write a multi-valued field of the current document whose values are
+     * followed by the contents of <code>files</code>. The files are read as
+     * UTF-8 and copied into the batch a block at a time, so they never have to
+     * be held in memory as strings. If a file cannot be read the value is cut
+     * short, the field is still closed, and the exception is rethrown.
+     */
+    public void field( final String name, final List<String> values, final List<File> files ) throws IOException {
+        writeName( name );
+        write( '[' );
+        boolean first = true;
+        for ( String value : values ) {
+            if ( first == false ) {
+                write( ',' );
+            }
+            writeString( value );
+            first = false;
+        }
+        IOException error = null;
+        for ( File file : files ) {
+            if ( first == false ) {
+                write( ',' );
+            }
+            try {
+                writeFile( file );
+            } catch ( IOException e ) {
+                error = e;
+            }
+            first = false;
+        }
+        write( ']' );
+        if ( error != null ) {
+            throw error;
+        }
+    }
+
+    /**
+     * Write a single valued field of the current document
+     */
+    public void field( final String name, final String value ) {
+        writeName( name );
+        writeString( value );
+    }
+
+    public void endDocument( ) {
+        write( '}' );
+        this.docCount++;
+    }
+
+    /**
+     * Add a complete document that is already in JSON tree form
+     */
+    public void addDocument( final JsonElement json, final Gson gson ) {
+        if ( this.docCount > 0 ) {
+            write( ',' );
+        }
+        gson.toJson( json, this.out );
+        this.docCount++;
+    }
+
+    /**
+     * Add the documents of another batch that has not been finished. Lets a
+     * worker write its documents, text files included, into a batch of its
+     * own and only hold a shared batch while the bytes are appended.
+     */
+    public void addDocuments( final JsonBatch other ) {
+        if ( this.finished ) {
+            throw new IllegalStateException( "Batch has already been finished" );
+        }
+        if ( other.finished ) {
+            throw new IllegalStateException( "Added batch has already been finished" );
+        }
+        if ( other.docCount == 0 ) {
+            return;
+        }
+        other.flushWriter( );
+        if ( this.docCount > 0 ) {
+            write( ',' );
+        }
+        flushWriter( );
+        // everything after the opening '['
+        other.buffer.writeTo( this.buffer, 1 );
+        this.docCount += other.docCount;
+    }
+
+    /**
+     * Close the JSON array. No documents may be added after this.
+     */
+    public void finish( ) {
+        if ( this.finished == false ) {
+            write( ']' );
+            flushWriter( );
+            this.finished = true;
+        }
+    }
+
+    /**
+     * @return The number of UTF-8 bytes written so far
+     */
+    public long size( ) {
+        flushWriter( );
+        return this.buffer.size( );
+    }
+
+    public int getDocumentCount( ) {
+        return this.docCount;
+    }
+
+    public boolean isEmpty( ) {
+        return this.docCount == 0;
+    }
+
+    /**
+     * Note that the last document of <code>file</code> is in this batch, so the
+     * file is fully indexed once the batch has been posted
+     */
+    public void addCompletedFile( final File file ) {
+        this.completedFiles.add( file );
+    }
+
+    public List<File> getCompletedFiles( ) {
+        return this.completedFiles;
+    }
+
+    /**
+     * Copy the finished batch to <code>os</code> without duplicating the buffer
+     */
+    public void writeTo( final OutputStream os ) throws IOException {
+        finish( );
+        this.buffer.writeTo( os );
+    }
+
+    private void writeName( final String name ) {
+        if ( this.firstField == false ) {
+            write( ',' );
+        }
+        writeString( name );
+        write( ':' );
+        this.firstField = false;
+    }
+
+    private void writeString( final String value ) {
+        try {
+            this.out.write( '"' );
+            int start = 0;
+            final int len = value.length( );
+            for ( int i = 0; i < len; i++ ) {
+                char c = value.charAt( i );
+                if ( needsEscape( c ) == false ) {
+                    continue;
+                }
+                if ( i > start ) {
+                    this.out.write( value, start, i - start );
+                }
+                writeEscaped( c );
+                start = i + 1;
+            }
+            if ( len > start ) {
+                this.out.write( value, start, len - start );
+            }
+            this.out.write( '"' );
+        } catch ( IOException e ) {
+            // the buffer is in memory; this cannot happen
+            throw new IllegalStateException( e );
+        }
+    }
+
+    // the contents of a text file as a JSON string
+    private void writeFile( final File file ) throws IOException {
+        long timer = TEXT_TIMER.start( );
+        long chars = 0;
+        write( '"' );
+        Reader in = null;
+        try {
+            in = new InputStreamReader( new FileInputStream( file ), UTF8 );
+            char[] buf = new char[ 8192 ];
+            int n;
+            while ( ( n = in.read( buf ) ) != -1 ) {
+                writeChars( buf, n );
+                chars += n;
+            }
+        } finally {
+            IOUtils.closeQuietly( in );
+            write( '"' );
+            TEXT_TIMER.stop( timer );
+            TEXT_SIZE.update( chars );
+        }
+    }
+
+    private void writeChars( final char[] buf, final int len ) {
+        try {
+            int start = 0;
+            for ( int i = 0; i < len; i++ ) {
+                char c = buf[ i ];
+                if ( needsEscape( c ) == false ) {
+                    continue;
+                }
+                if ( i > start ) {
+                    this.out.write( buf, start, i - start );
+                }
+                writeEscaped( c );
+                start = i + 1;
+            }
+            if ( len > start ) {
+                this.out.write( buf, start, len - start );
+            }
+        } catch ( IOException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static boolean needsEscape( final char c ) {
+        return c < 0x20 || c == '"' || c == '\\' || c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR;
+    }
+
+    private void writeEscaped( final char c ) throws IOException {
+        switch ( c ) {
+            case '"':
+                this.out.write( "\\\"" );
+                break;
+            case '\\':
+                this.out.write( "\\\\" );
+                break;
+            case '\n':
+                this.out.write( "\\n" );
+                break;
+            case '\r':
+                this.out.write( "\\r" );
+                break;
+            case '\t':
+                this.out.write( "\\t" );
+                break;
+            default:
+                this.out.write( "\\u" );
+                this.out.write( HEX[ ( c >> 12 ) & 0xf ] );
+                this.out.write( HEX[ ( c >> 8 ) & 0xf ] );
+                this.out.write( HEX[ ( c >> 4 ) & 0xf ] );
+                this.out.write( HEX[ c & 0xf ] );
+        }
+    }
+
+    private void write( final char c ) {
+        try {
+            this.out.write( c );
+        } catch ( IOException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    // a byte buffer that can be copied from an offset without duplicating it
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        Buffer( final int size ) {
+            super( size );
+        }
+
+        void writeTo( final ByteArrayOutputStream os, final int offset ) {
+            os.write( this.buf, offset, this.count - offset );
+        }
+    }
+
+    private void flushWriter( ) {
+        try {
+            this.out.flush( );
+        } catch ( IOException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+}
@@ -9,6 +9,9 @@ public class LinkCollector
 {
     private Writer dataWriter;
 
+    // links added by a thread that is recording a parse are also kept for the parse cache
+    private final ThreadLocal<ParseCache.Recorder> recorders = new ThreadLocal<ParseCache.Recorder>();
+
     /**
      * Testing LinkCollector that writes to System.out instead
      * of a file
@@ -37,8 +40,13 @@ public class LinkCollector
         }
     }
 
-    public void addLink(String documentURI, String filename, String url)
+    public synchronized void addLink(String documentURI, String filename, String url)
     {
+        ParseCache.Recorder recorder = recorders.get();
+        if (recorder != null)
+        {
+            recorder.link(documentURI, filename, url);
+        }
         try
         {
             dataWriter.write(documentURI + "\t" + filename + "\t" + url + "\n");
@@ -51,7 +59,17 @@ public class LinkCollector
         }
     }
 
-    public void close()
+    void startRecording(ParseCache.Recorder recorder)
+    {
+        recorders.set(recorder);
+    }
+
+    void stopRecording()
+    {
+        recorders.remove();
+    }
+
+    public synchronized void close()
     {
         try
         {
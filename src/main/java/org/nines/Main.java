@@ -28,6 +28,21 @@ public class Main {
         final String maxSize = "maxSize";       // indexing: the max size of data to send to solr
         final String custom = "custom";         // flag to indicate customized clean
         final String encoding = "encoding";     // set char set of raw source text for clea
+        final String threads = "threads";       // indexing: number of files to parse concurrently
+        final String scanThreads = "scanThreads"; // index/spider: number of threads listing directories
+        final String gzip = "gzip";             // indexing: gzip the body of solr update requests
+        final String incremental = "incremental"; // indexing: only index files changed since the last run
+        final String commit = "commit";         // indexing: commit policy
+        final String resume = "resume";         // index/spider: skip files finished by an interrupted run
+        final String postThreads = "postThreads";          // indexing: number of concurrent solr posts
+        final String maxPendingPosts = "maxPendingPosts";  // indexing: max posts in flight before blocking
+        final String maxPendingBytes = "maxPendingBytes";  // indexing: max payload bytes in flight before blocking
+        final String maxConnections = "maxConnections";    // max pooled connections to solr
+        final String connectTimeout = "connectTimeout";    // seconds to wait for a solr connection
+        final String readTimeout = "readTimeout";          // seconds a solr read may block
+        final String retries = "retries";                  // retries of a failed solr request
+        final String parseCache = "parseCache";            // test/indexing: folder of saved parses
+        final String parseCacheSize = "parseCacheSize";    // test/indexing: max bytes of saved parses
 
         // define the list of command line options
         Options options = new Options();
@@ -46,9 +61,40 @@ public class Main {
         options.addOptionGroup(fieldOpts);
 
         options.addOption(deleteFlag, false, "Delete ALL items from an existing archive");
+        options.addOption(incremental, false,
+                "Only index RDF files that changed since the last run and delete documents whose files are gone");
+        options.addOption(resume, false, "Resume an interrupted INDEX or SPIDER run, skipping the files it finished");
         options.addOption(logDir, true, "Set the root directory for all indexer logs");
         options.addOption(pageSize, true,
                 "Set max documents returned per solr page. Default = 500 for most, 1 for special cases");
+        options.addOption(threads, true, "Number of RDF files to parse and validate concurrently. Default = 1");
+        options.addOption(scanThreads, true,
+                "Number of threads listing source directories ahead of indexing. Default = 1");
+        options.addOption(gzip, false, "Gzip update requests sent to solr (solr must accept gzipped request bodies)");
+        options.addOption(postThreads, true, "Number of concurrent posts to solr. Default = 1");
+        options.addOption(maxPendingPosts, true, "Max posts queued or in flight before indexing waits. Default = 4");
+        options.addOption(maxPendingBytes, true,
+                "Max payload bytes queued or in flight before indexing waits. Default = 40000000");
+
+        options.addOption(maxConnections, true,
+                "Max keep-alive connections to solr. Default = " + SolrClient.DEFAULT_MAX_CONNECTIONS
+                + ", and at least one more than postThreads when indexing");
+        options.addOption(connectTimeout, true, "Seconds to wait for a connection to solr. Default = "
+                + SolrClient.HTTP_CLIENT_TIMEOUT / 1000);
+        options.addOption(readTimeout, true,
+                "Seconds a read from solr may block, or a request wait for a pooled connection. 0 waits forever. Default = "
+                + SolrClient.DEFAULT_SOCKET_TIMEOUT / 1000);
+        options.addOption(retries, true,
+                "Times a failed solr request is retried, waiting longer each time. Default = "
+                + RetryPolicy.DEFAULT_RETRIES);
+        options.addOption(parseCache, true,
+                "Folder to save parsed RDF files in, so unchanged files are not parsed again by later runs");
+        options.addOption(parseCacheSize, true,
+                "Max bytes of saved parses before the least recently used are removed. Default = 1000000000");
+
+        options.addOption(commit, true,
+                "Commit policy: comma separated final, posts:N, docs:N, hard:SECONDS, soft:SECONDS, within:MILLIS. "
+                + "Default = " + CommitPolicy.DEFAULT);
 
         options.addOption(encoding, true, "Encoding of source raw text file for clean");
         options.addOption(custom, true, "Customized clean class");
@@ -79,10 +125,54 @@ public class Main {
             if (line.hasOption(pageSize)) {
                 config.pageSize = Integer.parseInt(line.getOptionValue(pageSize));
             }
+            if (line.hasOption(threads)) {
+                config.numThreads = Math.max(1, Integer.parseInt(line.getOptionValue(threads)));
+            }
+            if (line.hasOption(scanThreads)) {
+                config.scanThreads = Math.max(1, Integer.parseInt(line.getOptionValue(scanThreads)));
+            }
+            if (line.hasOption(postThreads)) {
+                config.postThreads = Math.max(1, Integer.parseInt(line.getOptionValue(postThreads)));
+            }
+            if (line.hasOption(maxPendingPosts)) {
+                config.maxPendingPosts = Math.max(1, Integer.parseInt(line.getOptionValue(maxPendingPosts)));
+            }
+            if (line.hasOption(maxPendingBytes)) {
+                config.maxPendingBytes = Long.parseLong(line.getOptionValue(maxPendingBytes));
+            }
+            if (line.hasOption(commit)) {
+                config.commitPolicy = line.getOptionValue(commit);
+                try {
+                    CommitPolicy.parse(config.commitPolicy);
+                } catch (IllegalArgumentException e) {
+                    throw new ParseException(e.getMessage());
+                }
+            }
+            if (line.hasOption(maxConnections)) {
+                config.maxConnections = Math.max(1, Integer.parseInt(line.getOptionValue(maxConnections)));
+            }
+            if (line.hasOption(connectTimeout)) {
+                config.connectTimeout = Integer.parseInt(line.getOptionValue(connectTimeout)) * 1000;
+            }
+            if (line.hasOption(readTimeout)) {
+                config.readTimeout = Integer.parseInt(line.getOptionValue(readTimeout)) * 1000;
+            }
+            if (line.hasOption(retries)) {
+                config.retries = Math.max(0, Integer.parseInt(line.getOptionValue(retries)));
+            }
+            if (line.hasOption(parseCache)) {
+                config.parseCacheDir = new File(line.getOptionValue(parseCache));
+            }
+            if (line.hasOption(parseCacheSize)) {
+                config.parseCacheSize = Long.parseLong(line.getOptionValue(parseCacheSize));
+            }
             if (line.hasOption(logDir)) {
                 config.logRoot = line.getOptionValue(logDir);
             }
             config.deleteAll = line.hasOption(deleteFlag);
+            config.incremental = line.hasOption(incremental);
+            config.resume = line.hasOption(resume);
+            config.compressRequests = line.hasOption(gzip);
 
             // compare stuff
             if (line.hasOption(includeFlag)) {
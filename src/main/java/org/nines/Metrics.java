@@ -0,0 +1,329 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+/**
+ * Process wide registry of counters, timers and histograms for an indexer run.
+ * Metrics are created on first use and are safe to update from any thread.
+ * Call sites normally keep the metric in a static field:
+ *
+ * <pre>
+ * private static final Metrics.Timer PARSE = Metrics.timer("rdf.parse");
+ * ...
+ * long start = PARSE.start();
+ * ...
+ * PARSE.stop(start);
+ * </pre>
+ *
+ * At the end of a run the summary is written as JSON: a rate for every
+ * counter and count, mean and p50/p95/p99/max for every timer and histogram.
+ */
+final class Metrics {
+
+    private static final ConcurrentMap<String, Counter> COUNTERS = new ConcurrentHashMap<String, Counter>();
+    private static final ConcurrentMap<String, Timer> TIMERS = new ConcurrentHashMap<String, Timer>();
+    private static final ConcurrentMap<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<String, Histogram>();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(final String name) {
+        Counter counter = COUNTERS.get(name);
+        if (counter == null) {
+            COUNTERS.putIfAbsent(name, new Counter());
+            counter = COUNTERS.get(name);
+        }
+        return counter;
+    }
+
+    public static Timer timer(final String name) {
+        Timer timer = TIMERS.get(name);
+        if (timer == null) {
+            TIMERS.putIfAbsent(name, new Timer());
+            timer = TIMERS.get(name);
+        }
+        return timer;
+    }
+
+    public static Histogram histogram(final String name) {
+        Histogram histogram = HISTOGRAMS.get(name);
+        if (histogram == null) {
+            HISTOGRAMS.putIfAbsent(name, new Histogram());
+            histogram = HISTOGRAMS.get(name);
+        }
+        return histogram;
+    }
+
+    /**
+     * Zero every metric. Metrics held by call sites stay registered.
+     */
+    public static void reset() {
+        for (Counter counter : COUNTERS.values()) {
+            counter.value.set(0);
+        }
+        for (Histogram histogram : TIMERS.values()) {
+            histogram.clear();
+        }
+        for (Histogram histogram : HISTOGRAMS.values()) {
+            histogram.clear();
+        }
+    }
+
+    /**
+     * Build the run summary
+     *
+     * @param elapsedMillis Wall clock time of the run
+     */
+    public static JsonObject summary(final long elapsedMillis) {
+        double seconds = Math.max(elapsedMillis, 1) / 1000.0;
+        JsonObject json = new JsonObject();
+        json.addProperty("elapsed_sec", seconds);
+
+        JsonObject counters = new JsonObject();
+        for (Map.Entry<String, Counter> entry : sorted(COUNTERS).entrySet()) {
+            long value = entry.getValue().get();
+            JsonObject counter = new JsonObject();
+            counter.addProperty("count", value);
+            counter.addProperty("per_sec", value / seconds);
+            counters.add(entry.getKey(), counter);
+        }
+        json.add("counters", counters);
+
+        JsonObject timers = new JsonObject();
+        for (Map.Entry<String, Timer> entry : sorted(TIMERS).entrySet()) {
+            Timer timer = entry.getValue();
+            if (timer.getCount() == 0) {
+                continue;
+            }
+            JsonObject stage = new JsonObject();
+            stage.addProperty("count", timer.getCount());
+            stage.addProperty("total_ms", millis(timer.getSum()));
+            stage.addProperty("mean_ms", millis(timer.getMean()));
+            stage.addProperty("p50_ms", millis(timer.getPercentile(50)));
+            stage.addProperty("p95_ms", millis(timer.getPercentile(95)));
+            stage.addProperty("p99_ms", millis(timer.getPercentile(99)));
+            stage.addProperty("max_ms", millis(timer.getMax()));
+            stage.addProperty("per_sec", timer.getCount() / seconds);
+            timers.add(entry.getKey(), stage);
+        }
+        json.add("timers", timers);
+
+        JsonObject histograms = new JsonObject();
+        for (Map.Entry<String, Histogram> entry : sorted(HISTOGRAMS).entrySet()) {
+            Histogram histogram = entry.getValue();
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            JsonObject values = new JsonObject();
+            values.addProperty("count", histogram.getCount());
+            values.addProperty("total", histogram.getSum());
+            values.addProperty("mean", histogram.getMean());
+            values.addProperty("p50", histogram.getPercentile(50));
+            values.addProperty("p95", histogram.getPercentile(95));
+            values.addProperty("p99", histogram.getPercentile(99));
+            values.addProperty("max", histogram.getMax());
+            values.addProperty("total_per_sec", histogram.getSum() / seconds);
+            histograms.add(entry.getKey(), values);
+        }
+        json.add("histograms", histograms);
+        return json;
+    }
+
+    /**
+     * Write the run summary to <code>file</code>
+     *
+     * @param file
+     * @param run Properties describing the run, added to the summary as is
+     * @param elapsedMillis Wall clock time of the run
+     * @throws IOException
+     */
+    public static void write(final File file, final JsonObject run, final long elapsedMillis) throws IOException {
+        JsonObject json = summary(elapsedMillis);
+        json.add("run", run);
+        Writer out = null;
+        try {
+            out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            new GsonBuilder().setPrettyPrinting().create().toJson(json, out);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    private static <T> Map<String, T> sorted(final Map<String, T> map) {
+        return new TreeMap<String, T>(map);
+    }
+
+    private static double millis(final double nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+
+    /**
+     * A running total
+     */
+    public static final class Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        public void inc() {
+            this.value.incrementAndGet();
+        }
+
+        public void add(final long delta) {
+            this.value.addAndGet(delta);
+        }
+
+        public long get() {
+            return this.value.get();
+        }
+    }
+
+    /**
+     * Distribution of non-negative values. Values are counted in log-linear
+     * buckets (8 per power of two), so percentiles are accurate to within
+     * about 12% while memory use stays fixed.
+     */
+    public static class Histogram {
+        private static final int EXACT = 16;
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int BUCKETS = EXACT + (63 - 4) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        public void update(final long value) {
+            long v = Math.max(0, value);
+            this.buckets.incrementAndGet(bucket(v));
+            this.count.incrementAndGet();
+            this.sum.addAndGet(v);
+            long current;
+            while (v > (current = this.max.get())) {
+                if (this.max.compareAndSet(current, v)) {
+                    break;
+                }
+            }
+        }
+
+        public long getCount() {
+            return this.count.get();
+        }
+
+        public long getSum() {
+            return this.sum.get();
+        }
+
+        public long getMax() {
+            return this.max.get();
+        }
+
+        public double getMean() {
+            long n = getCount();
+            return n == 0 ? 0 : (double) getSum() / n;
+        }
+
+        /**
+         * @param percent 0 - 100
+         * @return The upper bound of the bucket holding the percentile, never more than the max
+         */
+        public long getPercentile(final double percent) {
+            long n = getCount();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(n * percent / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += this.buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), getMax());
+                }
+            }
+            return getMax();
+        }
+
+        void clear() {
+            for (int i = 0; i < BUCKETS; i++) {
+                this.buckets.set(i, 0);
+            }
+            this.count.set(0);
+            this.sum.set(0);
+            this.max.set(0);
+        }
+
+        static int bucket(final long v) {
+            if (v < EXACT) {
+                return (int) v;
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return EXACT + (exp - 4) * SUB_BUCKETS + sub;
+        }
+
+        static long upperBound(final int bucket) {
+            if (bucket < EXACT) {
+                return bucket;
+            }
+            int exp = (bucket - EXACT) / SUB_BUCKETS + 4;
+            long sub = (bucket - EXACT) % SUB_BUCKETS;
+            long width = 1L << (exp - SUB_BITS);
+            return ((SUB_BUCKETS + sub) * width) + width - 1;
+        }
+    }
+
+    /**
+     * A histogram of elapsed times in nanoseconds
+     */
+    public static final class Timer extends Histogram {
+
+        public long start() {
+            return System.nanoTime();
+        }
+
+        /**
+         * Record the time since <code>start</code>
+         *
+         * @return The elapsed nanoseconds
+         */
+        public long stop(final long start) {
+            long elapsed = System.nanoTime() - start;
+            update(elapsed);
+            return elapsed;
+        }
+
+        public long getTotalMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(getSum());
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.helpers.RDFParserBase;
+
+/**
+ * An N-Triples parser that works a line at a time. Each triple is cut out of
+ * its line with a few index scans, and strings are only rebuilt when they
+ * hold escapes. Rio's own parser reads the input a character at a time.
+ *
+ * A line that is not a valid triple is reported to the parse error listener
+ * and skipped, unless the parser is set to stop at the first error.
+ */
+final class NTriplesLineParser extends RDFParserBase {
+
+    private String line;
+    private int pos;
+    private int lineNo;
+
+    public RDFFormat getRDFFormat() {
+        return RDFFormat.NTRIPLES;
+    }
+
+    public void parse(final InputStream in, final String baseURI) throws IOException, RDFParseException,
+        RDFHandlerException {
+        parse(new InputStreamReader(in, "UTF-8"), baseURI);
+    }
+
+    public void parse(final Reader reader, final String baseURI) throws IOException, RDFParseException,
+        RDFHandlerException {
+        BufferedReader lines = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader(
+            reader);
+        this.lineNo = 0;
+        try {
+            if (this.rdfHandler != null) {
+                this.rdfHandler.startRDF();
+            }
+            while ((this.line = lines.readLine()) != null) {
+                this.lineNo++;
+                this.pos = 0;
+                parseLine();
+            }
+            if (this.rdfHandler != null) {
+                this.rdfHandler.endRDF();
+            }
+        } finally {
+            this.line = null;
+            clear();
+        }
+    }
+
+    private void parseLine() throws RDFParseException, RDFHandlerException {
+        skipSpace();
+        if (this.pos == this.line.length() || this.line.charAt(this.pos) == '#') {
+            return;
+        }
+
+        Resource subject = (peek() == '_') ? parseBNode() : parseURI();
+        if (subject == null) {
+            return;
+        }
+        skipSpace();
+        URI predicate = parseURI();
+        if (predicate == null) {
+            return;
+        }
+        skipSpace();
+        Value object;
+        char c = peek();
+        if (c == '"') {
+            object = parseLiteral();
+        } else if (c == '_') {
+            object = parseBNode();
+        } else {
+            object = parseURI();
+        }
+        if (object == null) {
+            return;
+        }
+        skipSpace();
+        if (peek() != '.') {
+            error("Expected '.'");
+            return;
+        }
+        this.pos++;
+        skipSpace();
+        if (this.pos < this.line.length() && this.line.charAt(this.pos) != '#') {
+            error("Content after '.'");
+            return;
+        }
+
+        if (this.rdfHandler != null) {
+            this.rdfHandler.handleStatement(createStatement(subject, predicate, object));
+        }
+    }
+
+    private URI parseURI() throws RDFParseException {
+        if (peek() != '<') {
+            error("Expected '<'");
+            return null;
+        }
+        int end = this.line.indexOf('>', this.pos + 1);
+        if (end == -1) {
+            error("Unterminated URI");
+            return null;
+        }
+        String uri = unescape(this.pos + 1, end);
+        if (uri == null) {
+            return null;
+        }
+        this.pos = end + 1;
+        return createURI(uri);
+    }
+
+    private Resource parseBNode() throws RDFParseException {
+        if (this.line.startsWith("_:", this.pos) == false) {
+            error("Expected '_:'");
+            return null;
+        }
+        int start = this.pos + 2;
+        int end = start;
+        while (end < this.line.length() && isSpace(this.line.charAt(end)) == false) {
+            end++;
+        }
+        // a '.' may end the triple without a space before it
+        if (end > start && this.line.charAt(end - 1) == '.') {
+            end--;
+        }
+        if (end == start) {
+            error("Empty blank node label");
+            return null;
+        }
+        this.pos = end;
+        return createBNode(this.line.substring(start, end));
+    }
+
+    private Value parseLiteral() throws RDFParseException {
+        int start = this.pos + 1;
+        int end = start;
+        while (end < this.line.length() && this.line.charAt(end) != '"') {
+            end += (this.line.charAt(end) == '\\') ? 2 : 1;
+        }
+        if (end >= this.line.length()) {
+            error("Unterminated literal");
+            return null;
+        }
+        String label = unescape(start, end);
+        if (label == null) {
+            return null;
+        }
+        this.pos = end + 1;
+
+        String lang = null;
+        URI datatype = null;
+        if (peek() == '@') {
+            int langStart = ++this.pos;
+            while (this.pos < this.line.length()
+                && (Character.isLetterOrDigit(this.line.charAt(this.pos)) || this.line.charAt(this.pos) == '-')) {
+                this.pos++;
+            }
+            if (this.pos == langStart) {
+                error("Empty language tag");
+                return null;
+            }
+            lang = this.line.substring(langStart, this.pos);
+        } else if (this.line.startsWith("^^", this.pos)) {
+            this.pos += 2;
+            datatype = parseURI();
+            if (datatype == null) {
+                return null;
+            }
+        }
+        return createLiteral(label, lang, datatype);
+    }
+
+    /**
+     * @return The text between <code>start</code> and <code>end</code> with
+     *         its escapes decoded, or null if an escape is invalid
+     */
+    private String unescape(final int start, final int end) throws RDFParseException {
+        int backslash = this.line.indexOf('\\', start);
+        if (backslash == -1 || backslash >= end) {
+            return this.line.substring(start, end);
+        }
+
+        StringBuilder out = new StringBuilder(end - start);
+        out.append(this.line, start, backslash);
+        int i = backslash;
+        while (i < end) {
+            char c = this.line.charAt(i);
+            if (c != '\\') {
+                out.append(c);
+                i++;
+                continue;
+            }
+            if (i + 1 >= end) {
+                this.pos = i;
+                error("Unfinished escape sequence");
+                return null;
+            }
+            char e = this.line.charAt(i + 1);
+            i += 2;
+            switch (e) {
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'b':
+                    out.append('\b');
+                    break;
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                case 'f':
+                    out.append('\f');
+                    break;
+                case '"':
+                case '\'':
+                case '\\':
+                    out.append(e);
+                    break;
+                case 'u':
+                case 'U':
+                    int digits = (e == 'u') ? 4 : 8;
+                    int code = (i + digits <= end) ? hex(i, i + digits) : -1;
+                    if (code < 0 || Character.isValidCodePoint(code) == false) {
+                        this.pos = i - 2;
+                        error("Invalid unicode escape");
+                        return null;
+                    }
+                    out.appendCodePoint(code);
+                    i += digits;
+                    break;
+                default:
+                    this.pos = i - 2;
+                    error("Invalid escape sequence \\" + e);
+                    return null;
+            }
+        }
+        return out.toString();
+    }
+
+    private int hex(final int start, final int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(this.line.charAt(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private char peek() {
+        return (this.pos < this.line.length()) ? this.line.charAt(this.pos) : 0;
+    }
+
+    private void skipSpace() {
+        while (this.pos < this.line.length() && isSpace(this.line.charAt(this.pos))) {
+            this.pos++;
+        }
+    }
+
+    private static boolean isSpace(final char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private void error(final String message) throws RDFParseException {
+        reportError(message, this.lineNo, this.pos + 1);
+    }
+}
@@ -16,17 +16,13 @@
 package org.nines;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Set;
 import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 import org.nines.RDFIndexerConfig.Mode;
 import org.openrdf.model.Statement;
@@ -39,10 +35,20 @@ import org.openrdf.rio.RDFHandlerException;
 
 final class NinesStatementHandler implements RDFHandler {
     private final static Logger log = Logger.getLogger(NinesStatementHandler.class.getName());
+    private static final Metrics.Timer CLEAN_TIMER = Metrics.timer("field.clean");
 
-    private HashMap<String, HashMap<String, ArrayList<String>>> documents;
+    private HashMap<String, Document> documents = new HashMap<String, Document>();
+    private final Set<String> uris = new HashSet<String>();
+    private final DocumentSink collector = new DocumentSink() {
+        public void document(String uri, Document document) {
+            documents.put(uri, document);
+        }
+    };
+    private DocumentSink sink = collector;
     private String dateBNodeId;
-    private HashMap<String, ArrayList<String>> doc;
+    private Document doc;
+    private boolean docPending = false;
+    private RuntimeException finishFailure = null;
     private Boolean title_sort_added = false;
     private File file;
     private RDFIndexerConfig config;
@@ -51,19 +57,123 @@ final class NinesStatementHandler implements RDFHandler {
     private long largestTextField = -1;
     private LinkCollector linkCollector;
     private boolean hasCorrectedText = false;
+    private File correctedText = null;
+    // set when a text field depends on the mode and the corrected or full text folders
+    private boolean externalText = false;
 
     private static String uncertain = "Uncertain";
 
+    /**
+     * Document field holding the paths of external text files. They are read
+     * into the SOLR <code>text</code> field only when the document is serialized.
+     */
+    static final String TEXT_FILE = "text_file";
+
+    private static final String NINES_NS = "http://www.nines.org/schema#";
+    private static final String COLLEX_NS = "http://www.collex.org/schema#";
+    private static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+    private static final String DCTERMS_NS = "http://purl.org/dc/terms/";
+    private static final String RELATORS_NS = "http://www.loc.gov/loc.terms/relators/";
+
+    /**
+     * The predicates handled by exact URI. Those with a field name are copied
+     * straight into that field; the rest have their own handling in
+     * handleStatement. Relator roles are matched by prefix instead.
+     */
+    private enum Predicate {
+        TYPE, FEDERATION, OCR, TYPEWRIGHT, FREECULTURE, PAGES, FULLTEXT, TITLE, GENRE, DATE, LABEL, VALUE, TEXT,
+        ARCHIVE("archive"), SOURCE_XML("source_xml"), SOURCE_HTML("source_html"), SOURCE_SGML("source_sgml"),
+        PAGENUM("page_num"), PAGEOF("page_of"), THUMBNAIL("thumbnail"), IMAGE("image"), DISCIPLINE("discipline"),
+        ALTERNATIVE("alternative"), SOURCE("source"), URL("url"), FORMAT("format"), LANGUAGE("language"),
+        PROVENANCE("provenance"), SUBJECT("subject"), DOC_TYPE("doc_type"), HAS_PART("hasPart"),
+        IS_PART_OF("isPartOf");
+
+        private final String field;
+
+        private Predicate() {
+            this(null);
+        }
+
+        private Predicate(String field) {
+            this.field = field;
+        }
+    }
+
+    // predicate URI -> handling, so each statement is dispatched with one lookup.
+    // Every collex attribute an archive may use is here; any other is an error
+    private static final HashMap<String, Predicate> PREDICATES = new HashMap<String, Predicate>();
+    static {
+        PREDICATES.put("http://www.w3.org/1999/02/22-rdf-syntax-ns#type", Predicate.TYPE);
+        PREDICATES.put("http://www.w3.org/1999/02/22-rdf-syntax-ns#value", Predicate.VALUE);
+        PREDICATES.put("http://www.w3.org/2000/01/rdf-schema#label", Predicate.LABEL);
+        PREDICATES.put("http://www.w3.org/2000/01/rdf-schema#seeAlso", Predicate.URL);
+
+        PREDICATES.put(COLLEX_NS + "archive", Predicate.ARCHIVE);
+        PREDICATES.put(COLLEX_NS + "freeculture", Predicate.FREECULTURE);
+        PREDICATES.put(COLLEX_NS + "source_xml", Predicate.SOURCE_XML);
+        PREDICATES.put(COLLEX_NS + "source_html", Predicate.SOURCE_HTML);
+        PREDICATES.put(COLLEX_NS + "source_sgml", Predicate.SOURCE_SGML);
+        PREDICATES.put(COLLEX_NS + "federation", Predicate.FEDERATION);
+        PREDICATES.put(COLLEX_NS + "ocr", Predicate.OCR);
+        PREDICATES.put(COLLEX_NS + "genre", Predicate.GENRE);
+        PREDICATES.put(COLLEX_NS + "thumbnail", Predicate.THUMBNAIL);
+        PREDICATES.put(COLLEX_NS + "text", Predicate.TEXT);
+        PREDICATES.put(COLLEX_NS + "fulltext", Predicate.FULLTEXT);
+        PREDICATES.put(COLLEX_NS + "image", Predicate.IMAGE);
+        PREDICATES.put(COLLEX_NS + "pages", Predicate.PAGES);
+        PREDICATES.put(COLLEX_NS + "pagenum", Predicate.PAGENUM);
+        PREDICATES.put(COLLEX_NS + "pageof", Predicate.PAGEOF);
+        PREDICATES.put(COLLEX_NS + "discipline", Predicate.DISCIPLINE);
+        PREDICATES.put(COLLEX_NS + "typewright", Predicate.TYPEWRIGHT);
+
+        PREDICATES.put(DC_NS + "title", Predicate.TITLE);
+        PREDICATES.put(DC_NS + "date", Predicate.DATE);
+        PREDICATES.put(DC_NS + "source", Predicate.SOURCE);
+        PREDICATES.put(DC_NS + "format", Predicate.FORMAT);
+        PREDICATES.put(DC_NS + "language", Predicate.LANGUAGE);
+        PREDICATES.put(DC_NS + "provenance", Predicate.PROVENANCE);
+        PREDICATES.put(DC_NS + "subject", Predicate.SUBJECT);
+        PREDICATES.put(DC_NS + "type", Predicate.DOC_TYPE);
+        PREDICATES.put(DCTERMS_NS + "alternative", Predicate.ALTERNATIVE);
+        PREDICATES.put(DCTERMS_NS + "hasPart", Predicate.HAS_PART);
+        PREDICATES.put(DCTERMS_NS + "isPartOf", Predicate.IS_PART_OF);
+
+        System.setProperty("org.apache.commons.logging.Log", "org.apache.commons.logging.impl.SimpleLog");
+        System.setProperty("org.apache.commons.logging.simplelog.showdatetime", "true");
+        System.setProperty("org.apache.commons.logging.simplelog.log.org.apache.commons.httpclient", "error");
+    }
+
     public NinesStatementHandler(ErrorReport errorReport, LinkCollector linkCollector, RDFIndexerConfig config) {
         this.errorReport = errorReport;
         this.config = config;
-        doc = new HashMap<String, ArrayList<String>>();
+        doc = new Document();
         documentURI = "";
-        documents = new HashMap<String, HashMap<String, ArrayList<String>>>();
         this.linkCollector = linkCollector;
-        System.setProperty("org.apache.commons.logging.Log", "org.apache.commons.logging.impl.SimpleLog");
-        System.setProperty("org.apache.commons.logging.simplelog.showdatetime", "true");
-        System.setProperty("org.apache.commons.logging.simplelog.log.org.apache.commons.httpclient", "error");
+    }
+
+    /**
+     * Make the handler ready to parse another file. Whatever was left of the
+     * last one is dropped, and documents are collected for getDocuments again
+     * until a sink is set.
+     */
+    public void reset(final File file) {
+        this.file = file;
+        if (documents.isEmpty() == false) {
+            // the caller may still hold the last map
+            documents = new HashMap<String, Document>();
+        }
+        uris.clear();
+        sink = collector;
+        dateBNodeId = null;
+        doc = new Document();
+        docPending = false;
+        finishFailure = null;
+        title_sort_added = false;
+        documentURI = "";
+        largestTextField = -1;
+        hasCorrectedText = false;
+        correctedText = null;
+        externalText = false;
     }
 
     public void handleStatement(Statement statement) throws RDFHandlerException {
@@ -71,501 +181,222 @@ final class NinesStatementHandler implements RDFHandler {
         String subject = statement.getSubject().stringValue();
         String predicate = statement.getPredicate().stringValue();
         String object = statement.getObject().stringValue();
-        
+        Predicate known = PREDICATES.get(predicate);
+
         // if the object of the triple is blank, skip it, it is nothing worth indexing
         // EXCEPT for text in page-level RDF. There are valid cases where the collex:text
         // for a page is blank. To avoid streaming out validation errors on these
         // cases, let blanks through. There is matching code in handleText.
         if ( object == null || object.length() == 0 ) {
-            if ( !(this.config.isPagesArchive() && "http://www.collex.org/schema#text".equals(predicate)) ) {
+            if ( !(this.config.isPagesArchive() && known == Predicate.TEXT) ) {
                 return;
             }
         }
 
         // start of a new document
-        if ("http://www.w3.org/1999/02/22-rdf-syntax-ns#type".equals(predicate)
-            && statement.getSubject() instanceof URIImpl) {
-            if (documents.get(subject) != null) {
+        if (known == Predicate.TYPE && statement.getSubject() instanceof URIImpl) {
+            boolean duplicate = (uris.add(subject) == false);
+            if (duplicate && docPending && subject.equals(documentURI)) {
+                // the same object again right after itself: only the later copy
+                // goes on, as it did when the whole file was collected first
+                docPending = false;
+            }
+            finish();
+            if (duplicate) {
                 errorReport.addError(new IndexerError(this.file.toString(), subject, "Duplicate URI"));
                 log.info("*** Duplicate: " + subject);
             }
-            doc = new HashMap<String, ArrayList<String>>();
+            doc = new Document();
+            docPending = true;
             addField(doc, "uri", subject);
-            documents.put(subject, doc);
             title_sort_added = false;
             documentURI = subject;
-            this.hasCorrectedText = ( this.config.correctedTextMap.containsKey(this.documentURI));
+            this.correctedText = this.config.correctedText.find(this.documentURI);
+            this.hasCorrectedText = ( this.correctedText != null );
             log.info("Parsing RDF for document: " + subject);
             errorReport.flush();
         }
-        
-        // Check for any unsupported nines:* attributes and issue error if any exist
-        if (predicate.startsWith("http://www.nines.org/schema#")) {
-            addError( "NINES is no longer a valid attribute: "+ predicate);
-            return;
-        }
-
-        if (predicate.startsWith("http://www.collex.org/schema#")) {
-            String attribute = predicate.substring("http://www.collex.org/schema#".length());
-            if (!(attribute.equals("archive") || attribute.equals("freeculture") || attribute.equals("source_xml")
-                || attribute.equals("source_html") || attribute.equals("source_sgml") || attribute.equals("federation")
-                || attribute.equals("ocr") || attribute.equals("genre") || attribute.equals("thumbnail")
-                || attribute.equals("text") || attribute.equals("fulltext") || attribute.equals("image")
-                || attribute.equals("pages") || attribute.equals("pagenum") || attribute.equals("pageof") 
-                || attribute.equals("discipline") || attribute.equals("typewright"))) {
 
+        if (known == null) {
+            // Check for any unsupported nines:* attributes and issue error if any exist
+            if (predicate.startsWith(NINES_NS)) {
+                addError( "NINES is no longer a valid attribute: "+ predicate);
+            } else if (predicate.startsWith(COLLEX_NS)) {
+                // every supported collex attribute is in the predicate table
                 addError("Collex does not support this property: " + predicate );
-                return;
+            } else if (predicate.startsWith(RELATORS_NS)) {
+                handleRole(predicate, object);
             }
-        }
-
-        // parse RDF statements into fields, return when the statement has been handled
-        if (handleFederation(predicate, object))
-            return;
-        if (handleOcr(predicate, object))
-            return;
-        if (handlePages(predicate, object))
-            return;
-        if (handlePageNum(predicate, object))
-            return;
-        if (handlePageOf(predicate, object))
-            return;
-        if (handleTypewright(predicate, object))
-            return;
-        if (handleFullText(predicate, object))
-            return;
-        if (handleCollexSourceXml(predicate, object))
-            return;
-        if (handleCollexSourceHtml(predicate, object))
-            return;
-        if (handleCollexSourceSgml(predicate, object))
-            return;
-        if (handleArchive(predicate, object))
-            return;
-        if (handleFreeCulture(predicate, object))
-            return;
-        if (handleTitle(predicate, object))
-            return;
-        if (handleAlternative(predicate, object))
-            return;
-        if (handleGenre(predicate, object))
-            return;
-        if (handleDate(subject, predicate, statement.getObject()))
-            return;
-        if (handleDateLabel(subject, predicate, object))
-            return;
-        if (handleSource(predicate, object))
-            return;
-        if (handleThumbnail(predicate, object))
-            return;
-        if (handleImage(predicate, object))
-            return;
-        if (handleURL(predicate, object))
-            return;
-        if (handleText(predicate, object))
-            return;
-        if (handleRole(predicate, object))
-            return;
-        if (handlePerson(predicate, object))
-            return;
-        if (handleFormat(predicate, object))
-            return;
-        if (handleLanguage(predicate, object))
-            return;
-        if (handleGeospacial(predicate, object))
-            return;
-        if (handleProvenance(predicate, object))
-            return;
-        if (handleDiscipline(predicate, object))
-            return;
-        if (handleSubject(predicate, object))
-            return;
-        if (handleType(predicate, object))
-            return;
-        if (handleHasPart(predicate, object))
             return;
-        if (handleIsPartOf(predicate, object))
-            return;
-    }
-
-    private boolean handleFederation(String predicate, String object) {
-        if ("http://www.collex.org/schema#federation".equals(predicate)) {
-            if (object.equals("NINES") || object.equals("18thConnect") || object.equals("MESA") || 
-                object.equals("ModNets") || object.equals("SiRO") || object.equals("estc") || object.equals("GLA") ) {
-                addField(doc, "federation", object);
-            } else {
-                addError("Unknown federation: " + object);
-            }
-            return true;
         }
-        return false;
-    }
 
-    private boolean handleOcr(String predicate, String object) {
-        if ("http://www.collex.org/schema#ocr".equals(predicate)) {
-            if ("true".equalsIgnoreCase(object)) {
+        // parse RDF statements into fields
+        switch (known) {
+            case TYPE:
+                break;
+            case FEDERATION:
+                handleFederation(object);
+                break;
+            case OCR:
                 // only add a ocr field if it's true. No field set implies "F"alse
-                addField(doc, "is_ocr", "T");
-                return true;
-            }
-        }
-        return false;
-    }
-
-    private boolean handleTypewright(String predicate, String object) {
-        if ("http://www.collex.org/schema#typewright".equals(predicate)) {
-            if ("true".equalsIgnoreCase(object)) {
+                if ("true".equalsIgnoreCase(object)) {
+                    addField(doc, "is_ocr", "T");
+                }
+                break;
+            case TYPEWRIGHT:
                 // only add a typewright field if it's true. No field set implies "F"alse
-                addField(doc, "typewright", "T");
-                return true;
-            }
-        }
-        return false;
-    }
-
-    private boolean handlePerson(String predicate, String object) {
-        if ("http://www.collex.org/schema#person".equals(predicate)) {
-            addField(doc, "person", object);
-            return true;
-        }
-        return false;
-    }
-
-    private boolean handleFormat(String predicate, String object) {
-        if ("http://purl.org/dc/elements/1.1/format".equals(predicate)) {
-            addField(doc, "format", object);
-            return true;
-        }
-        return false;
-    }
-
-    private boolean handleLanguage(String predicate, String object) {
-        if ("http://purl.org/dc/elements/1.1/language".equals(predicate)) {
-            addField(doc, "language", object);
-            return true;
-        }
-        return false;
-    }
-
-    private boolean handleGeospacial(String predicate, String object) {
-        if ("http://www.collex.org/schema#geospacial".equals(predicate)) {
-            addField(doc, "geospacial", object);
-            return true;
-        }
-        return false;
-    }
-
-    private boolean handleCollexSourceXml(String predicate, String object) {
-        if ("http://www.collex.org/schema#source_xml".equals(predicate)) {
-            addField(doc, "source_xml", object);
-            return true;
-        }
-        return false;
-    }
-
-    private boolean handleCollexSourceHtml(String predicate, String object) {
-        if ("http://www.collex.org/schema#source_html".equals(predicate)) {
-            addField(doc, "source_html", object);
-            return true;
+                if ("true".equalsIgnoreCase(object)) {
+                    addField(doc, "typewright", "T");
+                }
+                break;
+            case FREECULTURE:
+                handleTrueFalse("freeculture", object);
+                break;
+            case PAGES:
+                handleTrueFalse("has_pages", object);
+                break;
+            case FULLTEXT:
+                handleFullText(object);
+                break;
+            case TITLE:
+                handleTitle(object);
+                break;
+            case GENRE:
+                // ignore deprecated genres for backward compatibility
+                if (!"Primary".equals(object) && !"Secondary".equals(object)) {
+                    addField(doc, "genre", object);
+                }
+                break;
+            case DATE:
+                handleDate(statement.getObject());
+                break;
+            case LABEL:
+            case VALUE:
+                if (subject.equals(dateBNodeId)) {
+                    handleDateLabel(known, object);
+                }
+                break;
+            case TEXT:
+                handleText(object);
+                break;
+            default:
+                addField(doc, known.field, object);
+                break;
         }
-        return false;
     }
 
-    private boolean handleCollexSourceSgml(String predicate, String object) {
-        if ("http://www.collex.org/schema#source_sgml".equals(predicate)) {
-            addField(doc, "source_sgml", object);
-            return true;
+    private void handleFederation(String object) {
+        if (object.equals("NINES") || object.equals("18thConnect") || object.equals("MESA") || 
+            object.equals("ModNets") || object.equals("SiRO") || object.equals("estc") || object.equals("GLA") ) {
+            addField(doc, "federation", object);
+        } else {
+            addError("Unknown federation: " + object);
         }
-        return false;
     }
 
-    private boolean handleArchive(String predicate, String object) {
-        if ("http://www.collex.org/schema#archive".equals(predicate)) {
-            addField(doc, "archive", object);
-            return true;
+    private void handleTrueFalse(String field, String object) {
+        if ("false".equalsIgnoreCase(object)) {
+            addFieldEntry(doc, field, "F", true); // "F"alse
+        } else if ("true".equalsIgnoreCase(object)) {
+            addFieldEntry(doc, field, "T", true); // "T"rue
         }
-        return false;
     }
 
-    private boolean handleFreeCulture(String predicate, String object) {
-        if ("http://www.collex.org/schema#freeculture".equals(predicate)) {
-            if ("false".equalsIgnoreCase(object)) {
-                addFieldEntry(doc, "freeculture", "F", true); // "F"alse
-            } else if ("true".equalsIgnoreCase(object)) {
-                addFieldEntry(doc, "freeculture", "T", true); // "T"rue
-            }
-            return true;
-        }
-        return false;
-    }
-    
-    private boolean handlePages(String predicate, String object) {
-        if ("http://www.collex.org/schema#pages".equals(predicate)) {
+    private void handleFullText(String object) {
+        if ( this.hasCorrectedText ) {
+            addField(doc, "has_full_text", "T"); 
+        } else {
             if ("false".equalsIgnoreCase(object)) {
-                addFieldEntry(doc, "has_pages", "F", true); // "F"alse
-            } else if ("true".equalsIgnoreCase(object)) {
-                addFieldEntry(doc, "has_pages", "T", true); // "T"rue
+                // only add a fulltext field if its false. No field set implies "T"rue
+                addField(doc, "has_full_text", "F"); // "F"alse
             }
-            return true;
         }
-        return false;
-    }
-    
-    private boolean handlePageOf(String predicate, String object) {
-        if ("http://www.collex.org/schema#pageof".equals(predicate)) {
-            addField(doc, "page_of", object);
-            return true;
-        }
-        return false;
-    }
-    
-    private boolean handlePageNum(String predicate, String object) {
-        if ("http://www.collex.org/schema#pagenum".equals(predicate)) {
-            addField(doc, "page_num", object);
-            return true;
-        }
-        return false;
     }
 
-    private boolean handleFullText(String predicate, String object) {
-        if ("http://www.collex.org/schema#fulltext".equals(predicate)) {
-            if ( this.hasCorrectedText ) {
-                addField(doc, "has_full_text", "T"); 
-            } else {
-                if ("false".equalsIgnoreCase(object)) {
-                    // only add a fulltext field if its false. No field set implies "T"rue
-                    addField(doc, "has_full_text", "F"); // "F"alse
-                }
-            }
-            return true;
+    private void handleTitle(String object) {
+        addField(doc, "title", object);
+        if (!title_sort_added) {
+            addField(doc, "title_sort", object);
+            title_sort_added = true;
         }
-        return false;
     }
 
-    private boolean handleTitle(String predicate, String object) {
-        if ("http://purl.org/dc/elements/1.1/title".equals(predicate)) {
-            addField(doc, "title", object);
-            if (!title_sort_added) {
-                addField(doc, "title_sort", object);
-                title_sort_added = true;
-            }
-            return true;
-        }
-        return false;
-    }
+    private void handleDate(Value value) {
+        String object = value.stringValue().trim();
+        if (value instanceof LiteralImpl) {
 
-    private boolean handleProvenance(String predicate, String object) {
-        if ("http://purl.org/dc/elements/1.1/provenance".equals(predicate)) {
-            addField(doc, "provenance", object);
-            return true;
-        }
-        return false;
-    }
+            // add label
+            addField(doc, "date_label", object);
 
-    private boolean handleType(String predicate, String object) {
-        if ("http://purl.org/dc/elements/1.1/type".equals(predicate)) {
-            addField(doc, "doc_type", object);
-            return true;
-        }
-        return false;
-    }
+            YearExpansion years = YearExpansion.of(object);
 
-    private boolean handleDiscipline(String predicate, String object) {
-            if ("http://www.collex.org/schema#discipline".equals(predicate)) {
-                addField(doc, "discipline", object);
-                return true;
+            if( years.isEmpty() == true ) {
+                addError("Invalid date format: " + object);
+                return;
             }
-            return false;
-        }
 
-    private boolean handleSubject(String predicate, String object) {
-        if ("http://purl.org/dc/elements/1.1/subject".equals(predicate)) {
-            addField(doc, "subject", object);
-            return true;
+            addYears( years );
+        } else {
+            BNodeImpl bnode = (BNodeImpl) value;
+            dateBNodeId = bnode.getID();
         }
-        return false;
     }
 
-    private boolean handleAlternative(String predicate, String object) {
-        if ("http://purl.org/dc/terms/alternative".equals(predicate)) {
-            addField(doc, "alternative", object);
-            return true;
+    private void handleDateLabel(Predicate predicate, String object) {
+        // under a <collex:date> we simply look for <rdfs:label> and <rdf:value>
+        if (predicate == Predicate.LABEL) {
+            addField(doc, "date_label", object);
+            return;
         }
-        return false;
-    }
 
-    private boolean handleGenre(String predicate, String object) {
-        if ("http://www.collex.org/schema#genre".equals(predicate)) {
-            // ignore deprecated genres for backward compatibility
-            if (!"Primary".equals(object) && !"Secondary".equals(object)) {
-                addField(doc, "genre", object);
-            }
-            return true;
-        }
-        return false;
-    }
+        YearExpansion years = YearExpansion.of(object);
 
-    private boolean handleDate(String subject, String predicate, Value value) {
-        if ("http://purl.org/dc/elements/1.1/date".equals(predicate)) {
-            String object = value.stringValue().trim();
-            if (value instanceof LiteralImpl) {
-
-                // add label
-                addField(doc, "date_label", object);
-
-                //System.out.println( "handleDate: " + object );
-
-                ArrayList<String> years = parseYears(object);
-
-                if( years.isEmpty() == true ) {
-                    addError("Invalid date format: " + object);
-                    return false;
-                }
-
-                // add the years
-                for (String year : years) {
-                    addFieldIfUnique(doc, "year", year);
-                }
-
-                // and any fields that are derived from the years
-                addDerivedDateFields( years );
-            } else {
-                BNodeImpl bnode = (BNodeImpl) value;
-                dateBNodeId = bnode.getID();
-            }
-
-            return true;
+        if( years.isEmpty() == true ) {
+            addError("Invalid date format: " + object);
+            return;
         }
 
-        return false;
+        addYears( years );
     }
-
-    private boolean handleDateLabel(String subject, String predicate, String object) {
-        if (subject.equals(dateBNodeId)) {
-            // if dateBNodeId matches, we assume we're under a <collex:date> and simply
-            // look for <rdfs:label> and <rdf:value>
-
-            if ("http://www.w3.org/2000/01/rdf-schema#label".equals(predicate)) {
-                addField(doc, "date_label", object);
-                return true;
+    private void handleText(String object) {
+        String text = object;
+        File textFile = null;
+        if ( this.hasCorrectedText ) {
+            this.externalText = true;
+            // only in index mode do we attempt to grab 
+            // corrected text from the full text folder
+            if (config.mode == Mode.INDEX) {
+                textFile = this.correctedText;
             }
+            text = "";
+            
+        } else {
+            // Objects with external content will have some form of
+            // http url as the content.
+            if (object.trim().startsWith("http://") && object.trim().indexOf(" ") == -1) {
+                this.externalText = true;
+                addFieldEntry(doc, "text_url", text, false);
 
-            if ("http://www.w3.org/1999/02/22-rdf-syntax-ns#value".equals(predicate)) {
-                //System.out.println( "handleDateLabel: " + object );
-                ArrayList<String> years = parseYears(object);
-
-                if( years.isEmpty() == true ) {
-                    addError("Invalid date format: " + object);
-                    return false;
-                }
-
-                // add the years
-                for (String year : years) {
-                    addFieldIfUnique(doc, "year", year);
-                }
-
-                // and any fields that are derived from the years
-                addDerivedDateFields( years );
-
-               return true;
-            }
-        }
-        return false;
-    }
-
-    private boolean handleSource(String predicate, String object) {
-        if ("http://purl.org/dc/elements/1.1/source".equals(predicate)) {
-            addField(doc, "source", object);
-            return true;
-        }
-        return false;
-    }
-
-    private boolean handleThumbnail(String predicate, String object) {
-        if ("http://www.collex.org/schema#thumbnail".equals(predicate)) {
-            addField(doc, "thumbnail", object);
-            return true;
-        }
-        return false;
-    }
-
-    private boolean handleImage(String predicate, String object) {
-        if ("http://www.collex.org/schema#image".equals(predicate)) {
-            addField(doc, "image", object);
-            return true;
-        }
-        return false;
-    }
-
-    private boolean handleURL(String predicate, String object) {
-        if ("http://www.w3.org/2000/01/rdf-schema#seeAlso".equals(predicate)) {
-            addField(doc, "url", object);
-            return true;
-        }
-        return false;
-    }
-
-    private boolean handleHasPart(String predicate, String object) {
-        if ("http://purl.org/dc/terms/hasPart".equals(predicate)) {
-            addField(doc, "hasPart", object);
-            return true;
-        }
-        return false;
-    }
-
-    private boolean handleIsPartOf(String predicate, String object) {
-        if ("http://purl.org/dc/terms/isPartOf".equals(predicate)) {
-            addField(doc, "isPartOf", object);
-            return true;
-        }
-        return false;
-    }
-
-    private boolean handleText(String predicate, String object) {
-
-        // first, check if this object is TEXT. If it is the predicate
-        // will have the #text url below....
-        if ("http://www.collex.org/schema#text".equals(predicate)) {
-
-            String text = object;
-            boolean externalText = false;
-            if ( this.hasCorrectedText ) {
                 // only in index mode do we attempt to grab 
-                // corrected text from the full text folder
+                // full text from the full text folder
                 if (config.mode == Mode.INDEX) {
-                    externalText = true;
-                    text = getCorrectedText();
-                } else {
-                    text = "";
-                }
-                
-            } else {
-                // Objects with external content will have some form of
-                // http url as the content.
-                if (object.trim().startsWith("http://") && object.trim().indexOf(" ") == -1) {
-                    addFieldEntry(doc, "text_url", text, false);
-    
-                    // only in index mode do we attempt to grab 
-                    // full text from the full text folder
-                    if (config.mode == Mode.INDEX) {
-                        externalText = true;
-                        text = getFullText( text );
-                    } else {
-                        text = "";
-                    }
+                    textFile = getFullText( text );
                 }
+                text = "";
             }
+        }
 
-            if ( text.length() > 0 || this.config.isPagesArchive() ) {
-                this.largestTextField = Math.max(this.largestTextField, text.length());
-                // NOTE: the !externalText signals to the add method that it
-                // should NOT perform any cleanup. Text goes in untouched.
-                addFieldEntry(doc, "text", text, false, !externalText);
-            }
-
-            return true;
+        // External text is not read here; the document keeps a reference to the file
+        // and the text is streamed into the SOLR payload when the document is posted.
+        // It goes in untouched, so there is nothing to clean.
+        if ( textFile != null && textFile.length() > 0 ) {
+            // file size in bytes stands in for the text length
+            this.largestTextField = Math.max(this.largestTextField, textFile.length());
+            addFieldEntry(doc, TEXT_FILE, textFile.getPath(), false, false);
+        } else if ( text.length() > 0 || this.config.isPagesArchive() ) {
+            this.largestTextField = Math.max(this.largestTextField, text.length());
+            addFieldEntry(doc, "text", text, false);
         }
-        return false;
     }
     
     /**
@@ -573,53 +404,29 @@ final class NinesStatementHandler implements RDFHandler {
      * the path to the original rdf sources
      * @return
      */
-    private String findFullTextRoot() {
-        String path = this.config.sourceDir.toString();
+    static String findFullTextRoot(RDFIndexerConfig config) {
+        String path = config.sourceDir.toString();
         int pos = path.indexOf("/rdf/");
         path = path.substring(0, pos) + "/fulltext/";
-        path += RDFIndexerConfig.safeArchive(this.config.archiveName) + "/";
+        path += RDFIndexerConfig.safeArchive(config.archiveName) + "/";
         return path;
     }
     
     /**
-     * Get the corrected text for the current document
-     * @return
-     */
-    private String getCorrectedText() {
-        String fName = this.config.correctedTextMap.get(this.documentURI);
-        File corrTxtFile = new File( this.config.correctedTextDir, fName);
-        if (corrTxtFile.exists() == false) {
-            this.errorReport.addError(new IndexerError("", this.documentURI, "Missing corrected text file " + corrTxtFile.toString()));
-            return "";
-        }
-        FileInputStream is = null;
-        try {
-            is = new FileInputStream(corrTxtFile);
-            return IOUtils.toString( is, "UTF-8");
-        } catch (IOException e) {
-            errorReport.addError(new IndexerError(corrTxtFile.toString(), this.documentURI, "Unable to read corrected text" + ": "
-                + e.toString()));
-            return "";
-        } finally {
-            IOUtils.closeQuietly(is);
-        }
-    }
-    
-    /**
-     * Read the full text for <code>uri</code> from the fulltext area of the solr sources.
-     * If any errors are encountered, log them and return an empty string
+     * Find the full text for <code>uri</code> in the fulltext area of the solr sources.
+     * If any errors are encountered, log them and return null
      * 
      * @param uri
-     * @return A string containing the full text - or an empty string if errors occur.
+     * @return The full text file - or null if errors occur.
      */
-    private String getFullText(String uri) {
+    private File getFullText(String uri) {
 
-        String fullTextRoot = findFullTextRoot() ;
+        String fullTextRoot = findFullTextRoot( this.config ) ;
         File root = new File( fullTextRoot );
         if (root.exists() == false) {
             this.errorReport
                 .addError(new IndexerError("", uri, "Missing full text source directory " + root.toString()));
-            return "";
+            return null;
         }
 
         // convert URL into filename for text
@@ -631,31 +438,15 @@ final class NinesStatementHandler implements RDFHandler {
         File textFile = new File(fullTextRoot + name + ".txt");
         if (textFile.exists() == false) {
             this.errorReport.addError(new IndexerError("", uri, "Missing full text file " + textFile.toString()));
-            return "";
-        }
-
-        // read it!
-        FileInputStream is = null;
-        try {
-            is = new FileInputStream(textFile);
-            return IOUtils.toString( is, "UTF-8");
-        } catch (IOException e) {
-            errorReport.addError(new IndexerError(textFile.toString(), uri, "Unable to read full text" + ": "
-                + e.toString()));
-            return "";
-        } finally {
-            IOUtils.closeQuietly(is);
+            return null;
         }
+        return textFile;
     }
 
-    private boolean handleRole(String predicate, String object) {
-        if (predicate.startsWith("http://www.loc.gov/loc.terms/relators/")) {
-            String role = predicate.substring("http://www.loc.gov/loc.terms/relators/".length());
-            addField(doc, "role_" + role, object);
-            addField(doc, "role", "role_" + role);
-            return true;
-        }
-        return false;
+    private void handleRole(String predicate, String object) {
+        String role = predicate.substring(RELATORS_NS.length());
+        addField(doc, "role_" + role, object);
+        addField(doc, "role", "role_" + role);
     }
 
     public static ArrayList<String> parseYears(String value) {
@@ -703,46 +494,30 @@ final class NinesStatementHandler implements RDFHandler {
         return( years );
     }
 
-    private void addDerivedDateFields( final ArrayList<String> years ) {
-
-        // only process years that are in the correct format...
-        Pattern p = Pattern.compile( "\\d{4}" );
-        for( String year : years ) {
-            Matcher m = p.matcher( year );
-            if( m.matches( ) == true ) {
-                //System.out.println( "YEAR [" + year + "] quarter [" + makeQuarterCentury( year ) + "] half [" + makeHalfCentury( year ) + "] full [" + makeCentury( year ) + "]" );
-                addFieldIfUnique( doc, "decade", makeDecade( year ) );
-                addFieldIfUnique( doc, "quarter_century", makeQuarterCentury( year ) );
-                addFieldIfUnique( doc, "half_century", makeHalfCentury( year ) );
-                addFieldIfUnique( doc, "century", makeCentury( year ) );
-            }
-        }
-    }
+    private void addYears( final YearExpansion years ) {
 
-    public static String makeDecade( final String year ) {
-        return( year.substring( 0, 3 ) + "0" );
+        // add the years and any fields that are derived from them
+        addYearFields( "year", years.getYears() );
+        addYearFields( "decade", years.getDecades() );
+        addYearFields( "quarter_century", years.getQuarterCenturies() );
+        addYearFields( "half_century", years.getHalfCenturies() );
+        addYearFields( "century", years.getCenturies() );
     }
 
-    public static String makeQuarterCentury( final String year ) {
-        Integer sub = Integer.parseInt( year.substring( 2, 4 ) );
-        String quarter = "00";
-        if( sub >= 75 ) quarter = "75";
-        else if( sub >= 50 ) quarter = "50";
-        else if( sub >= 25 ) quarter = "25";
-        return( year.substring( 0, 2 ) + quarter );
-    }
-
-    public static String makeHalfCentury( final String year ) {
-        Integer sub = Integer.parseInt( year.substring( 2, 4 ) );
-        String half = ( sub >= 50 ) ? "50" : "00";
-        return( year.substring( 0, 2 ) + half );
-    }
-
-    public static String makeCentury( final String year ) {
-        return( year.substring( 0, 2 ) + "00" );
+    private void addYearFields( final String name, final List<String> values ) {
+        List<String> existing = doc.get( name );
+        Set<String> seen = ( existing == null ) ? null : new HashSet<String>( existing );
+        for( String value : values ) {
+            if( YearExpansion.isYear( value ) == false ) {
+                addFieldIfUnique( doc, name, value );
+            } else if( seen == null || seen.add( value ) ) {
+                // four digits have nothing to clean
+                addFieldEntry( doc, name, value, false, false );
+            }
+        }
     }
 
-    public void addField(HashMap<String, ArrayList<String>> map, String name, String value) {
+    public void addField(Document map, String name, String value) {
 
         // skip null fields
         if (value == null || name == null)
@@ -757,13 +532,13 @@ final class NinesStatementHandler implements RDFHandler {
         addFieldEntry(map, name, value, false);
     }
 
-    public void addFieldIfUnique(HashMap<String, ArrayList<String>> map, String name, String value) {
+    public void addFieldIfUnique(Document map, String name, String value) {
 
         // skip null fields
         if (value == null || name == null)
             return;
 
-        ArrayList<String> objectArray = map.get( name );
+        List<String> objectArray = map.get( name );
         if( objectArray == null || objectArray.contains( value ) == false ) {
             addFieldEntry(map, name, value, false);
         }
@@ -777,7 +552,7 @@ final class NinesStatementHandler implements RDFHandler {
      * @param value
      * @param replace
      */
-    private void addFieldEntry(HashMap<String, ArrayList<String>> map, String name, String value, Boolean replace) {
+    private void addFieldEntry(Document map, String name, String value, Boolean replace) {
         addFieldEntry(map, name, value, replace, true);
     }
 
@@ -789,112 +564,130 @@ final class NinesStatementHandler implements RDFHandler {
      * @param replace
      * @param clean
      */
-    private void addFieldEntry(HashMap<String, ArrayList<String>> map, String name, String value, boolean replace, boolean clean) {
+    private void addFieldEntry(Document map, String name, String value, boolean replace, boolean clean) {
 
         // clean everything going in? 
         String data = value;
         if ( clean ) {
-            data = TextUtils.stripEscapeSequences(data, this.errorReport, this.file, this.documentURI);
-            data = TextUtils.normalizeWhitespace(data);
-            data = TextUtils.stripUnknownUTF8(data, this.errorReport, this.file, this.documentURI);
+            long start = CLEAN_TIMER.start();
+            data = TextUtils.cleanField(data, this.errorReport, this.file, this.documentURI);
+            CLEAN_TIMER.stop(start);
         }
        
         // make sure we add to array for already existing fields
-        if (map.containsKey(name) && replace == false) {
-            ArrayList<String> pastValues = map.get(name);
-            pastValues.add(data);
-            map.put(name, pastValues);
+        if (replace) {
+            map.set(name, data);
         } else {
-            ArrayList<String> values = new ArrayList<String>();
-            values.add(data);
-            map.put(name, values);
+            map.add(name, data);
         }
     }
 
 
-    private String getFirstField(HashMap<String, ArrayList<String>> object, String field) {
-        ArrayList<String> objectArray = object.get(field);
-        if (objectArray != null && objectArray.isEmpty( ) == false ) {
-            return objectArray.get(0);
-        }
-        return "";
+    /**
+     * Send finished documents to <code>sink</code> instead of collecting them
+     * for getDocuments
+     */
+    public void setDocumentSink(final DocumentSink sink) {
+        this.sink = sink;
     }
 
-    private String getLastField(HashMap<String, ArrayList<String>> object, String field) {
-        ArrayList<String> objectArray = object.get(field);
-        if (objectArray != null && objectArray.isEmpty( ) == false ) {
-            return objectArray.get( objectArray.size( ) - 1 );
-        }
-        return "";
+    /**
+     * @return The documents parsed so far, when no sink has been set
+     */
+    public HashMap<String, Document> getDocuments() {
+        finish();
+        return documents;
     }
 
-    public HashMap<String, HashMap<String, ArrayList<String>>> getDocuments( boolean isPageData ) {
-        if ( isPageData ) {
-            return documents;
+    /**
+     * Pass the current document, if any, to the sink. Called when the next
+     * document starts and at the end of the file; it must also be called if
+     * parsing stops early. A document followed straight away by another with
+     * the same URI is dropped instead. A copy that comes back after other
+     * documents is reported as a duplicate, but the earlier copy has already
+     * been passed on, so both reach the sink; with more than one post thread
+     * either may end up in the index.
+     */
+    public void finish() {
+        if (docPending == false) {
+            return;
         }
-        
-        // add author_sort: we do that here because we have a few different fields we look at and the order they appear
-        // shouldn't matter, so we wait to the end to find them.
-        Set<String> keys = documents.keySet();
-        for (String uri : keys) {
-            HashMap<String, ArrayList<String>> object = documents.get(uri);
-            String author = getFirstField(object, "role_AUT");
-            String artist = getFirstField(object, "role_ART");
-            String editor = getFirstField(object, "role_EDT");
-            String publisher = getFirstField(object, "role_PUB");
-            String translator = getFirstField(object, "role_TRN");
-            String printer = getFirstField(object, "role_CRE");
-            String etcher = getFirstField(object, "role_ETR");
-            String engraver = getFirstField(object, "role_EGR");
-            if (author.length() > 0)
-                addField(object, "author_sort", author);
-            else if (artist.length() > 0)
-                addField(object, "author_sort", artist);
-            else if (editor.length() > 0)
-                addField(object, "author_sort", editor);
-            else if (publisher.length() > 0)
-                addField(object, "author_sort", publisher);
-            else if (translator.length() > 0)
-                addField(object, "author_sort", translator);
-            else if (printer.length() > 0)
-                addField(object, "author_sort", printer);
-            else if (etcher.length() > 0)
-                addField(object, "author_sort", etcher);
-            else if (engraver.length() > 0)
-                addField(object, "author_sort", engraver);
-
-            // add year_sort fields
-            String year_sort_min = getFirstField(object, "year");
-            if (year_sort_min.isEmpty() == false ) {
-                String year_sort_max = getLastField(object, "year");
-
-                addField(object, "year_sort", year_sort_min);
-                addField(object, "year_sort_asc", year_sort_min);
-                addField(object, "year_sort_desc", year_sort_max);
-            } else {
-                addField( object, "year", uncertain );
-                addField( object, "year_sort", uncertain );
-                addField( object, "year_sort_asc", uncertain );
-                addField( object, "year_sort_desc", uncertain );
+        docPending = false;
+        try {
+            if (config.isPagesArchive() == false) {
+                addDefaultFields(doc);
             }
+            sink.document(documentURI, doc);
+        } catch (RuntimeException e) {
+            finishFailure = e;
+            throw e;
+        }
+    }
 
-            // add fulltext and ocr indicators
-            ArrayList<String> objectArray = object.get("text");
-            if (objectArray != null) { // If we have a text field
-                if (object.get("has_full_text") == null)
-                    addField(object, "has_full_text", "T");
-            } else {
-                if (object.get("has_full_text") == null)
-                    addField(object, "has_full_text", "F");
-            }
-            objectArray = object.get("is_ocr");
-            if (objectArray == null) // If we weren't told differently, then it is not an ocr object
-                addField(object, "is_ocr", "F");
-            objectArray = object.get("freeculture");
-            if (objectArray == null) // If we weren't told differently, then it is freeculture
-                addField(object, "freeculture", "T");
+    /**
+     * @return The exception thrown while finishing a document or by the sink,
+     *         if any. It is not a problem with the file, so the parser passes
+     *         it on instead of reporting it.
+     */
+    public RuntimeException getFinishFailure() {
+        return finishFailure;
+    }
+
+    private void addDefaultFields(final Document object) {
+        // add author_sort: we do that here because we have a few different fields we look at and the order they appear
+        // shouldn't matter, so we wait to the end of the document to find them.
+        String author = object.getFirst("role_AUT");
+        String artist = object.getFirst("role_ART");
+        String editor = object.getFirst("role_EDT");
+        String publisher = object.getFirst("role_PUB");
+        String translator = object.getFirst("role_TRN");
+        String printer = object.getFirst("role_CRE");
+        String etcher = object.getFirst("role_ETR");
+        String engraver = object.getFirst("role_EGR");
+        if (author.length() > 0)
+            addField(object, "author_sort", author);
+        else if (artist.length() > 0)
+            addField(object, "author_sort", artist);
+        else if (editor.length() > 0)
+            addField(object, "author_sort", editor);
+        else if (publisher.length() > 0)
+            addField(object, "author_sort", publisher);
+        else if (translator.length() > 0)
+            addField(object, "author_sort", translator);
+        else if (printer.length() > 0)
+            addField(object, "author_sort", printer);
+        else if (etcher.length() > 0)
+            addField(object, "author_sort", etcher);
+        else if (engraver.length() > 0)
+            addField(object, "author_sort", engraver);
+
+        // add year_sort fields
+        String year_sort_min = object.getFirst("year");
+        if (year_sort_min.isEmpty() == false ) {
+            String year_sort_max = object.getLast("year");
+
+            addField(object, "year_sort", year_sort_min);
+            addField(object, "year_sort_asc", year_sort_min);
+            addField(object, "year_sort_desc", year_sort_max);
+        } else {
+            addField( object, "year", uncertain );
+            addField( object, "year_sort", uncertain );
+            addField( object, "year_sort_asc", uncertain );
+            addField( object, "year_sort_desc", uncertain );
         }
-        return documents;
+
+        // add fulltext and ocr indicators
+        if (object.has("text") || object.has(TEXT_FILE)) { // If we have a text field
+            if (object.has("has_full_text") == false)
+                addField(object, "has_full_text", "T");
+        } else {
+            if (object.has("has_full_text") == false)
+                addField(object, "has_full_text", "F");
+        }
+        if (object.has("is_ocr") == false) // If we weren't told differently, then it is not an ocr object
+            addField(object, "is_ocr", "F");
+        if (object.has("freeculture") == false) // If we weren't told differently, then it is freeculture
+            addField(object, "freeculture", "T");
     }
 
     private static void parseYearWild( List<String> years, final String date ) {
@@ -913,10 +706,10 @@ final class NinesStatementHandler implements RDFHandler {
         for (i = startPos; i < numLength; i++) {
             if (yearChars[i] == 'u') {
                 int padSize = numLength - i;
-                String formatStr = "%0" + padSize + "d";
-                // iterate over each year
+                // iterate over each year, overwriting the wildcard digits in place
                 for (int j = 0; j < factor; j++) {
-                    years.add(date.substring(0, i) + String.format(formatStr, j));
+                    YearExpansion.pad(yearChars, i, j, padSize);
+                    years.add(new String(yearChars, 0, numLength));
                 }
                 // once one 'u' char is found, we are done
                 break;
@@ -968,12 +761,21 @@ final class NinesStatementHandler implements RDFHandler {
         this.file = file;
     }
     
+    /**
+     * @return True if a text field of the last file was a text URL or had
+     *         corrected text, so that what was indexed for it depends on the
+     *         mode and on the full and corrected text folders
+     */
+    public boolean usesExternalText() {
+        return this.externalText;
+    }
+
     public long getLargestTextSize() {
         return this.largestTextField;
     }
 
     public void endRDF() throws RDFHandlerException {
-        // no-op
+        finish();
     }
 
     public void handleComment(String arg0) throws RDFHandlerException {
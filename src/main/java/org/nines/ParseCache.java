@@ -0,0 +1,618 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.CodeSource;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.log4j.Logger;
+import org.nines.RDFIndexerConfig.Mode;
+
+/**
+ * Keeps what parsing each RDF file produced, so that a later run can skip
+ * parsing files that have not changed. An entry holds the documents the file
+ * produced, in order, together with the errors and links reported while it
+ * was parsed, and is replayed in place of the parse.
+ *
+ * There is one entry file per RDF file. It is used only if the RDF content
+ * (size and modification time, or failing those the SHA-1 of the content),
+ * the cache format, the indexer build (a digest of its classes), the archive
+ * and the corrected text folder are all as they were when it was written.
+ * Objects with a text URL or corrected text are indexed differently in INDEX
+ * mode, so entries holding such objects also need the same mode and, in INDEX
+ * mode, an unchanged full text folder.
+ *
+ * Entries are a compact binary stream: variable length integers, UTF-8
+ * strings and a per entry table of field names. When the cache grows past its
+ * size limit the least recently used entries are removed.
+ */
+final class ParseCache {
+
+    private static final Logger LOG = Logger.getLogger(ParseCache.class.getName());
+
+    // bump whenever the entry format changes
+    private static final int CACHE_VERSION = 1;
+    // the code that wrote an entry. Any rebuild of the parser, the statement
+    // handler or the validation changes it, so their old output is never replayed
+    private static final String BUILD = buildStamp();
+    private static final String SUFFIX = ".parsed";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int END = 0;
+    private static final int DOCUMENT = 1;
+    private static final int ERROR = 2;
+    private static final int LINK = 3;
+
+    private static final Metrics.Counter HITS = Metrics.counter("parse.cache.hit");
+    private static final Metrics.Counter MISSES = Metrics.counter("parse.cache.miss");
+
+    private final File dir;
+    private final long maxBytes;
+    private final String archive;
+    private final boolean collectLinks;
+    private final boolean indexMode;
+    private final long correctedTextStamp;
+    private final long fullTextStamp;
+    private long totalBytes = -1;
+
+    /**
+     * @param dir Where to keep the entries. It is created if need be.
+     * @param maxBytes Size the entries may take up before the least recently
+     *        used are removed
+     * @param config The run the cache is used by
+     */
+    public ParseCache(final File dir, final long maxBytes, final RDFIndexerConfig config) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.archive = config.archiveName;
+        this.collectLinks = config.collectLinks;
+        this.indexMode = (config.mode == Mode.INDEX);
+        this.correctedTextStamp = stamp(config.correctedText.getDirectory());
+        if (this.indexMode && config.sourceDir != null && config.sourceDir.toString().indexOf("/rdf/") != -1) {
+            this.fullTextStamp = stamp(new File(NinesStatementHandler.findFullTextRoot(config)));
+        } else {
+            this.fullTextStamp = 0;
+        }
+        this.dir.mkdirs();
+    }
+
+    public File getDirectory() {
+        return this.dir;
+    }
+
+    /**
+     * @return The saved result of parsing <code>file</code>, or null if there
+     *         is none that can be used
+     */
+    public Entry get(final File file) {
+        File entryFile = entryFile(file);
+        if (entryFile.exists() == false) {
+            MISSES.inc();
+            return null;
+        }
+        try {
+            Entry entry = read(file, FileUtils.readFileToByteArray(entryFile));
+            if (entry == null) {
+                MISSES.inc();
+                return null;
+            }
+            entryFile.setLastModified(System.currentTimeMillis());
+            HITS.inc();
+            return entry;
+        } catch (IOException e) {
+            LOG.warn("Ignoring unreadable parse cache entry " + entryFile + ": " + e.getMessage());
+            MISSES.inc();
+            return null;
+        }
+    }
+
+    /**
+     * Start recording the parse of <code>file</code>. Its input stream must be
+     * read through {@link Recorder#wrap(InputStream)}.
+     */
+    public Recorder record(final File file) {
+        return new Recorder(file, Math.max(this.maxBytes / 16, 1024));
+    }
+
+    /**
+     * Save a recorded parse. Nothing is saved if the file was not read
+     * completely or changed while it was parsed.
+     *
+     * @param externalText See {@link NinesStatementHandler#usesExternalText()}
+     */
+    public void put(final File file, final Recorder recorder, final boolean externalText,
+        final long largestTextSize, final int count) {
+        if (recorder.isComplete() == false) {
+            return;
+        }
+        File entryFile = entryFile(file);
+        File tmp = new File(entryFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            byte[] payload = recorder.finish();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(CACHE_VERSION);
+            out.writeUTF(BUILD);
+            out.writeUTF(file.getAbsolutePath());
+            out.writeLong(recorder.size);
+            out.writeLong(recorder.modified);
+            out.writeUTF(IndexManifest.toHex(recorder.digest.digest()));
+            out.writeUTF(this.archive);
+            out.writeBoolean(this.collectLinks);
+            out.writeLong(this.correctedTextStamp);
+            out.writeBoolean(externalText);
+            out.writeBoolean(this.indexMode);
+            out.writeLong(this.fullTextStamp);
+            out.writeLong(largestTextSize);
+            out.writeInt(count);
+            out.writeLong(crc.getValue());
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.close();
+            out = null;
+
+            long replaced = entryFile.length();
+            if (entryFile.exists() && entryFile.delete() == false) {
+                throw new IOException("Unable to replace " + entryFile);
+            }
+            if (tmp.renameTo(entryFile) == false) {
+                throw new IOException("Unable to rename " + tmp);
+            }
+            added(entryFile.length() - replaced);
+        } catch (IOException e) {
+            LOG.warn("Unable to write parse cache entry " + entryFile + ": " + e.getMessage());
+            tmp.delete();
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    // the entry in bytes, if it was made from this file in a run like this one
+    private Entry read(final File file, final byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != CACHE_VERSION || in.readUTF().equals(BUILD) == false
+            || in.readUTF().equals(file.getAbsolutePath()) == false) {
+            return null;
+        }
+        long size = in.readLong();
+        long modified = in.readLong();
+        String hash = in.readUTF();
+        if (in.readUTF().equals(this.archive) == false || in.readBoolean() != this.collectLinks) {
+            return null;
+        }
+        long correctedStamp = in.readLong();
+        if (correctedStamp < 0 || correctedStamp != this.correctedTextStamp) {
+            return null;
+        }
+        boolean externalText = in.readBoolean();
+        boolean indexed = in.readBoolean();
+        long fullStamp = in.readLong();
+        if (externalText && (indexed != this.indexMode || (indexed && (fullStamp < 0 || fullStamp != this.fullTextStamp)))) {
+            return null;
+        }
+        if (size != file.length()) {
+            return null;
+        }
+        if (modified != file.lastModified() && IndexManifest.hash(file).equals(hash) == false) {
+            return null;
+        }
+
+        long largestTextSize = in.readLong();
+        int count = in.readInt();
+        long crc = in.readLong();
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        CRC32 check = new CRC32();
+        check.update(payload);
+        if (check.getValue() != crc) {
+            throw new IOException("checksum mismatch");
+        }
+
+        List<Object> events = decode(payload);
+
+        // text files are only named in the documents; check they are still there
+        for (Object event : events) {
+            if (event instanceof Parsed) {
+                List<String> textFiles = ((Parsed) event).document.get(NinesStatementHandler.TEXT_FILE);
+                if (textFiles != null) {
+                    for (String path : textFiles) {
+                        if (new File(path).length() == 0) {
+                            return null;
+                        }
+                    }
+                }
+            }
+        }
+        return new Entry(events, count, largestTextSize);
+    }
+
+    private static List<Object> decode(final byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        List<String> names = new ArrayList<String>();
+        List<Object> events = new ArrayList<Object>();
+        while (true) {
+            int type = in.readByte();
+            if (type == END) {
+                return events;
+            } else if (type == DOCUMENT) {
+                String uri = readString(in);
+                Document document = new Document();
+                int fields = readVarInt(in);
+                for (int i = 0; i < fields; i++) {
+                    int id = readVarInt(in);
+                    if (id == names.size()) {
+                        names.add(readString(in));
+                    }
+                    String name = names.get(id);
+                    int values = readVarInt(in);
+                    for (int j = 0; j < values; j++) {
+                        document.add(name, readString(in));
+                    }
+                }
+                events.add(new Parsed(uri, document));
+            } else if (type == ERROR) {
+                events.add(new IndexerError(readString(in), readString(in), readString(in)));
+            } else if (type == LINK) {
+                events.add(new String[] { readString(in), readString(in), readString(in) });
+            } else {
+                throw new IOException("unknown record " + type);
+            }
+        }
+    }
+
+    private synchronized void added(final long bytes) {
+        if (this.totalBytes < 0) {
+            this.totalBytes = 0;
+            for (File file : entries()) {
+                this.totalBytes += file.length();
+            }
+        } else {
+            this.totalBytes += bytes;
+        }
+        if (this.totalBytes > this.maxBytes) {
+            evict();
+        }
+    }
+
+    // remove the least recently used entries until the cache is well under its limit
+    private void evict() {
+        File[] files = entries();
+        final long[] used = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            used[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return used[a] < used[b] ? -1 : (used[a] == used[b] ? 0 : 1);
+            }
+        });
+
+        long target = this.maxBytes / 10 * 9;
+        int removed = 0;
+        for (int i = 0; i < order.length && this.totalBytes > target; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                this.totalBytes -= length;
+                removed++;
+            }
+        }
+        LOG.info("Removed " + removed + " entries from the parse cache " + this.dir);
+    }
+
+    private File[] entries() {
+        File[] files = this.dir.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.getName().endsWith(SUFFIX);
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+
+    private File entryFile(final File file) {
+        String path = file.getAbsolutePath();
+        return new File(this.dir, Long.toHexString(CorrectedTextIndex.hash(path)) + SUFFIX);
+    }
+
+    /**
+     * @return The implementation version and a digest of the jar, or of the
+     *         class files in the folder, that this class was loaded from. A
+     *         build that cannot be identified gets a stamp of its own, so
+     *         nothing it saves is used by another run.
+     */
+    static String buildStamp() {
+        String version = String.valueOf(ParseCache.class.getPackage().getImplementationVersion());
+        try {
+            CodeSource source = ParseCache.class.getProtectionDomain().getCodeSource();
+            File location = new File(source.getLocation().toURI());
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            if (location.isDirectory()) {
+                List<File> classes = new ArrayList<File>(FileUtils.listFiles(location, new String[] { "class" }, true));
+                Collections.sort(classes);
+                for (File file : classes) {
+                    digest.update(file.getPath().substring(location.getPath().length()).getBytes(UTF8));
+                    digest.update(FileUtils.readFileToByteArray(file));
+                }
+            } else {
+                InputStream in = new FileInputStream(location);
+                try {
+                    byte[] buf = new byte[64 * 1024];
+                    int n;
+                    while ((n = in.read(buf)) != -1) {
+                        digest.update(buf, 0, n);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            return version + "/" + IndexManifest.toHex(digest.digest());
+        } catch (Exception e) {
+            LOG.warn("Unable to identify this build; saved parses will not be reused: " + e);
+            return version + "/" + System.currentTimeMillis() + "/" + System.nanoTime();
+        }
+    }
+
+    // modification time of a folder, 0 if it is missing, or -1 if it changed
+    // too recently to be sure a listing taken now saw all of the change
+    private static long stamp(final File dir) {
+        if (dir == null || dir.exists() == false) {
+            return 0;
+        }
+        long modified = dir.lastModified();
+        return (System.currentTimeMillis() - modified < 1000) ? -1 : modified;
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static void writeVarInt(final DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(final DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed length");
+    }
+
+    /**
+     * A saved parse, ready to be replayed
+     */
+    static final class Entry {
+        private final List<Object> events;
+        private final int count;
+        private final long largestTextSize;
+
+        private Entry(List<Object> events, int count, long largestTextSize) {
+            this.events = events;
+            this.count = count;
+            this.largestTextSize = largestTextSize;
+        }
+
+        public long getLargestTextSize() {
+            return this.largestTextSize;
+        }
+
+        /**
+         * Report the errors and links and pass on the documents, in the order
+         * the parse produced them
+         *
+         * @return The number of objects found
+         */
+        public int replay(final ErrorReport errorReport, final LinkCollector linkCollector, final DocumentSink sink) {
+            for (Object event : this.events) {
+                if (event instanceof Parsed) {
+                    sink.document(((Parsed) event).uri, ((Parsed) event).document);
+                } else if (event instanceof IndexerError) {
+                    errorReport.addError((IndexerError) event);
+                } else {
+                    String[] link = (String[]) event;
+                    linkCollector.addLink(link[0], link[1], link[2]);
+                }
+            }
+            return this.count;
+        }
+    }
+
+    private static final class Parsed {
+        private final String uri;
+        private final Document document;
+
+        Parsed(String uri, Document document) {
+            this.uri = uri;
+            this.document = document;
+        }
+    }
+
+    /**
+     * Writes down what one parse produces as it happens. The documents are
+     * written as they are handed on, before anything downstream can change
+     * them. Recording stops, and nothing is saved, if the entry would take
+     * more than a sixteenth of the cache.
+     */
+    static final class Recorder {
+        private final long size;
+        private final long modified;
+        private final long limit;
+        private final MessageDigest digest;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        private final DataOutputStream out = new DataOutputStream(this.bytes);
+        private final Map<String, Integer> names = new HashMap<String, Integer>();
+        private final File file;
+        private CountingInputStream counter;
+        private boolean paused = false;
+        private boolean overflow = false;
+
+        private Recorder(File file, long limit) {
+            this.file = file;
+            this.size = file.length();
+            this.modified = file.lastModified();
+            this.limit = limit;
+            try {
+                this.digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-1 is not available");
+            }
+        }
+
+        /**
+         * @return <code>in</code>, hashed as it is read
+         */
+        public InputStream wrap(final InputStream in) {
+            this.counter = new CountingInputStream(new DigestInputStream(in, this.digest));
+            return this.counter;
+        }
+
+        /**
+         * Errors and links reported while paused are not recorded. The parser
+         * pauses while a document is downstream, whose own errors are not part
+         * of the parse.
+         */
+        public void setPaused(final boolean paused) {
+            this.paused = paused;
+        }
+
+        void document(final String uri, final Document document) {
+            if (this.overflow) {
+                return;
+            }
+            try {
+                this.out.writeByte(DOCUMENT);
+                writeString(this.out, uri);
+                writeVarInt(this.out, document.size());
+                for (int i = 0; i < document.size(); i++) {
+                    String name = document.name(i);
+                    Integer id = this.names.get(name);
+                    if (id == null) {
+                        id = this.names.size();
+                        this.names.put(name, id);
+                        writeVarInt(this.out, id);
+                        writeString(this.out, name);
+                    } else {
+                        writeVarInt(this.out, id);
+                    }
+                    List<String> values = document.values(i);
+                    writeVarInt(this.out, values.size());
+                    for (String value : values) {
+                        writeString(this.out, value);
+                    }
+                }
+            } catch (IOException e) {
+                // not thrown by a ByteArrayOutputStream
+                throw new IllegalStateException(e);
+            }
+            checkSize();
+        }
+
+        void error(final IndexerError error) {
+            if (this.paused || this.overflow) {
+                return;
+            }
+            try {
+                this.out.writeByte(ERROR);
+                // written the way the report prints them
+                writeString(this.out, String.valueOf(error.getFilename()));
+                writeString(this.out, String.valueOf(error.getUri()));
+                writeString(this.out, String.valueOf(error.getMessage()));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            checkSize();
+        }
+
+        void link(final String documentURI, final String filename, final String url) {
+            if (this.paused || this.overflow) {
+                return;
+            }
+            try {
+                this.out.writeByte(LINK);
+                writeString(this.out, documentURI);
+                writeString(this.out, filename);
+                writeString(this.out, url);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            checkSize();
+        }
+
+        private void checkSize() {
+            if (this.bytes.size() > this.limit) {
+                this.overflow = true;
+                this.bytes.reset();
+            }
+        }
+
+        // the whole file went through the parse unchanged
+        private boolean isComplete() {
+            return this.overflow == false && this.counter != null && this.counter.getByteCount() == this.size
+                && this.file.lastModified() == this.modified;
+        }
+
+        private byte[] finish() throws IOException {
+            this.out.writeByte(END);
+            return this.bytes.toByteArray();
+        }
+    }
+}
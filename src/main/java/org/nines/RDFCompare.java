@@ -84,6 +84,10 @@ public class RDFCompare {
 
         // init the solr connection
         this.solrClient = new SolrClient(this.config.solrBaseURL);
+        this.solrClient.setMaxConnections(this.config.maxConnections);
+        this.solrClient.setTimeouts(this.config.connectTimeout, this.config.readTimeout);
+        this.solrClient.setRetryPolicy(new RetryPolicy(this.config.retries, RetryPolicy.DEFAULT_DELAY,
+            RetryPolicy.DEFAULT_MAX_DELAY));
     }
 
     /**
@@ -102,7 +106,6 @@ public class RDFCompare {
         if( fl.equals( "*" ) == true ) includesText = true;
 
         // Start at beginning of list and return 500 hits at a time
-        int page = 0;
         int size = this.config.pageSize;
         List<JsonObject> archiveDocs = new ArrayList<JsonObject>();
         HashMap<String, JsonObject> indexHash = new HashMap<String, JsonObject>();
@@ -148,6 +151,12 @@ public class RDFCompare {
         // read a page of docs back from index and archive. Compare the page hits.
         // If comparisons were complete, remove the docs from lists.
         // Repeat til all lists are gone.
+        String indexCore = "resources";
+        if ( this.config.isPagesArchive() ) {
+            indexCore = "pages";
+        }
+        SolrClient.ResultCursor archiveCursor = this.solrClient.getResults( reindexCore, config.archiveName, size, fl, null, null );
+        SolrClient.ResultCursor indexCursor = this.solrClient.getResults( indexCore, config.archiveName, size, fl, null, null );
         boolean archiveDone = false;
         boolean indexDone = false;
         while ( true ) {
@@ -155,8 +164,8 @@ public class RDFCompare {
 
             // get hits from archive, tally totals and check for end
             if ( archiveDone == false ) {
-                pageHits = this.solrClient.getResultsPage( reindexCore, config.archiveName, page, size, fl, null, null );
-                if (pageHits.size() < size) {
+                pageHits = archiveCursor.nextPage( );
+                if ( archiveCursor.hasMore( ) == false ) {
                     archiveDone = true;
                 }
 
@@ -244,12 +253,8 @@ public class RDFCompare {
 
             // get index docs
             if ( indexDone == false) {
-                String core = "resources";
-                if ( this.config.isPagesArchive() ) {
-                    core = "pages";
-                }
-                pageHits = this.solrClient.getResultsPage( core, config.archiveName, page, size, fl, null, null );
-                if (pageHits.size() < size) {
+                pageHits = indexCursor.nextPage( );
+                if ( indexCursor.hasMore( ) == false ) {
                     indexDone = true;
                 }
 
@@ -267,9 +272,7 @@ public class RDFCompare {
             // next page?
             if ( archiveDone == true && indexDone == true ) {
                 break;
-            } else {
-                page++;
-            } 
+            }
         }
             
         if (runningText2 > maxText2)
@@ -337,6 +340,7 @@ public class RDFCompare {
 
         // now check for skipped stuff
         doSkippedTest(indexUris, archiveUris);
+        this.solrClient.shutdown();
     }
 
     private void logErrors() {
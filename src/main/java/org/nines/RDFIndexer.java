@@ -22,6 +22,11 @@ import java.net.URL;
 import java.net.URLEncoder;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.xml.DOMConfigurator;
@@ -29,13 +34,12 @@ import org.nines.RDFIndexerConfig.Mode;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
 public class RDFIndexer {
 
     private int numFiles = 0;
-    private int numObjects = 0;
+    private AtomicInteger numObjects = new AtomicInteger(0);
     private int numReferences = 0;
     private long largestTextSize = 0;
     private RDFIndexerConfig config;
@@ -44,13 +48,32 @@ public class RDFIndexer {
     private LinkCollector linkCollector;
     private Logger log;
     private AsyncPoster asyncPoster;
-    private JsonArray jsonPayload = new JsonArray();
-    private int postCount = 0;
+    private int reportedFailures = 0;
+    private JsonBatch jsonPayload;
+    private final Gson gson = new Gson();
     private SolrClient solrClient;
+    private IndexManifest manifest;
+    private IndexCheckpoint checkpoint;
+    private CommitPolicy commitPolicy;
+    private final Object walkLock = new Object( );
+    private Set<String> seenFiles;
+    private int finishedFiles = 0;
+    private int unchangedFiles = 0;
     private Date ts = new Date();
     private SimpleDateFormat ts2 = new SimpleDateFormat("yyyy-MM-dd");
     private String timeStamp = new String(ts2.format(ts));
 
+    // initial size of a payload buffer; it grows as needed up to maxUploadSize
+    private static final int INITIAL_BATCH_SIZE = 1024 * 1024;
+    private static final int INITIAL_DOCUMENT_SIZE = 8 * 1024;
+
+    // run metrics
+    private static final Metrics.Timer FILE_TIMER = Metrics.timer( "file.total" );
+    private static final Metrics.Timer VALIDATE_TIMER = Metrics.timer( "validate" );
+    private static final Metrics.Timer JSON_TIMER = Metrics.timer( "json.build" );
+    private static final Metrics.Counter FILES = Metrics.counter( "files" );
+    private static final Metrics.Counter DOCUMENTS = Metrics.counter( "documents" );
+
     // special field names
     private final String isPartOf = "isPartOf";
     private final String hasPart = "hasPart";
@@ -89,7 +112,16 @@ public class RDFIndexer {
 
         this.linkCollector = new LinkCollector(this.config.getLogfileBaseName("links"));
         this.solrClient = new SolrClient(this.config.solrBaseURL);
-        this.asyncPoster = new AsyncPoster( 1 );
+        // every post thread may hold a connection while a query needs another
+        this.solrClient.setMaxConnections( Math.max( this.config.maxConnections, this.config.postThreads + 1 ) );
+        this.solrClient.setTimeouts( this.config.connectTimeout, this.config.readTimeout );
+        this.solrClient.setRetryPolicy( new RetryPolicy( this.config.retries, RetryPolicy.DEFAULT_DELAY,
+            RetryPolicy.DEFAULT_MAX_DELAY ) );
+        this.solrClient.setCompressRequests( this.config.compressRequests );
+        this.commitPolicy = CommitPolicy.parse( this.config.commitPolicy );
+        this.solrClient.setCommitWithin( this.commitPolicy.getCommitWithin( ) );
+        this.asyncPoster = new AsyncPoster( config.postThreads, config.maxPendingBytes, config.maxPendingPosts );
+        this.jsonPayload = newBatch( );
     }
 
     /**
@@ -97,6 +129,9 @@ public class RDFIndexer {
      */
     public void execute() {
 
+        Metrics.reset( );
+        long started = System.currentTimeMillis( );
+
         // There is only something else to do if a MODE was configured
         if (config.mode.equals(Mode.NONE) == false) {
 
@@ -135,8 +170,33 @@ public class RDFIndexer {
         }
 
         this.asyncPoster.shutdown( );
+        this.solrClient.shutdown( );
         this.errorReport.close( );
         this.linkCollector.close( );
+        writeMetrics( System.currentTimeMillis( ) - started );
+    }
+
+    /**
+     * Write the per stage timings and throughput of this run next to the progress log
+     */
+    private void writeMetrics( final long elapsedMillis ) {
+        File file = new File( this.config.getLogfileBaseName( "progress" ) + "_metrics.json" );
+        JsonObject run = new JsonObject( );
+        run.addProperty( "mode", this.config.mode.toString( ) );
+        run.addProperty( "archive", this.config.archiveName );
+        run.addProperty( "threads", this.config.numThreads );
+        run.addProperty( "post_threads", this.config.postThreads );
+        run.addProperty( "commit_policy", this.commitPolicy.toString( ) );
+        run.addProperty( "files", this.numFiles );
+        run.addProperty( "objects", this.numObjects.get( ) );
+        run.addProperty( "largest_text", this.largestTextSize );
+        run.addProperty( "errors", this.errorReport.getErrorCount( ) );
+        try {
+            Metrics.write( file, run, elapsedMillis );
+            this.log.info( "Metrics written to " + file );
+        } catch ( IOException e ) {
+            this.log.error( "Unable to write metrics to " + file + ": " + e.getMessage( ) );
+        }
     }
 
     private void doFullTextCleanup() {
@@ -223,12 +283,18 @@ public class RDFIndexer {
         double durationSec = (end.getTime() - start.getTime()) / 1000.0;
         if (durationSec >= 60) {
             this.log.info(String.format(
-                "Indexed " + numFiles + " files (" + numObjects + " objects) in %3.2f minutes.", (durationSec / 60.0)));
+                "Indexed " + numFiles + " files (" + numObjects.get() + " objects) in %3.2f minutes.", (durationSec / 60.0)));
         } else {
             this.log.info(String.format(
-                "Indexed " + numFiles + " files (" + numObjects + " objects) in %3.2f seconds.", durationSec));
+                "Indexed " + numFiles + " files (" + numObjects.get() + " objects) in %3.2f seconds.", durationSec));
         }
         this.log.info("Largest text field size: " + this.largestTextSize);
+        logCommitStats( );
+    }
+
+    private void logCommitStats( ) {
+        this.log.info( "Commit policy " + this.commitPolicy + ": " + this.asyncPoster.getCommitCount( )
+            + " commits taking " + this.asyncPoster.getCommitMillis( ) + " ms" );
     }
 
     private void doResolving() {
@@ -248,6 +314,7 @@ public class RDFIndexer {
             this.log.info(String.format(
                     "Resolved/updated " + numReferences + " references in %3.2f seconds.", durationSec));
         }
+        logCommitStats( );
     }
 
     private void doSpidering() {
@@ -292,7 +359,7 @@ public class RDFIndexer {
                 }
 
                 if (rdfMode) {
-                    if (entry.getName().endsWith(".rdf") || entry.getName().endsWith(".xml")) {
+                    if (RdfDocumentParser.isRdfFile(entry.getName())) {
                         this.dataFileQueue.add(entry);
                     }
                 } else {
@@ -312,21 +379,30 @@ public class RDFIndexer {
      * @param rdfDir
      */
     private void spiderDirectory(final File rdfDir) {
-        this.dataFileQueue = new LinkedList<File>();
-        recursivelyQueueFiles(rdfDir, true);
-        this.numFiles = this.dataFileQueue.size();
-        log.info("=> Spider text for " + rdfDir + " total files: " + this.numFiles);
+        FileWalker walker = new FileWalker( rdfDir, true, config.scanThreads );
+        log.info("=> Spider text for " + rdfDir);
+        openCheckpoint( );
         RdfTextSpider spider = new RdfTextSpider( config, this.errorReport);
-        while (this.dataFileQueue.size() > 0) {
-            File rdfFile = this.dataFileQueue.remove();
+        File rdfFile;
+        while ((rdfFile = nextFile( walker )) != null) {
             this.log.info("Spider text from file " + rdfFile.toString());
             spider.spider(rdfFile);
+            if ( this.checkpoint != null ) {
+                try {
+                    this.checkpoint.markDone( rdfFile );
+                } catch ( IOException e ) {
+                    this.log.error( "Unable to update checkpoint: " + e.getMessage( ) );
+                }
+            }
             try {
                 Thread.sleep(10);
             } catch (InterruptedException e) {
             }
             this.errorReport.flush();
         }
+        this.numFiles = walker.getCount( );
+        logSkippedFiles( );
+        closeCheckpoint( );
     }
 
     /**
@@ -336,30 +412,47 @@ public class RDFIndexer {
      * @param rdfDir
      */
     private void indexDirectory(File rdfDir) {
-        // see if corrected texts exist. 
-        config.correctedTextDir = new File(  findCorrectedTextRoot() );
-        if ( config.correctedTextDir .exists() ) {
-            // it does; grab a list of filenames that have corrected text and cache them.
-            // The file names are URIs with ugly characters replaces. Rules... 
-            // '/' is replaced by _S_ and ':' by _C_
-            // Undo this and save a list of corrected doc URIs
-            for (File entry : config.correctedTextDir .listFiles()) {
-                if ( entry.getName().endsWith(".txt")) {
-                    config.correctedTextMap.put(
-                        entry.getName().replaceAll("_C_", ":").replaceAll("_S_", "\\/").replaceAll(".txt",""),                        
-                        entry.getName() );
-                }
-            }
+        // corrected texts, if any, are found by URI as documents are parsed. The
+        // directory is only listed when the cached listing is out of date
+        config.correctedText = new CorrectedTextIndex( new File( findCorrectedTextRoot() ),
+            new File( config.getLogfileBaseName( "" ) + "_correctedtext.idx" ) );
+        if ( config.parseCacheDir != null ) {
+            config.parseCache = new ParseCache( config.parseCacheDir, config.parseCacheSize, config );
         }
         
-        this.dataFileQueue = new LinkedList<File>();
-        recursivelyQueueFiles(rdfDir, true);
-        this.numFiles = this.dataFileQueue.size();
-        log.info( "=> Indexing " + rdfDir + " total files: " + this.numFiles );
+        log.info( "=> Indexing " + rdfDir );
+
+        // in incremental mode only new or changed files are parsed
+        Set<String> staleUris = null;
+        if ( config.incremental ) {
+            staleUris = loadManifest( );
+            if ( staleUris == null ) {
+                return;
+            }
+        }
 
-        while (this.dataFileQueue.size() > 0) {
-           File rdfFile = this.dataFileQueue.remove();
-           indexFile(rdfFile);
+        // nothing is posted in test mode, so there is nothing to checkpoint
+        if ( config.isTestMode( ) == false ) {
+            openCheckpoint( );
+        }
+
+        // files are indexed as the walk finds them
+        FileWalker walker = new FileWalker( rdfDir, true, config.scanThreads );
+        if ( config.numThreads > 1 ) {
+            indexFilesConcurrently( walker, config.numThreads );
+        } else {
+            File rdfFile;
+            while ((rdfFile = nextFile( walker )) != null) {
+               indexFile(rdfFile);
+            }
+        }
+        walker.close( );
+        this.numFiles = walker.getCount( );
+        log.info( "=> Walked " + this.numFiles + " files in " + rdfDir );
+        logSkippedFiles( );
+        if ( this.manifest != null ) {
+            int removed = this.manifest.removeMissing( this.seenFiles ).size( );
+            log.info( "=> Incremental: " + removed + " files removed since the last run" );
         }
 
         if( config.isTestMode( ) == false ) {
@@ -367,84 +460,312 @@ public class RDFIndexer {
             // flush any remaining data
             flush( );
 
+            // drop documents whose source files are gone
+            if ( staleUris != null ) {
+                deleteStaleDocuments( staleUris );
+            }
+
             // commit the changes and wait for all the workers to complete
             this.asyncPoster.asyncCommit( this.solrClient, config.coreName( ) );
             this.asyncPoster.waitForPending( );
+            closeCheckpoint( );
+
+            // the manifest would mark the files of a failed post as indexed
+            if ( reportFailedPosts( ) == false && this.manifest != null ) {
+                saveManifest( );
+            }
 
            // if we actually processed any documents, process any isPartOf or hasPart references
-           if( this.numObjects != 0 && this.config.isPagesArchive() == false ) { 
+           if( this.numObjects.get() != 0 && this.config.isPagesArchive() == false ) { 
                updateReferenceFields( );
            }
         }
     }
 
+    /**
+     * Add the posts and commits SOLR did not accept so far to the error report.
+     * 
+     * @return True if any failed
+     */
+    private boolean reportFailedPosts( ) {
+        int failed = this.asyncPoster.getFailedCount( );
+        if ( failed > this.reportedFailures ) {
+            this.errorReport.addError( new IndexerError( "", "", ( failed - this.reportedFailures )
+                + " posts or commits to SOLR failed; see the log for details" ) );
+            this.reportedFailures = failed;
+        }
+        return failed > 0;
+    }
+
+    /**
+     * Open the checkpoint for this run. When resuming, the files an interrupted
+     * run finished are skipped by nextFile. A checkpoint that cannot be used
+     * is reported and the run carries on without one.
+     */
+    private void openCheckpoint( ) {
+        this.checkpoint = new IndexCheckpoint( new File( config.getLogfileBaseName( "" ) + "_"
+            + config.mode.toString( ).toLowerCase( ) + "_checkpoint.txt" ) );
+        try {
+            this.checkpoint.open( config.resume );
+        } catch ( IOException e ) {
+            this.errorReport.addError( new IndexerError( this.checkpoint.getFile( ).toString( ), "",
+                "Unable to open checkpoint: " + e.getMessage( ) ) );
+            this.checkpoint = null;
+            return;
+        }
+        if ( config.resume ) {
+            log.info( "=> Resuming: " + this.checkpoint.size( ) + " files already finished" );
+        }
+    }
+
+    /**
+     * Close the checkpoint. It is removed if everything was acknowledged, otherwise
+     * it is kept so the run can be resumed.
+     */
+    private void closeCheckpoint( ) {
+        if ( this.checkpoint != null && this.checkpoint.close( ) == false ) {
+            log.info( "=> Not all files were confirmed; resume with -resume to finish "
+                + this.checkpoint.getFile( ) );
+        }
+    }
+
+    /**
+     * Load the manifest from the last run. Returns the URIs that were produced by
+     * the last run; once indexing is done, any of them that no file produces any
+     * more are stale.
+     * 
+     * @return Previously indexed URIs, or null if the manifest could not be used
+     */
+    private Set<String> loadManifest( ) {
+        this.manifest = new IndexManifest( new File( config.getLogfileBaseName( "" ) + "_manifest.txt" ) );
+        try {
+            if ( config.deleteAll == false ) {
+                this.manifest.load( );
+            }
+        } catch ( IOException e ) {
+            this.errorReport.addError( new IndexerError( this.manifest.getFile( ).toString( ), "",
+                "Unable to read index manifest: " + e.getMessage( ) ) );
+            this.manifest = null;
+            return null;
+        }
+        this.seenFiles = new HashSet<String>( );
+        return this.manifest.getAllUris( );
+    }
+
+    /**
+     * Get the next file to work on. Files an interrupted run already finished
+     * and, in incremental mode, files that have not changed since the last run
+     * are skipped. Shared by all indexing workers.
+     * 
+     * @param walker
+     * @return The next file, or null once the walk is done
+     */
+    private File nextFile( final FileWalker walker ) {
+        synchronized ( this.walkLock ) {
+            while ( walker.hasNext( ) ) {
+                File file = walker.next( );
+                if ( this.seenFiles != null ) {
+                    this.seenFiles.add( file.getAbsolutePath( ) );
+                }
+                if ( config.resume && this.checkpoint != null && this.checkpoint.isDone( file ) ) {
+                    this.finishedFiles++;
+                    continue;
+                }
+                if ( this.manifest != null && isUnchanged( file ) ) {
+                    this.unchangedFiles++;
+                    continue;
+                }
+                return file;
+            }
+            return null;
+        }
+    }
+
+    private boolean isUnchanged( final File file ) {
+        try {
+            return this.manifest.isUnchanged( file );
+        } catch ( IOException e ) {
+            return false;
+        }
+    }
+
+    private void logSkippedFiles( ) {
+        if ( this.finishedFiles > 0 ) {
+            log.info( "=> Resumed: skipped " + this.finishedFiles + " files finished by an earlier run" );
+        }
+        if ( this.manifest != null ) {
+            log.info( "=> Incremental: skipped " + this.unchangedFiles + " unchanged files" );
+        }
+    }
+
+    /**
+     * Delete the documents produced by the last run that no file produces now
+     */
+    private void deleteStaleDocuments( final Set<String> previousUris ) {
+        previousUris.removeAll( this.manifest.getAllUris( ) );
+        if ( previousUris.isEmpty( ) ) {
+            return;
+        }
+        log.info( "=> Deleting " + previousUris.size( ) + " documents whose source is gone" );
+        try {
+            this.solrClient.deleteById( previousUris, config.coreName( ) );
+        } catch ( IOException e ) {
+            this.errorReport.addError( new IndexerError( "", "", "Unable to delete stale documents: " + e.getMessage( ) ) );
+        }
+    }
+
+    private void saveManifest( ) {
+        try {
+            this.manifest.save( );
+        } catch ( IOException e ) {
+            this.errorReport.addError( new IndexerError( this.manifest.getFile( ).toString( ), "",
+                "Unable to write index manifest: " + e.getMessage( ) ) );
+        }
+    }
+
+    /**
+     * Parse and validate RDF files on a pool of worker threads. Each worker takes
+     * files from the walk and runs the same indexFile used by the serial path;
+     * only the shared payload is serialized.
+     * 
+     * @param walker
+     * @param threads Number of worker threads
+     */
+    private void indexFilesConcurrently( final FileWalker walker, final int threads ) {
+        log.info( "=> Indexing with " + threads + " worker threads" );
+        ExecutorService workers = Executors.newFixedThreadPool( threads );
+        List<Future<?>> tasks = new ArrayList<Future<?>>( );
+        for ( int i = 0; i < threads; i++ ) {
+            tasks.add( workers.submit( new Runnable() {
+                public void run() {
+                    File rdfFile;
+                    while ( (rdfFile = nextFile( walker )) != null ) {
+                        // a failure in one file must not stop the others
+                        try {
+                            indexFile( rdfFile );
+                        } catch ( RuntimeException e ) {
+                            log.error( "Indexing " + rdfFile + " failed", e );
+                            errorReport.addError( new IndexerError( rdfFile.getName( ), "", "Indexing failed: " + e ) );
+                        }
+                    }
+                }
+            } ) );
+        }
+        workers.shutdown( );
+
+        for ( Future<?> task : tasks ) {
+            try {
+                task.get( );
+            } catch ( InterruptedException e ) {
+                Thread.currentThread( ).interrupt( );
+                break;
+            } catch ( ExecutionException e ) {
+                this.log.error( "Indexing worker failed", e.getCause( ) );
+                this.errorReport.addError( new IndexerError( "", "", "Indexing worker failed: " + e.getCause( ) ) );
+            }
+        }
+    }
+
     private void indexFile(File file) {
+        long start = FILE_TIMER.start( );
+        try {
+            parseAndQueue( file );
+        } finally {
+            FILE_TIMER.stop( start );
+        }
+    }
 
-        HashMap<String, HashMap<String, ArrayList<String>>> objects;
+    private void parseAndQueue(final File file) {
 
-        // Parse a file into a hashmap.
-        // Key is object URI, Value is a set of key-value pairs
-        // that describe the object
+        // Parse the file, validating and queueing each object as soon as the
+        // parser has finished it. Only the URIs are kept for the manifest
+        final Set<String> uris = new HashSet<String>();
+        int count;
         try {
-            objects = RdfDocumentParser.parse(file, this.errorReport, this.linkCollector, config);
+            count = RdfDocumentParser.parse(file, this.errorReport, this.linkCollector, config, new DocumentSink() {
+                public void document(String uri, Document object) {
+                    uris.add( uri );
+                    validateAndQueue( file, uri, object );
+                }
+            });
         } catch (IOException e) {
             this.errorReport.addError(new IndexerError(file.getName(), "", e.getMessage()));
             return;
         }
+        FILES.inc( );
+
+        // remember what this file produced for the next incremental run
+        if ( this.manifest != null ) {
+            try {
+                this.manifest.update( file, uris );
+            } catch ( IOException e ) {
+                this.errorReport.addError( new IndexerError( file.getName(), "", "Unable to update manifest: " + e.getMessage() ) );
+            }
+        }
 
-        // Log an error for no objects and bail if size is zero
-        if (objects == null || objects.size() == 0) {
+        // Log an error for no objects
+        if (count == 0) {
             errorReport.addError(new IndexerError(file.getName(), "", "No objects in this file."));
             errorReport.flush();
+            fileIndexed( file );
             return;
         }
 
         // save the largest text field size
-        this.largestTextSize = Math.max(this.largestTextSize, RdfDocumentParser.getLargestTextSize());
+        updateLargestTextSize( RdfDocumentParser.getLargestTextSize() );
 
-        for (Map.Entry<String, HashMap<String, ArrayList<String>>> entry : objects.entrySet()) {
+        this.numObjects.addAndGet( count );
+        DOCUMENTS.add( count );
+        this.errorReport.flush();
+        fileIndexed( file );
+    }
 
-            String uri = entry.getKey();
-            HashMap<String, ArrayList<String>> object = entry.getValue();
+    private void validateAndQueue(final File file, final String uri, final Document object) {
 
-            // Validate archive and push objects into new archive map
-            ArrayList<String> objectArray = object.get("archive");
-            if (objectArray != null) {
-                String objArchive = objectArray.get(0);
-                if (!objArchive.equals( config.archiveName)) {
-                    this.errorReport.addError(new IndexerError(file.getName(), uri, "The wrong archive was found. "
-                        + objArchive + " should be " + config.archiveName));
-                }
-            } else {
-                this.errorReport.addError(new IndexerError(file.getName(), uri,
-                    "Unable to determine archive for this object."));
+        // Validate archive and push objects into new archive map
+        List<String> objectArray = object.get("archive");
+        if (objectArray != null) {
+            String objArchive = objectArray.get(0);
+            if (!objArchive.equals( config.archiveName)) {
+                this.errorReport.addError(new IndexerError(file.getName(), uri, "The wrong archive was found. "
+                    + objArchive + " should be " + config.archiveName));
             }
+        } else {
+            this.errorReport.addError(new IndexerError(file.getName(), uri,
+                "Unable to determine archive for this object."));
+        }
 
-            // validate all other parts of object and generate error report
-            try {
-                ArrayList<String> messages = ValidationUtility.validateObject(this.config.isPagesArchive(), object);
-                for (String message : messages) {
-                    IndexerError e = new IndexerError(file.getName(), uri, message);
-                    errorReport.addError(e);
-                }
-            } catch (Exception valEx) {
-                System.err.println("ERROR Validating file:" + file.getName() + " URI: " + uri);
-                valEx.printStackTrace();
-                IndexerError e = new IndexerError(file.getName(), uri, valEx.getMessage());
+        // validate all other parts of object and generate error report
+        long validateStart = VALIDATE_TIMER.start( );
+        try {
+            ArrayList<String> messages = ValidationUtility.validateObject(this.config.isPagesArchive(), object);
+            for (String message : messages) {
+                IndexerError e = new IndexerError(file.getName(), uri, message);
                 errorReport.addError(e);
             }
+        } catch (Exception valEx) {
+            System.err.println("ERROR Validating file:" + file.getName() + " URI: " + uri);
+            valEx.printStackTrace();
+            IndexerError e = new IndexerError(file.getName(), uri, valEx.getMessage());
+            errorReport.addError(e);
+        }
+        VALIDATE_TIMER.stop( validateStart );
 
-            // turn this object into an XML solr docm then xml string. Add this to the curr payload
-            JsonElement jsonDoc = docToJson(uri, object);
-            this.jsonPayload.add(jsonDoc);
+        // write this object into the current payload. Nothing gets posted in test mode
+        if( config.isTestMode( ) == false ) {
+            addToPayload( uri, object );
+        }
+    }
 
-            if( config.isTestMode( ) == false ) {
-                flushIfEnough( );
-            }
+    // all documents of this file are in the current payload or an earlier one
+    private synchronized void fileIndexed( final File file ) {
+        if ( this.checkpoint != null ) {
+            this.jsonPayload.addCompletedFile( file );
         }
+    }
 
-        this.numObjects += objects.size();
-        this.errorReport.flush();
+    private synchronized void updateLargestTextSize( final long size ) {
+        this.largestTextSize = Math.max( this.largestTextSize, size );
     }
 
     //
@@ -459,28 +780,79 @@ public class RDFIndexer {
         orList.add( isPartOf + "=http*" );
         orList.add( hasPart + "=http*" );
 
-        while( true ) {
-           List<JsonObject> results = this.solrClient.getResultsPage( coreName, config.archiveName, 0, size, fl, null, orList );
-
-           if( results.isEmpty( ) == true ) {
-              log.info( "No more references to resolve" );
-              break;
-           }
+        // the cursor keeps its place by uri, so the documents updated behind it
+        // need not be visible before the next page is read
+        SolrClient.ResultCursor cursor = this.solrClient.getResults( coreName, config.archiveName, size, fl, null, orList );
+        List<JsonObject> results = cursor.nextPage( );
+        if ( cursor.isPagingByOffset( ) ) {
+            resolveByUri( results, orList );
+        } else {
+            while( results.isEmpty( ) == false ) {
+               log.info( "Got " + results.size() + " references to resolve" );
+               for( JsonObject json : results ) {
+                  resolveReferences( json );
+               }
+               results = cursor.nextPage( );
+            }
+        }
+        log.info( "No more references to resolve" );
 
-           log.info( "Got " + results.size() + " references to resolve" );
-           for( JsonObject json : results ) {
-              log.info( "Resolving references for " + json.get( "uri" ).getAsString( ) );
-              updateDocumentReferences( json );
-              this.numReferences++;
-           }
+        // flush any data, then make the resolved references durable
+        flush( );
+        if ( this.numReferences > 0 ) {
+            this.asyncPoster.asyncCommit( this.solrClient, config.coreName() );
+        }
+        this.asyncPoster.waitForPending( );
+        reportFailedPosts( );
+    }
 
-            // flush any data and wait for completion...
-            flush( );
+    //
+    // a SOLR without cursors pages by offset. With commitWithin or autoSoftCommit the
+    // documents updated here could move between pages and be skipped, so the uris
+    // after the first page, which is already here, are listed before any document is
+    // updated, and each of those is then read on its own
+    //
+    private void resolveByUri( final List<JsonObject> firstPage, final List<String> orList ) {
+        log.warn( "SOLR does not support cursors; listing all references before resolving them" );
+        String coreName = config.coreName( );
+        int size = config.pageSize;
+        List<String> uris = new ArrayList<String>( );
+        for( int page = 1; firstPage.size( ) >= size; page++ ) {
+            List<JsonObject> results = this.solrClient.getResultsPage( coreName, config.archiveName, page, size,
+                "uri", null, orList );
+            for( JsonObject json : results ) {
+                uris.add( json.get( "uri" ).getAsString( ) );
+            }
+            if( results.size( ) < size ) {
+                break;
+            }
+        }
+        log.info( "Got " + ( firstPage.size( ) + uris.size( ) ) + " references to resolve" );
 
-            // commit the changes and wait for all the workers to complete
-            this.asyncPoster.asyncCommit( this.solrClient, config.coreName() );
-            this.asyncPoster.waitForPending( );
+        for( JsonObject json : firstPage ) {
+            resolveReferences( json );
         }
+        String fl = config.getFieldList( );
+        for( String uri : uris ) {
+            List<String> andList = new ArrayList<String>( );
+            try {
+                andList.add( "uri=" + URLEncoder.encode( "\"" + uri + "\"", "UTF-8" ) );
+            } catch ( UnsupportedEncodingException e ) {
+                // UTF-8 is always there
+                throw new IllegalStateException( e );
+            }
+            List<JsonObject> results = this.solrClient.getResultsPage( coreName, config.archiveName, 0, 1, fl,
+                andList, null );
+            if( results.isEmpty( ) == false ) {
+                resolveReferences( results.get( 0 ) );
+            }
+        }
+    }
+
+    private void resolveReferences( final JsonObject json ) {
+        log.info( "Resolving references for " + json.get( "uri" ).getAsString( ) );
+        updateDocumentReferences( json );
+        this.numReferences++;
     }
 
     //
@@ -502,7 +874,8 @@ public class RDFIndexer {
                 for( int ix = 0; ix < refs.size(); ix++ ) {
                     List<String> andList = new ArrayList<String>();
                     andList.add( "uri=" + URLEncoder.encode( "\"" + refs.get( ix ).getAsString( ) + "\"", "UTF-8" ) );
-                    List<JsonObject> results = this.solrClient.getResultsPage( coreName, config.archiveName, 0, 1, fl, andList, null );
+                    List<JsonObject> results = this.solrClient.getResultsPage( coreName, config.archiveName, 0, 1, fl, andList, null,
+                        SolrClient.TEXT_SKIP );
                     if( results.isEmpty( ) == false ) {
                         objs.add( removeExcessFields( results.get( 0 ) ) );
                     } else {
@@ -531,7 +904,8 @@ public class RDFIndexer {
                 for( int ix = 0; ix < refs.size(); ix++ ) {
                     List<String> andList = new ArrayList<String>();
                     andList.add( "uri=" + URLEncoder.encode( "\"" + refs.get( ix ).getAsString( ) + "\"", "UTF-8" ) );
-                    List<JsonObject> results = this.solrClient.getResultsPage( coreName, config.archiveName, 0, 1, fl, andList, null );
+                    List<JsonObject> results = this.solrClient.getResultsPage( coreName, config.archiveName, 0, 1, fl, andList, null,
+                        SolrClient.TEXT_SKIP );
                     if( results.isEmpty( ) == false ) {
                         objs.add( removeExcessFields( results.get( 0 ) ) );
                     } else {
@@ -553,8 +927,7 @@ public class RDFIndexer {
             }
 
             if( updated == true ) {
-                this.jsonPayload.add( json );
-                flushIfEnough( );
+                addToPayload( json );
             }
         } catch( UnsupportedEncodingException ex ) {
             // should never happen
@@ -586,29 +959,123 @@ public class RDFIndexer {
         return( json );
     }
 
-    private JsonElement docToJson(String documentName, HashMap<String, ArrayList<String>> fields) {
-        Gson gson = new Gson();
-        JsonObject obj = gson.toJsonTree(fields).getAsJsonObject();
-        obj.addProperty("date_created", this.timeStamp);
-        obj.addProperty("date_updated", this.timeStamp);
-        return obj;
+    /**
+     * Write a document into the batch. External text files referenced by the
+     * document are read here and streamed into its text field.
+     *
+     * @throws IOException if a text file could not be read. The document is still
+     *         written, with that text cut short.
+     */
+    static void docToJson(JsonBatch batch, Document fields, String timeStamp)
+        throws IOException {
+        List<String> textFiles = fields.get( NinesStatementHandler.TEXT_FILE );
+        batch.beginDocument( );
+        for (int i = 0; i < fields.size(); i++) {
+            String name = fields.name( i );
+            if ( textFiles != null && ( name.equals( "text" ) || name.equals( NinesStatementHandler.TEXT_FILE ) ) ) {
+                continue;
+            }
+            batch.field( name, fields.values( i ) );
+        }
+        batch.field( "date_created", timeStamp );
+        batch.field( "date_updated", timeStamp );
+        try {
+            if ( textFiles != null ) {
+                List<File> files = new ArrayList<File>( textFiles.size() );
+                for ( String path : textFiles ) {
+                    files.add( new File( path ) );
+                }
+                List<String> text = fields.get( "text" );
+                batch.field( "text", text == null ? new ArrayList<String>() : text, files );
+            }
+        } finally {
+            batch.endDocument( );
+        }
+    }
+
+    /**
+     * @return A copy of <code>fields</code> without its external text files,
+     *         marked as having no full text
+     */
+    static Document withoutTextFiles( final Document fields ) {
+        Document doc = new Document( );
+        for ( int i = 0; i < fields.size( ); i++ ) {
+            String name = fields.name( i );
+            if ( name.equals( NinesStatementHandler.TEXT_FILE ) == false ) {
+                doc.set( name, fields.values( i ) );
+            }
+        }
+        doc.set( "has_full_text", "F" );
+        return doc;
+    }
+
+    // add a document to the pending payload. The payload is shared by all indexing
+    // workers, so the document and its text files are written on the worker's own
+    // thread and only the finished bytes are appended under the lock
+    private void addToPayload( final String uri, final Document fields ) {
+        long start = JSON_TIMER.start( );
+        JsonBatch doc = new JsonBatch( INITIAL_DOCUMENT_SIZE );
+        try {
+            docToJson( doc, fields, this.timeStamp );
+        } catch ( IOException e ) {
+            // index it as if it had no text, as when the text was read while parsing
+            List<String> textFiles = fields.get( NinesStatementHandler.TEXT_FILE );
+            for ( String path : textFiles ) {
+                this.errorReport.addError( new IndexerError( path, uri, "Unable to read full text: " + e.toString() ) );
+            }
+            doc = new JsonBatch( INITIAL_DOCUMENT_SIZE );
+            try {
+                docToJson( doc, withoutTextFiles( fields ), this.timeStamp );
+            } catch ( IOException impossible ) {
+                // no files are read
+                throw new IllegalStateException( impossible );
+            }
+        }
+        JSON_TIMER.stop( start );
+        synchronized ( this ) {
+            this.jsonPayload.addDocuments( doc );
+            flushIfEnough( );
+        }
+    }
+
+    private synchronized void addToPayload( final JsonObject json ) {
+        this.jsonPayload.addDocument( json, this.gson );
+        flushIfEnough( );
+    }
+
+    private JsonBatch newBatch( ) {
+        return new JsonBatch( (int) Math.min( config.maxUploadSize, INITIAL_BATCH_SIZE ) );
     }
 
     private void flushIfEnough( ) {
-        if ( this.jsonPayload.toString().length( ) >= config.maxUploadSize ) flushPending( );
+        if ( this.jsonPayload.size( ) >= config.maxUploadSize ) flushPending( );
     }
 
-    private void flush( ) {
-        if ( this.jsonPayload.size( ) > 0 ) flushPending( );
+    private synchronized void flush( ) {
+        if ( this.jsonPayload.isEmpty( ) == false ) flushPending( );
     }
 
     // flush pending data to SOLR
     private void flushPending( ) {
-        this.asyncPoster.asyncPost( this.solrClient, config.coreName( ), this.jsonPayload.toString( ) );
-        this.jsonPayload = new JsonArray( );
-        this.postCount++;
-        if( postCount % 5 == 0 ) {
-            this.asyncPoster.asyncCommit( this.solrClient, config.coreName( ) );
+        this.jsonPayload.finish( );
+        AsyncPoster.PostListener listener = null;
+        if ( this.checkpoint != null ) {
+            final long sequence = this.checkpoint.batchQueued( );
+            listener = new AsyncPoster.PostListener( ) {
+                public void posted( final JsonBatch payload ) {
+                    try {
+                        checkpoint.batchPosted( sequence, payload.getCompletedFiles( ) );
+                    } catch ( IOException e ) {
+                        log.error( "Unable to update checkpoint: " + e.getMessage( ) );
+                    }
+                }
+            };
+        }
+        this.asyncPoster.asyncPost( this.solrClient, config.coreName( ), this.jsonPayload, listener );
+        CommitPolicy.Commit commit = this.commitPolicy.afterPost( this.jsonPayload.getDocumentCount( ) );
+        this.jsonPayload = newBatch( );
+        if ( commit != CommitPolicy.Commit.NONE ) {
+            this.asyncPoster.asyncCommit( this.solrClient, config.coreName( ), commit == CommitPolicy.Commit.SOFT );
         }
     }
 }
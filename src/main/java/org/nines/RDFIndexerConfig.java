@@ -45,18 +45,35 @@ public class RDFIndexerConfig {
     public File sourceDir;
     public String archiveName;
     public String solrBaseURL = "http://localhost:8983/solr";
+    public int maxConnections = SolrClient.DEFAULT_MAX_CONNECTIONS; // pooled keep-alive connections to solr
+    public int connectTimeout = SolrClient.HTTP_CLIENT_TIMEOUT;     // millis to wait for a solr connection
+    public int readTimeout = SolrClient.DEFAULT_SOCKET_TIMEOUT;      // millis a solr read may block
+    public int retries = RetryPolicy.DEFAULT_RETRIES;               // retries of a failed solr request
     public Mode mode = Mode.NONE;
     public String defaultEncoding = "UTF-8";
     public String customCleanClass = "";
     
-    // corrected text map: URI -> filename
-    public Map<String,String> correctedTextMap =  new HashMap<String,String>();
-    public File correctedTextDir = null;
+    // corrected text lookup: URI -> file. Set up when indexing starts
+    CorrectedTextIndex correctedText = new CorrectedTextIndex(null, null);
+
+    // saved parses of unchanged files. Set up when indexing starts if parseCacheDir is set
+    ParseCache parseCache = null;
 
     // indexing properties
     public boolean collectLinks = true;
     public boolean deleteAll = false;
-    public long maxUploadSize = 10000000; // 10m of characters
+    public boolean incremental = false;   // only index files changed since the last run
+    public boolean resume = false;        // skip files finished by an interrupted run
+    public long maxUploadSize = 10000000; // 10m bytes of JSON per post
+    public int numThreads = 1;            // number of files parsed concurrently
+    public int scanThreads = 1;           // number of threads listing source directories
+    public boolean compressRequests = false; // gzip update request bodies
+    public int postThreads = 1;                // number of concurrent posts to solr
+    public int maxPendingPosts = 4;            // posts queued or in flight before indexing blocks
+    public long maxPendingBytes = 40000000;    // payload bytes queued or in flight before indexing blocks
+    public String commitPolicy = CommitPolicy.DEFAULT; // when to commit while indexing, see CommitPolicy
+    public File parseCacheDir = null;          // keep parsed files here and reuse them while unchanged
+    public long parseCacheSize = 1000000000L;  // 1g bytes of parse cache before old entries are removed
 
     // comparison properties
     public String ignoreFields = "";
@@ -72,7 +89,7 @@ public class RDFIndexerConfig {
     }
 
     // all of the solr instance fields. Text is the last field
-    private static final ArrayList<String> ALL_FIELDS = new ArrayList<String>( Arrays.asList( "uri", "archive",
+    static final ArrayList<String> ALL_FIELDS = new ArrayList<String>( Arrays.asList( "uri", "archive",
             "date_label", "genre", "source", "image", "thumbnail", "title", "alternative", "url", "role_ART", "role_AUT",
             "role_BRD", "role_CNG", "role_CND", "role_DRT", "role_IVR", "role_IVE", "role_OWN", "role_FMO", "role_PRF", "role_PRO", "role_PRN",
             "role_EDT", "role_PBL", "role_TRL", "role_EGR", "role_ETR", "role_CRE", "freeculture", "is_ocr", "federation",
@@ -154,7 +154,7 @@ final class RawTextCleaner {
             
             // setup encoders to translate the data. IF bad chars
             // are encountered, replace them with 0xFFFD (uunkown utf-8 symbol)
-            Charset utf8cs = Charset.availableCharsets().get("UTF-8");
+            Charset utf8cs = Charset.forName("UTF-8");
             CharsetEncoder utf8en = utf8cs.newEncoder();
             utf8en.onMalformedInput(CodingErrorAction.REPLACE);
             utf8en.onUnmappableCharacter(CodingErrorAction.REPLACE);
@@ -246,7 +246,7 @@ final class RawTextCleaner {
      * @param fullText
      * @return
      */
-    private String cleanText( String fullText ) {
+    String cleanText( String fullText ) {
 
         // remove everything between <head>...</head>
         fullText = removeTag(fullText, "head");
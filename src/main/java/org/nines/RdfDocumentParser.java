@@ -15,130 +15,336 @@
  **/
 package org.nines;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.StringReader;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CodingErrorAction;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.log4j.Logger;
 import org.openrdf.rio.ParseErrorListener;
+import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.nquads.NQuadsParser;
 import org.openrdf.rio.rdfxml.RDFXMLParser;
+import org.openrdf.rio.turtle.TurtleParser;
 
 public class RdfDocumentParser {
-    private static long largestTextSize = 0;
+
+    // largest text size seen by the most recent parse on the calling thread. Files
+    // may be parsed concurrently, so each thread keeps its own value
+    private static final ThreadLocal<Long> largestTextSize = new ThreadLocal<Long>() {
+        @Override
+        protected Long initialValue() {
+            return 0L;
+        }
+    };
+    // the parser and handler of the calling thread, reused from file to file
+    private static final ThreadLocal<Session> sessions = new ThreadLocal<Session>();
     public final static Logger log = Logger.getLogger(RdfDocumentParser.class.getName());
+    private static final Metrics.Timer READ_TIMER = Metrics.timer("rdf.read");
+    private static final Metrics.Timer PARSE_TIMER = Metrics.timer("rdf.parse");
+    private static final Metrics.Counter BYTES_READ = Metrics.counter("rdf.bytes");
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Map<String, RDFFormat> FORMATS = new HashMap<String, RDFFormat>();
+    static {
+        FORMATS.put("rdf", RDFFormat.RDFXML);
+        FORMATS.put("xml", RDFFormat.RDFXML);
+        FORMATS.put("owl", RDFFormat.RDFXML);
+        FORMATS.put("nt", RDFFormat.NTRIPLES);
+        FORMATS.put("ttl", RDFFormat.TURTLE);
+        FORMATS.put("nq", RDFFormat.NQUADS);
+    }
+
+    /**
+     * @return The RDF format of a file going by its extension: RDF/XML
+     *         (<code>.rdf</code>, <code>.xml</code>, <code>.owl</code>),
+     *         N-Triples (<code>.nt</code>), Turtle (<code>.ttl</code>) or
+     *         N-Quads (<code>.nq</code>). Anything else is taken to be RDF/XML.
+     */
+    public static RDFFormat formatOf(final String fileName) {
+        RDFFormat format = FORMATS.get(extension(fileName));
+        return format == null ? RDFFormat.RDFXML : format;
+    }
+
+    /**
+     * @return True if the file has the extension of one of the RDF formats read
+     */
+    public static boolean isRdfFile(final String fileName) {
+        return FORMATS.containsKey(extension(fileName));
+    }
+
+    /**
+     * @return A parser for <code>format</code>, set to check the data and to
+     *         carry on past errors. N-Triples gets the line based
+     *         NTriplesLineParser.
+     */
+    static RDFParser newParser(final RDFFormat format) {
+        RDFParser parser;
+        if (format == RDFFormat.NTRIPLES) {
+            parser = new NTriplesLineParser();
+        } else if (format == RDFFormat.TURTLE) {
+            parser = new TurtleParser();
+        } else if (format == RDFFormat.NQUADS) {
+            parser = new NQuadsParser();
+        } else {
+            parser = new RDFXMLParser();
+        }
+        parser.setVerifyData(true);
+        parser.setStopAtFirstError(false);
+        return parser;
+    }
+
+    private static String extension(final String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot == -1 ? "" : fileName.substring(dot + 1).toLowerCase();
+    }
 
     public static long getLargestTextSize() {
-        return largestTextSize;
+        return largestTextSize.get();
     }
 
-    public static HashMap<String, HashMap<String, ArrayList<String>>> parse(final File file, ErrorReport errorReport,
+    /**
+     * Parse a file into a map from object URI to its fields
+     */
+    public static HashMap<String, Document> parse(final File file, ErrorReport errorReport,
             LinkCollector linkCollector, RDFIndexerConfig config) throws IOException {
+        final HashMap<String, Document> documents = new HashMap<String, Document>();
+        parse(file, errorReport, linkCollector, config, new DocumentSink() {
+            public void document(String uri, Document document) {
+                documents.put(uri, document);
+            }
+        });
+        return documents;
+    }
 
-        largestTextSize = 0;
-        RDFXMLParser parser = new RDFXMLParser();
-        NinesStatementHandler statementHandler = new NinesStatementHandler(errorReport, linkCollector, config);
-        statementHandler.setFile(file);
+    /**
+     * Parse a file, passing each object to <code>sink</code> as soon as it is
+     * complete
+     *
+     * @return The number of objects found
+     */
+    public static int parse(final File file, ErrorReport errorReport, LinkCollector linkCollector,
+            RDFIndexerConfig config, final DocumentSink sink) throws IOException {
 
-        parser.setRDFHandler(statementHandler);
-        parser.setParseErrorListener( new ParseListener(file, errorReport));
-        parser.setVerifyData(true);
-        parser.setStopAtFirstError(false);
+        largestTextSize.set(0L);
 
-        // parse file
+        // an unchanged file is replayed from the parse cache
+        ParseCache cache = config.parseCache;
+        ParseCache.Recorder recorder = null;
+        if (cache != null) {
+            ParseCache.Entry entry = cache.get(file);
+            if (entry != null) {
+                largestTextSize.set(entry.getLargestTextSize());
+                return entry.replay(errorReport, linkCollector, sink);
+            }
+            recorder = cache.record(file);
+        }
+
+        Session session = sessions.get();
+        if (session == null || session.isFor(errorReport, linkCollector, config) == false) {
+            session = new Session(errorReport, linkCollector, config);
+            sessions.set(session);
+        }
+        session.reset(file, sink, recorder);
+        RDFParser parser = session.parserFor(formatOf(file.getName()));
+        NinesStatementHandler statementHandler = session.handler;
+        if (recorder != null) {
+            errorReport.startRecording(recorder);
+            linkCollector.startRecording(recorder);
+        }
         try {
-            
-            String content = validateContent(file, errorReport);
-            parser.parse( new StringReader(content), "http://foo/" + file.getName());
+            parse(file, errorReport, parser, statementHandler, recorder);
+        } finally {
+            if (recorder != null) {
+                errorReport.stopRecording();
+                linkCollector.stopRecording();
+            }
+        }
 
+        largestTextSize.set(statementHandler.getLargestTextSize());
+        if (recorder != null) {
+            cache.put(file, recorder, statementHandler.usesExternalText(), statementHandler.getLargestTextSize(),
+                session.count);
+        }
+        return session.count;
+    }
+
+    private static void parse(File file, ErrorReport errorReport, RDFParser parser,
+            NinesStatementHandler statementHandler, ParseCache.Recorder recorder) {
+
+        // parse file. The source is decoded and checked for bad escape sequences
+        // as the parser reads it, so the file is never held in memory
+        InputStream is = null;
+        EscapeCheckingReader reader = null;
+        try {
+
+            long start = READ_TIMER.start();
+            try {
+                InputStream in = new FileInputStream(file);
+                is = new BufferedInputStream(recorder == null ? in : recorder.wrap(in));
+            } finally {
+                READ_TIMER.stop(start);
+            }
+            reader = new EscapeCheckingReader(new InputStreamReader(is, newDecoder()));
+            BYTES_READ.add(file.length());
+
+            start = PARSE_TIMER.start();
+            try {
+                parser.parse(reader, "http://foo/" + file.getName());
+            } finally {
+                PARSE_TIMER.stop(start);
+            }
+
+        } catch (FileNotFoundException e) {
+            errorReport.addError(new IndexerError(file.getName(), "", "Error validating content: " + e.getMessage()));
         } catch (RDFParseException e) {
             errorReport.addError(new IndexerError(file.getName(), "", "Parse Error on Line " + e.getLineNumber() + ": "
                     + e.getMessage()));
         } catch (RDFHandlerException e) {
             errorReport.addError(new IndexerError(file.getName(), "", "StatementHandler Exception: " + e.getMessage()));
         } catch (Exception e) {
-            errorReport.addError(new IndexerError(file.getName(), "", "RDF Parser Error: " + e.getMessage()));
-            e.printStackTrace();
-        }
-
-        // retrieve parsed data
-        HashMap<String, HashMap<String, ArrayList<String>>> docHash = statementHandler.getDocuments( config.isPagesArchive() );
-
-        // process tags
-        Collection<HashMap<String, ArrayList<String>>> documents = docHash.values();
-        for (HashMap<String, ArrayList<String>> document : documents) {
-
-            // normalize tags, replace spaces with dashes, lowercase
-            ArrayList<String> tags = document.remove("tag");
-            if (tags != null) {
-                for (int i = 0; i < tags.size(); i++) {
-                    String tag = tags.get(i);
-                    tag = tag.toLowerCase();
-                    tag = tag.replaceAll(" ", "-");
-                    tags.set(i, tag);
-                }
-                // username is archive name
-                String archive = document.get("archive").get(0);
-                ArrayList<String> nameList = new ArrayList<String>();
-                nameList.add(archive);
-                document.put("username", nameList);
-                document.put(archive + "_tag", tags);
+            // a sink failure is passed on below, not blamed on the file
+            if (statementHandler.getFinishFailure() == null) {
+                errorReport.addError(new IndexerError(file.getName(), "", "RDF Parser Error: " + e.getMessage()));
+                e.printStackTrace();
             }
+        } finally {
+            if (reader != null) {
+                validateContent(file, reader, errorReport);
+            }
+            IOUtils.closeQuietly(is);
         }
 
-        largestTextSize = statementHandler.getLargestTextSize();
-        return docHash;
+        // a failure downstream is not a problem with the file; pass it on
+        if (statementHandler.getFinishFailure() != null) {
+            sessions.remove();
+            throw statementHandler.getFinishFailure();
+        }
+
+        // a parse error leaves the last object unfinished
+        statementHandler.finish();
     }
 
-    private static String validateContent(File file, ErrorReport errorReport) {
-        InputStreamReader is = null;
-        try {
-            Charset cs = Charset.availableCharsets().get("UTF-8");
-            CharsetDecoder decoder = cs.newDecoder();
-            decoder.onMalformedInput(CodingErrorAction.REPLACE);
-            decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
-            
-            is = new InputStreamReader(new FileInputStream(file), decoder);
-            String content = IOUtils.toString(is);
-
-            // look for unescaped sequences and flag them as trouble
-            String unescaped = StringEscapeUtils.unescapeXml(content);
-            int startPos = 0;
-            while ( true ) {
-              int pos = unescaped.indexOf("&#", startPos);
-              if (pos > -1) {
-                String snip = unescaped.substring(Math.max(0, pos-25), Math.min(unescaped.length(), pos+25));
-                IndexerError e = new IndexerError(file.getName(), "","Potentially Invalid Escape sequence.\n   Position: [" +
-                    pos + "]\n   Snippet: [" +
-                    snip + "]");
-                errorReport.addError(e);
-                startPos = pos+2;
-              } else {
-                break;
-              }
+    // normalize tags, replace spaces with dashes, lowercase
+    private static void processTags(Document document) {
+        List<String> tags = document.remove("tag");
+        if (tags != null) {
+            for (int i = 0; i < tags.size(); i++) {
+                String tag = tags.get(i);
+                tag = tag.toLowerCase();
+                tag = tag.replaceAll(" ", "-");
+                tags.set(i, tag);
             }
-            
-        
-            return content;
+            // username is archive name
+            String archive = document.getFirst("archive");
+            document.set("username", archive);
+            document.set(archive + "_tag", tags);
+        }
+    }
+
+    private static CharsetDecoder newDecoder() {
+        CharsetDecoder decoder = UTF8.newDecoder();
+        decoder.onMalformedInput(CodingErrorAction.REPLACE);
+        decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return decoder;
+    }
+
+    /**
+     * Check whatever the parser left unread and report any suspicious escape
+     * sequences found in the file
+     */
+    private static void validateContent(File file, EscapeCheckingReader reader, ErrorReport errorReport) {
+        long start = READ_TIMER.start();
+        try {
+            reader.drain();
         } catch (IOException e) {
             errorReport.addError(new IndexerError(file.getName(), "", "Error validating content: " + e.getMessage()));
         } finally {
-            IOUtils.closeQuietly(is);
+            READ_TIMER.stop(start);
+        }
+        for (String warning : reader.getWarnings()) {
+            errorReport.addError(new IndexerError(file.getName(), "", warning));
         }
-        return "";
     }
-    
+
+    /**
+     * A parser and statement handler set up for one error report, link
+     * collector and configuration. Each thread keeps its own and resets it for
+     * every file, so only the parse itself is paid per file.
+     */
+    private static final class Session implements DocumentSink {
+
+        private final ErrorReport errorReport;
+        private final LinkCollector linkCollector;
+        private final RDFIndexerConfig config;
+        private final Map<RDFFormat, RDFParser> parsers = new HashMap<RDFFormat, RDFParser>();
+        private final NinesStatementHandler handler;
+        private final ParseListener listener;
+        private DocumentSink sink;
+        private ParseCache.Recorder recorder;
+        private int count;
+
+        Session(ErrorReport errorReport, LinkCollector linkCollector, RDFIndexerConfig config) {
+            this.errorReport = errorReport;
+            this.linkCollector = linkCollector;
+            this.config = config;
+            this.handler = new NinesStatementHandler(errorReport, linkCollector, config);
+            this.listener = new ParseListener(null, errorReport);
+        }
+
+        RDFParser parserFor(RDFFormat format) {
+            RDFParser parser = this.parsers.get(format);
+            if (parser == null) {
+                parser = newParser(format);
+                parser.setRDFHandler(this.handler);
+                parser.setParseErrorListener(this.listener);
+                this.parsers.put(format, parser);
+            }
+            return parser;
+        }
+
+        boolean isFor(ErrorReport errorReport, LinkCollector linkCollector, RDFIndexerConfig config) {
+            return this.errorReport == errorReport && this.linkCollector == linkCollector && this.config == config;
+        }
+
+        void reset(File file, DocumentSink sink, ParseCache.Recorder recorder) {
+            this.sink = sink;
+            this.recorder = recorder;
+            this.count = 0;
+            this.listener.file = file;
+            this.handler.reset(file);
+            this.handler.setDocumentSink(this);
+        }
+
+        public void document(String uri, Document document) {
+            processTags(document);
+            this.count++;
+            if (this.recorder == null) {
+                this.sink.document(uri, document);
+                return;
+            }
+            this.recorder.document(uri, document);
+            this.recorder.setPaused(true);
+            try {
+                this.sink.document(uri, document);
+            } finally {
+                this.recorder.setPaused(false);
+            }
+        }
+    }
+
     private static final class ParseListener implements ParseErrorListener {
 
         private ErrorReport errorReport;
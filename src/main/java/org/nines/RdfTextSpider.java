@@ -32,7 +32,7 @@ import org.openrdf.rio.ParseErrorListener;
 import org.openrdf.rio.RDFHandler;
 import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.RDFParseException;
-import org.openrdf.rio.rdfxml.RDFXMLParser;
+import org.openrdf.rio.RDFParser;
 
 /**
  * RDF document parser that only handles full text fields. It will
@@ -61,11 +61,9 @@ final class RdfTextSpider implements RDFHandler {
      * @param file
      */
     public void spider( final File file ) {
-        RDFXMLParser parser = new RDFXMLParser();
+        RDFParser parser = RdfDocumentParser.newParser( RdfDocumentParser.formatOf( file.getName() ) );
         parser.setRDFHandler( this );
         parser.setParseErrorListener( new ParseListener(file, errorReport));
-        parser.setVerifyData(true);
-        parser.setStopAtFirstError(false);
 
         try {
             
@@ -0,0 +1,95 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.util.Random;
+
+/**
+ * Decides whether SolrClient tries a failed request again, and how long it
+ * waits first.
+ *
+ * Connection failures and the statuses SOLR or a proxy in front of it give
+ * while overloaded or restarting (408, 429, 500, 502, 503 and 504) are
+ * retried. Any other status means the request itself is bad and it fails at
+ * once. The wait doubles with every attempt up to a maximum, and each wait
+ * is picked at random from its upper half so that clients that failed
+ * together do not all come back together.
+ */
+final class RetryPolicy {
+
+    public static final int DEFAULT_RETRIES = 5;
+    public static final long DEFAULT_DELAY = 1000;
+    public static final long DEFAULT_MAX_DELAY = 60 * 1000;
+
+    private final int retries;
+    private final long delayMillis;
+    private final long maxDelayMillis;
+    private final Random random = new Random();
+
+    public RetryPolicy() {
+        this(DEFAULT_RETRIES, DEFAULT_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * @param retries How many times a request is tried again after it first fails
+     * @param delayMillis Wait before the first retry
+     * @param maxDelayMillis Longest wait between two attempts
+     */
+    public RetryPolicy(final int retries, final long delayMillis, final long maxDelayMillis) {
+        this.retries = Math.max(0, retries);
+        this.delayMillis = Math.max(1, delayMillis);
+        this.maxDelayMillis = Math.max(this.delayMillis, maxDelayMillis);
+    }
+
+    public int getRetries() {
+        return this.retries;
+    }
+
+    /**
+     * @param status HTTP status of a failed request
+     * @return True if the same request may succeed when tried again
+     */
+    public boolean isRetryable(final int status) {
+        switch (status) {
+            case 408:
+            case 429:
+            case 500:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param attempt Number of the attempt that failed, from 0
+     * @param retryAfterMillis Wait SOLR asked for with Retry-After, or 0
+     * @return Milliseconds to wait before the next attempt
+     */
+    public long delay(final int attempt, final long retryAfterMillis) {
+        long ceiling = this.delayMillis << Math.min(attempt, 30);
+        ceiling = Math.min(ceiling, this.maxDelayMillis);
+        long half = ceiling / 2;
+        long wait = half + (long) (this.random.nextDouble() * (ceiling - half + 1));
+        return Math.max(wait, Math.min(retryAfterMillis, this.maxDelayMillis));
+    }
+
+    public String toString() {
+        return this.retries + " retries, " + this.delayMillis + " to " + this.maxDelayMillis + " ms apart";
+    }
+}
@@ -2,53 +2,161 @@ package org.nines;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collection;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HostConfiguration;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
-import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
 import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.log4j.Logger;
 
+import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
+/**
+ * Talks to SOLR over a single HttpClient. All requests share one pool of
+ * keep-alive connections, ask for gzipped responses and, when enabled, send
+ * gzipped update bodies. Connection, socket and pool wait timeouts are set
+ * separately, and connection reuse is counted in the run metrics.
+ * 
+ * Failed requests are retried as the {@link RetryPolicy} allows, and a
+ * {@link CircuitBreaker} holds every request back while SOLR is down.
+ * Failures that remain are thrown to the caller.
+ */
 public final class SolrClient {
     
     private String baseUrl;
     private Logger log;
-    private MultiThreadedHttpConnectionManager mgr;
+    private final MultiThreadedHttpConnectionManager mgr;
+    private final HttpClient httpClient;
+    private boolean compressRequests = false;
+    private int commitWithin = 0;
+    private RetryPolicy retryPolicy = new RetryPolicy( );
+    private CircuitBreaker breaker = new CircuitBreaker( );
 
-    private static final int SOLR_REQUEST_NUM_RETRIES = 5;
-    private static final int SOLR_REQUEST_RETRY_INTERVAL = 30 * 1000;
     public static final int HTTP_CLIENT_TIMEOUT = 2 * 60 * 1000; 
+    public static final int DEFAULT_MAX_CONNECTIONS = 5;
+    public static final int DEFAULT_SOCKET_TIMEOUT = 10 * 60 * 1000;
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    private static final int DELETE_BATCH_SIZE = 1000;
+    private static final Metrics.Timer UPDATE_TIMER = Metrics.timer( "solr.update" );
+    private static final Metrics.Timer QUERY_TIMER = Metrics.timer( "solr.query" );
+    private static final Metrics.Timer COMMIT_TIMER = Metrics.timer( "solr.commit" );
+    private static final Metrics.Counter UPDATE_ERRORS = Metrics.counter( "solr.update.errors" );
+    private static final Metrics.Counter RETRIES = Metrics.counter( "solr.retries" );
+    private static final Metrics.Counter CONNECTIONS_OPENED = Metrics.counter( "solr.connections.opened" );
+    private static final Metrics.Counter CONNECTIONS_REUSED = Metrics.counter( "solr.connections.reused" );
+    private static final Metrics.Timer CONNECTION_WAIT = Metrics.timer( "solr.connection.wait" );
+    private static final Metrics.Counter BYTES_SENT = Metrics.counter( "solr.bytes.sent" );
+    private static final Metrics.Counter BYTES_RECEIVED = Metrics.counter( "solr.bytes.received" );
+    private static final TypeAdapter<JsonElement> ELEMENTS = new Gson( ).getAdapter( JsonElement.class );
+    private static final String TEXT_FIELD = "text";
+    
+    /** Text limit that reads the text field whole */
+    public static final int TEXT_ALL = -1;
+    /** Text limit that leaves the text field out of the documents read */
+    public static final int TEXT_SKIP = 0;
+    
+    private static final Pattern UPDATE_STATUS =
+        Pattern.compile( "status=\\\"(\\d*)\\\">(.*)\\<\\/result\\>", Pattern.DOTALL );
     
     public SolrClient(final String baseUrl) {
         
         this.baseUrl = baseUrl;
         this.log = Logger.getLogger(RDFIndexer.class.getName());
-        this.mgr = new MultiThreadedHttpConnectionManager( );
-        mgr.getParams( ).setDefaultMaxConnectionsPerHost( 5 );
-        mgr.getParams( ).setMaxTotalConnections( 5 );
-        mgr.getParams( ).setConnectionTimeout( HTTP_CLIENT_TIMEOUT );
+        this.mgr = new MeteredConnectionManager( );
         mgr.getParams( ).setIntParameter( HttpMethodParams.BUFFER_WARN_TRIGGER_LIMIT, 10000 * 1024 );
+        mgr.getParams( ).setStaleCheckingEnabled( true );
+        this.httpClient = new HttpClient( mgr );
+        setMaxConnections( DEFAULT_MAX_CONNECTIONS );
+        setTimeouts( HTTP_CLIENT_TIMEOUT, DEFAULT_SOCKET_TIMEOUT );
     }
-    
-    private HttpClient newHttpClient( ) {
-        //mgr.deleteClosedConnections( );
-        return( new HttpClient( mgr ) );
+
+    /**
+     * Set the size of the connection pool. Posts and queries beyond it wait for
+     * a connection to be released.
+     * 
+     * @param max
+     */
+    public void setMaxConnections( final int max ) {
+        mgr.getParams( ).setDefaultMaxConnectionsPerHost( max );
+        mgr.getParams( ).setMaxTotalConnections( max );
+    }
+
+    /**
+     * @param connectMillis How long to wait for a connection to be set up
+     * @param socketMillis How long a read may block, and how long to wait for a
+     *        pooled connection to be free. 0 waits forever.
+     */
+    public void setTimeouts( final int connectMillis, final int socketMillis ) {
+        mgr.getParams( ).setConnectionTimeout( connectMillis );
+        mgr.getParams( ).setSoTimeout( socketMillis );
+        this.httpClient.getParams( ).setConnectionManagerTimeout( socketMillis );
+    }
+
+    /**
+     * Set how failed requests are retried
+     * 
+     * @param policy
+     */
+    void setRetryPolicy( final RetryPolicy policy ) {
+        this.retryPolicy = policy;
+    }
+
+    /**
+     * Set the circuit breaker that holds requests back while SOLR is down
+     * 
+     * @param breaker
+     */
+    void setCircuitBreaker( final CircuitBreaker breaker ) {
+        this.breaker = breaker;
+    }
+
+    /**
+     * Block while SOLR is known to be down and its cooldown has not passed.
+     * Lets the producers of new requests pause along with the requests
+     * already waiting.
+     */
+    public void awaitAvailable( ) throws InterruptedException {
+        this.breaker.awaitCooldown( );
+    }
+
+    /**
+     * Release idle pooled connections
+     */
+    public void shutdown( ) {
+        this.mgr.shutdown( );
     }
     
     /**
@@ -85,35 +193,104 @@ public final class SolrClient {
         }
     }
     
+    // send a request, retrying it as the retry policy allows. Every attempt first
+    // passes the circuit breaker, and reports to it whether SOLR could answer
     private final void execRequest( HttpMethod request ) throws IOException {
         
-        HttpClient httpClient = newHttpClient();
-        int responseCode;
-        int solrRequestNumRetries = SOLR_REQUEST_NUM_RETRIES;
-        do {
-            responseCode = httpClient.executeMethod(request);
-
-            if (responseCode != 200) {
+        request.setRequestHeader( "Accept-Encoding", "gzip" );
+        boolean repeatable = isRepeatable( request );
+        for ( int attempt = 0; ; attempt++ ) {
+            this.breaker.acquire( );
+            boolean reported = false;
+            String failure = null;
+            long retryAfter = 0;
+            try {
+                int responseCode;
                 try {
-                    Thread.sleep(SOLR_REQUEST_RETRY_INTERVAL);
-                    log.info(">>>> SOLR request "+request.getURI( ).toString( )+" FAILED : "
-                        + responseCode + " (retrying...)");
-                } catch (InterruptedException e) {}
-            } else {
-                if (solrRequestNumRetries != SOLR_REQUEST_NUM_RETRIES) {
-                    log.info(">>>> SOLR request "+request.getURI( ).toString( )+":  (succeeded!)");
+                    responseCode = this.httpClient.executeMethod( request );
+                } catch ( ConnectionPoolTimeoutException e ) {
+                    // our own pool is busy; that says nothing about SOLR
+                    this.breaker.cancel( );
+                    reported = true;
+                    throw e;
+                } catch ( IOException e ) {
+                    this.breaker.failure( );
+                    reported = true;
+                    if ( repeatable == false || attempt >= this.retryPolicy.getRetries( ) ) {
+                        throw e;
+                    }
+                    failure = e.toString( );
+                    responseCode = -1;
+                }
+
+                if ( responseCode == 200 ) {
+                    this.breaker.success( );
+                    reported = true;
+                    if ( attempt > 0 ) {
+                        log.info( ">>>> SOLR request " + request.getURI( ).toString( ) + ":  (succeeded!)" );
+                    }
+                    return;
+                }
+                if ( responseCode != -1 ) {
+                    boolean retryable = this.retryPolicy.isRetryable( responseCode );
+                    if ( retryable ) {
+                        this.breaker.failure( );
+                    } else {
+                        // SOLR is up, it just refused this request
+                        this.breaker.success( );
+                    }
+                    reported = true;
+                    if ( retryable == false || repeatable == false || attempt >= this.retryPolicy.getRetries( ) ) {
+                        throw new IOException( "Non-OK response: " + responseCode + "\n\n" + getResponseString( request ) );
+                    }
+                    failure = String.valueOf( responseCode );
+                    retryAfter = getRetryAfter( request );
+                }
+            } finally {
+                if ( reported == false ) {
+                    this.breaker.failure( );
                 }
             }
-            solrRequestNumRetries--;
-        } while (responseCode != 200 && solrRequestNumRetries > 0);
-        
-        if (responseCode != 200) {
-            throw new IOException("Non-OK response: " + responseCode + "\n\n" + request.getResponseBodyAsString() );
+
+            // give the connection back while waiting
+            request.releaseConnection( );
+            long delay = this.retryPolicy.delay( attempt, retryAfter );
+            RETRIES.inc( );
+            log.info( ">>>> SOLR request " + request.getURI( ).toString( ) + " FAILED : " + failure
+                + " (retrying in " + delay + " ms...)" );
+            try {
+                Thread.sleep( delay );
+            } catch ( InterruptedException e ) {
+                Thread.currentThread( ).interrupt( );
+                throw new InterruptedIOException( "Interrupted while waiting to retry SOLR request" );
+            }
+        }
+    }
+
+    // the wait asked for by a Retry-After header in seconds, in millis. 0 if there is none
+    private static long getRetryAfter( final HttpMethod request ) {
+        Header header = request.getResponseHeader( "Retry-After" );
+        if ( header != null ) {
+            try {
+                return Math.max( 0, Long.parseLong( header.getValue( ).trim( ) ) * 1000 );
+            } catch ( NumberFormatException e ) {
+                // an HTTP date; the backoff will do
+            }
+        }
+        return 0;
+    }
+    
+    // a streamed request body can only be sent once
+    private boolean isRepeatable( final HttpMethod request ) {
+        if ( request instanceof EntityEnclosingMethod ) {
+            RequestEntity entity = ((EntityEnclosingMethod) request).getRequestEntity( );
+            return entity == null || entity.isRepeatable( );
         }
+        return true;
     }
     
     private final String getResponseString(HttpMethod httpMethod) throws IOException {
-        InputStream is = httpMethod.getResponseBodyAsStream( );
+        InputStream is = getResponseStream( httpMethod );
         if( is != null ) {
             String s = IOUtils.toString( is, "UTF-8" );
             is.close();
@@ -121,12 +298,63 @@ public final class SolrClient {
         }
         return( "" );
     }
+
+    // the response body, unzipped if SOLR gzipped it
+    private final InputStream getResponseStream( HttpMethod httpMethod ) throws IOException {
+        InputStream is = httpMethod.getResponseBodyAsStream( );
+        if ( is == null ) {
+            return null;
+        }
+        is = new MeteredInputStream( is );
+        Header encoding = httpMethod.getResponseHeader( "Content-Encoding" );
+        if ( encoding != null && encoding.getValue( ).toLowerCase( ).indexOf( "gzip" ) != -1 ) {
+            is = new GZIPInputStream( is, GZIP_BUFFER_SIZE );
+        }
+        return is;
+    }
     
+    /**
+     * Get one page of the documents of an archive, by offset. Each page costs
+     * SOLR more the deeper it is; use {@link #getResults} to read through a
+     * whole result set.
+     */
     public final List<JsonObject> getResultsPage( final String core, final String archive,
         final int page, final int pageSize, final String fields, final List<String> andConstraints, final List<String> orConstraints )  {
+        return getResultsPage( core, archive, page, pageSize, fields, andConstraints, orConstraints, TEXT_ALL );
+    }
 
-        ArrayList<JsonObject> result = new ArrayList<JsonObject>();
-        GetMethod get;
+    /**
+     * Get one page of documents, reading at most <code>textLimit</code>
+     * characters of each text field.
+     * 
+     * @param textLimit {@link #TEXT_ALL}, {@link #TEXT_SKIP} or the number of
+     *        characters to keep
+     */
+    public final List<JsonObject> getResultsPage( final String core, final String archive,
+        final int page, final int pageSize, final String fields, final List<String> andConstraints,
+        final List<String> orConstraints, final int textLimit )  {
+
+        DocumentList docs = new DocumentList( );
+        String query = buildQuery( core, archive, fields, andConstraints, orConstraints );
+        if ( query != null ) {
+            query( query + "&start=" + (page * pageSize) + "&rows=" + pageSize, textLimit, docs );
+        }
+        return docs.docs;
+    }
+
+    /**
+     * Read through all documents of an archive that match the constraints, a
+     * page at a time, in uri order. SOLR keeps its place with a cursorMark, so
+     * every page costs the same however deep it is.
+     */
+    public final ResultCursor getResults( final String core, final String archive, final int pageSize,
+        final String fields, final List<String> andConstraints, final List<String> orConstraints ) {
+        return new ResultCursor( buildQuery( core, archive, fields, andConstraints, orConstraints ), pageSize );
+    }
+
+    // the select URL for a query, without paging. Null if it cannot be encoded
+    private String buildQuery( final String core, final String archive, final String fields,
+        final List<String> andConstraints, final List<String> orConstraints ) {
 
         // never request the _version_ field
         String filtered_fields = fields.replace("_version_", "");
@@ -135,7 +363,6 @@ public final class SolrClient {
         try {
             String a = URLEncoder.encode("\"" + archive + "\"", "UTF-8");
             String query = this.baseUrl + "/" + core + "/select/?q=archive:" + a;
-            query += "&start=" + (page * pageSize) + "&rows=" + pageSize;
             query += "&fl=" + filtered_fields;
             query += "&sort=uri+asc";
             query += "&wt=json";
@@ -163,43 +390,223 @@ public final class SolrClient {
             if( constraints.isEmpty( ) == false ) query += "&fq=" + constraints;
 
             //System.out.println("*** SOLR QUERY: " + query );
-
-            get = new GetMethod(query);
+            return query;
         } catch (UnsupportedEncodingException e) {
             this.log.error("Unable to create SOLR request query", e);
-            return result;
+            return null;
         }
+    }
 
-        // execute the query
+    // run a select query, handing each document over as it is read. Failures
+    // are logged and give null; documents read before a failure are kept
+    private Response query( final String query, final int textLimit, final ResultHandler handler ) {
+        GetMethod get = new GetMethod( query );
+        long start = QUERY_TIMER.start( );
         try {
-            execRequest(get);
+            execRequest( get );
+            InputStream is = getResponseStream( get );
+            if ( is == null ) {
+                throw new IOException( "Empty response" );
+            }
+            try {
+                return readResponse( new InputStreamReader( is, UTF8 ), textLimit, handler );
+            } finally {
+                is.close( );
+            }
         } catch (IOException e) {
             this.log.error("SOLR request failed", e);
-            get.releaseConnection();
-            return result;
-        }
-
-        // read the result into an array of JSON objects
-        try  {
-            JsonParser parser = new JsonParser();
-            String res = getResponseString( get );
-            JsonElement parsed = parser.parse( res );
-            JsonObject data = parsed.getAsJsonObject();
-            JsonObject re = data.get( "response" ).getAsJsonObject();
-            JsonElement de = re.get( "docs" );
-            JsonArray docs = de.getAsJsonArray();
-            Iterator<JsonElement> i = docs.iterator();
-            while( i.hasNext() ) {
-                result.add( i.next().getAsJsonObject() );
-            }
-        } catch (IOException e ) {
-            this.log.error("Unable to read SOLR response", e);
+            return null;
         } finally {
             get.releaseConnection( );
+            QUERY_TIMER.stop( start );
         }
-        return result;
     }
-    
+
+    /**
+     * Read a JSON select response, passing each document of response.docs
+     * to the handler as soon as it has been read. Only one document is held
+     * at a time, and with a text limit the text field is skipped over or cut
+     * short before it goes into the document.
+     */
+    static Response readResponse( final Reader in, final int textLimit, final ResultHandler handler )
+        throws IOException {
+        Response response = new Response( );
+        JsonReader reader = new JsonReader( in );
+        reader.beginObject( );
+        while ( reader.hasNext( ) ) {
+            String name = reader.nextName( );
+            if ( name.equals( "response" ) ) {
+                reader.beginObject( );
+                while ( reader.hasNext( ) ) {
+                    if ( reader.nextName( ).equals( "docs" ) ) {
+                        reader.beginArray( );
+                        while ( reader.hasNext( ) ) {
+                            handler.document( readDocument( reader, textLimit ) );
+                            response.count++;
+                        }
+                        reader.endArray( );
+                    } else {
+                        reader.skipValue( );
+                    }
+                }
+                reader.endObject( );
+            } else if ( name.equals( "nextCursorMark" ) ) {
+                response.nextCursorMark = reader.nextString( );
+            } else {
+                reader.skipValue( );
+            }
+        }
+        reader.endObject( );
+        return response;
+    }
+
+    private static JsonObject readDocument( final JsonReader reader, final int textLimit ) throws IOException {
+        JsonObject doc = new JsonObject( );
+        reader.beginObject( );
+        while ( reader.hasNext( ) ) {
+            String name = reader.nextName( );
+            if ( textLimit == TEXT_ALL || name.equals( TEXT_FIELD ) == false ) {
+                doc.add( name, ELEMENTS.read( reader ) );
+            } else if ( textLimit == TEXT_SKIP ) {
+                // skipping does not build the string at all
+                reader.skipValue( );
+            } else {
+                doc.add( name, readText( reader, textLimit ) );
+            }
+        }
+        reader.endObject( );
+        return doc;
+    }
+
+    // a text value, or each value of a multi-valued text field, cut to textLimit characters
+    private static JsonElement readText( final JsonReader reader, final int textLimit ) throws IOException {
+        if ( reader.peek( ) == JsonToken.STRING ) {
+            String text = reader.nextString( );
+            return new JsonPrimitive( text.length( ) > textLimit ? text.substring( 0, textLimit ) : text );
+        }
+        if ( reader.peek( ) == JsonToken.BEGIN_ARRAY ) {
+            JsonArray values = new JsonArray( );
+            reader.beginArray( );
+            while ( reader.hasNext( ) ) {
+                values.add( readText( reader, textLimit ) );
+            }
+            reader.endArray( );
+            return values;
+        }
+        return ELEMENTS.read( reader );
+    }
+
+    /**
+     * Receives the documents of a result page one at a time, while the
+     * response is still being read.
+     */
+    public interface ResultHandler {
+        void document( JsonObject doc );
+    }
+
+    // collects a page into a list, for callers that want the page whole
+    private static final class DocumentList implements ResultHandler {
+        private final List<JsonObject> docs = new ArrayList<JsonObject>( );
+
+        public void document( JsonObject doc ) {
+            this.docs.add( doc );
+        }
+    }
+
+    // what a select response held besides its documents
+    static final class Response {
+        int count;
+        String nextCursorMark;
+    }
+
+    /**
+     * Pages through a result set with SOLR's cursorMark. A SOLR too old for
+     * cursors ignores the mark and sends no next one; the cursor then carries
+     * on by offset. A failed request ends the results, as it does for
+     * getResultsPage.
+     */
+    public final class ResultCursor {
+        private final String query;
+        private final int pageSize;
+        private String cursorMark = "*";
+        private int offset = -1;
+        private int textLimit = TEXT_ALL;
+        private boolean done;
+
+        private ResultCursor( final String query, final int pageSize ) {
+            this.query = query;
+            this.pageSize = pageSize;
+            this.done = ( query == null );
+        }
+
+        public boolean hasMore( ) {
+            return this.done == false;
+        }
+
+        /**
+         * @return True once SOLR turned out not to support cursors. Pages are
+         *         then read by offset, and documents updated and committed
+         *         while reading can move from one page to another.
+         */
+        public boolean isPagingByOffset( ) {
+            return this.offset >= 0;
+        }
+
+        /**
+         * @param textLimit {@link #TEXT_ALL}, {@link #TEXT_SKIP} or the number
+         *        of characters of each text field to keep
+         */
+        public void setTextLimit( final int textLimit ) {
+            this.textLimit = textLimit;
+        }
+
+        /**
+         * @return The next page; empty once all documents have been read
+         */
+        public List<JsonObject> nextPage( ) {
+            DocumentList docs = new DocumentList( );
+            nextPage( docs );
+            return docs.docs;
+        }
+
+        /**
+         * Read the next page, passing each document to the handler as it
+         * arrives rather than collecting the page first.
+         * 
+         * @return The number of documents read; 0 once all have been read
+         */
+        public int nextPage( final ResultHandler handler ) {
+            if ( this.done ) {
+                return 0;
+            }
+            String url = this.query + "&rows=" + this.pageSize;
+            try {
+                if ( this.offset >= 0 ) {
+                    url += "&start=" + this.offset;
+                } else {
+                    url += "&cursorMark=" + URLEncoder.encode( this.cursorMark, "UTF-8" );
+                }
+            } catch (UnsupportedEncodingException e) {
+                // UTF-8 is always there
+                throw new IllegalStateException( e );
+            }
+
+            Response response = query( url, this.textLimit, handler );
+            if ( response == null || response.count < this.pageSize ) {
+                this.done = true;
+            } else if ( this.offset >= 0 ) {
+                this.offset += response.count;
+            } else if ( response.nextCursorMark == null ) {
+                log.info( "SOLR did not return a cursor mark; paging by offset" );
+                this.offset = response.count;
+            } else {
+                this.done = response.nextCursorMark.equals( this.cursorMark );
+                this.cursorMark = response.nextCursorMark;
+            }
+            return ( response == null ) ? 0 : response.count;
+        }
+    }
+
     /**
      * Post the JSON payload to the specified SOLR archive
      * 
@@ -208,39 +615,287 @@ public final class SolrClient {
      * @throws IOException
      */
     public void postJSON(String json, String archive) throws IOException {
+        post( archive, new BytesPayload( json.getBytes( UTF8 ) ), "REQUEST: " + json );
+    }
+
+    /**
+     * Post a finished batch of documents to the specified SOLR archive. The
+     * batch buffer is written straight to the connection.
+     * 
+     * @param batch
+     * @param archive
+     * @throws IOException
+     */
+    public void postJSON(final JsonBatch batch, String archive) throws IOException {
+        post( archive, batch, "REQUEST: batch of " + batch.getDocumentCount() + " documents, " + batch.size() + " bytes" );
+    }
+
+    /**
+     * Post JSON produced on demand to the specified SOLR archive. The producer writes
+     * directly onto the socket using chunked transfer encoding, so the request body
+     * never has to be held in memory. The producer may be asked to write more than
+     * once if the request is retried.
+     * 
+     * @param producer
+     * @param archive
+     * @throws IOException
+     */
+    public void postJSON(final Payload producer, String archive) throws IOException {
+        post( archive, producer, "REQUEST: streamed payload" );
+    }
 
-        PostMethod post = new PostMethod(this.baseUrl + "/" + archive + "/update/json");
-        post.setRequestEntity(new StringRequestEntity(json, "application/json", "utf-8"));
+    /**
+     * Post the JSON read from <code>json</code> to the specified SOLR archive. The
+     * stream is copied straight onto the socket using chunked transfer encoding.
+     * A stream can only be read once, so the request is not retried.
+     * 
+     * @param json
+     * @param archive
+     * @throws IOException
+     */
+    public void postJSON(final InputStream json, String archive) throws IOException {
+        post( archive, new StreamPayload( json ), "REQUEST: streamed payload" );
+    }
+
+    /**
+     * Gzip the body of update requests. SOLR must be configured to accept
+     * <code>Content-Encoding: gzip</code> request bodies.
+     * 
+     * @param compress
+     */
+    public void setCompressRequests( final boolean compress ) {
+        this.compressRequests = compress;
+    }
+
+    /**
+     * Ask SOLR to commit every update within <code>millis</code> milliseconds.
+     * 
+     * @param millis Commit deadline, 0 to leave commits to the caller
+     */
+    public void setCommitWithin( final int millis ) {
+        this.commitWithin = millis;
+    }
+
+    private void post( final String archive, final Payload payload, final String description ) throws IOException {
+
+        String url = this.baseUrl + "/" + archive + "/update/json";
+        if ( this.commitWithin > 0 ) {
+            url += "?commitWithin=" + this.commitWithin;
+        }
+        PostMethod post = new PostMethod( url );
+        post.setRequestEntity( new PayloadRequestEntity( payload, this.compressRequests ) );
         post.setRequestHeader("Content-type", "application/json; charset=utf-8");
+        if ( this.compressRequests ) {
+            post.setRequestHeader("Content-Encoding", "gzip");
+        }
 
         // Execute request
+        long start = UPDATE_TIMER.start( );
         try {
             execRequest( post );
-            String response = getResponseString( post );
-            Pattern pattern = Pattern.compile( "status=\\\"(\\d*)\\\">(.*)\\<\\/result\\>", Pattern.DOTALL );
-            Matcher matcher = pattern.matcher( response );
-            while( matcher.find() ) {
-                String status = matcher.group( 1 );
-                String message = matcher.group( 2 );
-                if( !"0".equals( status ) ) {
-                    throw new IOException( message );
-                }
-            }
+            checkUpdateResponse( getResponseString( post ) );
+            UPDATE_TIMER.stop( start );
         } catch( IOException ex ) {
+            UPDATE_ERRORS.inc( );
             this.log.error( "SOLR request failed: ", ex);
-            this.log.error( "REQUEST: " + json );
+            this.log.error( description );
+            throw ex;
         } finally {
             // Release current connection to the connection pool once you are done
             post.releaseConnection();
         }
     }
 
-    public void commit( String archive ) {
+    /**
+     * Delete documents from the specified SOLR archive by URI
+     * 
+     * @param uris
+     * @param archive
+     * @throws IOException
+     */
+    public void deleteById( final Collection<String> uris, final String archive ) throws IOException {
+        JsonArray ids = new JsonArray( );
+        for ( String uri : uris ) {
+            ids.add( new JsonPrimitive( uri ) );
+            if ( ids.size( ) == DELETE_BATCH_SIZE ) {
+                postDelete( ids, archive );
+                ids = new JsonArray( );
+            }
+        }
+        if ( ids.size( ) > 0 ) {
+            postDelete( ids, archive );
+        }
+    }
+
+    private void postDelete( final JsonArray ids, final String archive ) throws IOException {
+        JsonObject delete = new JsonObject( );
+        delete.add( "delete", ids );
+        postJSON( delete.toString( ), archive );
+    }
+
+    private void checkUpdateResponse( final String response ) throws IOException {
+        Matcher matcher = UPDATE_STATUS.matcher( response );
+        while( matcher.find() ) {
+            String status = matcher.group( 1 );
+            String message = matcher.group( 2 );
+            if( !"0".equals( status ) ) {
+                throw new IOException( message );
+            }
+        }
+    }
+
+    public void commit( String archive ) throws IOException {
+        commit( archive, false );
+    }
+
+    /**
+     * Commit the specified SOLR archive. A soft commit makes the changes visible to
+     * searches without flushing them to disk.
+     * 
+     * @param archive
+     * @param soft
+     * @throws IOException
+     */
+    public void commit( String archive, boolean soft ) throws IOException {
+        long start = COMMIT_TIMER.start( );
         try {
-            postJSON("{\"commit\": {}}", archive );
+            postJSON( soft ? "{\"commit\": {\"softCommit\": true}}" : "{\"commit\": {}}", archive );
         } catch (IOException e) {
             this.log.error("Commit to SOLR FAILED: " + e.getMessage());
+            throw e;
+        } finally {
+            COMMIT_TIMER.stop( start );
+        }
+    }
+
+    /**
+     * Source of a JSON request body. Implementations write the body directly
+     * onto the connection.
+     */
+    public interface Payload {
+        
+        /**
+         * Write the complete body to <code>out</code>. Do not close the stream.
+         * 
+         * @param out
+         * @throws IOException
+         */
+        void writeTo( OutputStream out ) throws IOException;
+        
+        /**
+         * @return The size of the body in bytes, or -1 if it is not known in advance
+         */
+        long size( );
+    }
+
+    // small payload already in memory
+    private static final class BytesPayload implements Payload {
+        private final byte[] data;
+
+        BytesPayload( final byte[] data ) {
+            this.data = data;
+        }
+
+        public void writeTo( OutputStream out ) throws IOException {
+            out.write( this.data );
+        }
+
+        public long size( ) {
+            return this.data.length;
+        }
+    }
+
+    // payload read once from a stream
+    private static final class StreamPayload implements Payload {
+        private final InputStream in;
+
+        StreamPayload( final InputStream in ) {
+            this.in = in;
+        }
+
+        public void writeTo( OutputStream out ) throws IOException {
+            IOUtils.copy( this.in, out );
+        }
+
+        public long size( ) {
+            return -1;
         }
     }
 
+    // request entity that streams a payload onto the connection, optionally gzipped.
+    // When the length is not known up front the body goes out chunked.
+    private static final class PayloadRequestEntity implements RequestEntity {
+        private final Payload payload;
+        private final boolean compress;
+
+        PayloadRequestEntity( final Payload payload, final boolean compress ) {
+            this.payload = payload;
+            this.compress = compress;
+        }
+
+        public boolean isRepeatable( ) {
+            return ( this.payload instanceof StreamPayload ) == false;
+        }
+
+        public void writeRequest( OutputStream out ) throws IOException {
+            CountingOutputStream counted = new CountingOutputStream( out );
+            try {
+                if ( this.compress ) {
+                    GZIPOutputStream gz = new GZIPOutputStream( counted, GZIP_BUFFER_SIZE );
+                    this.payload.writeTo( gz );
+                    gz.finish( );
+                } else {
+                    this.payload.writeTo( counted );
+                }
+            } finally {
+                BYTES_SENT.add( counted.getByteCount( ) );
+            }
+        }
+
+        public long getContentLength( ) {
+            if ( this.compress ) {
+                return -1;
+            }
+            return this.payload.size( );
+        }
+
+        public String getContentType( ) {
+            return "application/json; charset=utf-8";
+        }
+    }
+
+    // counts the bytes of response bodies as they come off the wire
+    private static final class MeteredInputStream extends CountingInputStream {
+
+        MeteredInputStream( final InputStream in ) {
+            super( in );
+        }
+
+        public void close( ) throws IOException {
+            BYTES_RECEIVED.add( resetByteCount( ) );
+            super.close( );
+        }
+    }
+
+    // connection pool that counts how often a pooled connection is reused
+    // rather than a new one opened, and how long requests wait for one
+    private static final class MeteredConnectionManager extends MultiThreadedHttpConnectionManager {
+
+        public HttpConnection getConnectionWithTimeout( HostConfiguration hostConfiguration, long timeout )
+            throws ConnectionPoolTimeoutException {
+            long start = CONNECTION_WAIT.start( );
+            HttpConnection connection;
+            try {
+                connection = super.getConnectionWithTimeout( hostConfiguration, timeout );
+            } finally {
+                CONNECTION_WAIT.stop( start );
+            }
+            if ( connection.isOpen( ) ) {
+                CONNECTIONS_REUSED.inc( );
+            } else {
+                CONNECTIONS_OPENED.inc( );
+            }
+            return connection;
+        }
+    }
 }
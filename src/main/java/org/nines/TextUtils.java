@@ -12,20 +12,89 @@ public class TextUtils {
      * @return
      */
     public static String normalizeWhitespace(final String srcText) {
-        String[] lines = srcText.replaceAll("\n+", "\n").split("\n");
-        StringBuffer out = new StringBuffer();
-        for ( int i =0; i<lines.length; i++) {
-            String line = lines[i];
-            line = line.replaceAll("\t", " ");
-            line = line.replaceAll(" +", " ");
-            line = line.trim();
-            if ( line.length() > 0) {
-                out.append( line ).append("\n");
+        // one pass over the lines: trim each, collapse runs of spaces and tabs
+        // into one space and drop the lines left empty
+        final int length = srcText.length();
+        StringBuilder out = new StringBuilder(length);
+        int lineStart = 0;
+        while (lineStart <= length) {
+            int lineEnd = srcText.indexOf('\n', lineStart);
+            if (lineEnd == -1) {
+                lineEnd = length;
             }
-        }  
-        return out.toString().trim();
+            int start = lineStart;
+            int end = lineEnd;
+            while (start < end && srcText.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && srcText.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            if (start < end) {
+                if (out.length() > 0) {
+                    out.append('\n');
+                }
+                boolean space = false;
+                for (int i = start; i < end; i++) {
+                    char c = srcText.charAt(i);
+                    if (c == ' ' || c == '\t') {
+                        if (space == false) {
+                            out.append(' ');
+                        }
+                        space = true;
+                    } else {
+                        out.append(c);
+                        space = false;
+                    }
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return out.toString();
+    }
+
+    /**
+     * Check whether a value would be changed by cleanField: it has an entity,
+     * an unknown character, a tab, a newline, a run of spaces or whitespace at
+     * either end. Most metadata values have none of these.
+     * @param value
+     * @return
+     */
+    public static boolean needsCleaning(final String value) {
+        final int length = value.length();
+        if (length == 0) {
+            return false;
+        }
+        if (value.charAt(0) <= ' ' || value.charAt(length - 1) <= ' ') {
+            return true;
+        }
+        char prev = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '&' || c == '\t' || c == '\n' || c == '\ufffd' || (c == ' ' && prev == ' ')) {
+                return true;
+            }
+            prev = c;
+        }
+        return false;
+    }
+
+    /**
+     * Strip escape sequences, normalize whitespace and remove unknown UTF-8
+     * characters from a field value. Values that need none of it are returned
+     * as they are.
+     * @param value
+     * @return
+     */
+    public static String cleanField(final String value, ErrorReport errorReport, final File file, final String uri) {
+        if (needsCleaning(value) == false) {
+            return value;
+        }
+        String data = stripEscapeSequences(value, errorReport, file, uri);
+        data = normalizeWhitespace(data);
+        return stripUnknownUTF8(data, errorReport, file, uri);
     }
-    
+
     /**
      * Remove unknown UTF-8 characters (0xFFFD) and log warnings for each
      * @param value
@@ -44,6 +113,10 @@ public class TextUtils {
             fileName = file.toString();
         }
         
+        if (value.indexOf('\ufffd') == -1) {
+            return value;
+        }
+
         // Look for unknown character and warn
         int curPos= 0;
         while ( true ) {
@@ -60,7 +133,14 @@ public class TextUtils {
                     + "\n  Snippet: ["+snip+"]"));
                 
         }
-        return value.replaceAll("\ufffd", "");
+        StringBuilder stripped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\ufffd') {
+                stripped.append(c);
+            }
+        }
+        return stripped.toString();
     }
 
     /**
@@ -81,6 +161,11 @@ public class TextUtils {
             fileName = file.toString();
         }
         
+        // nothing to unescape, and no sequence can be left behind
+        if (srcText.indexOf('&') == -1) {
+            return srcText;
+        }
+
         String cleaned = StringEscapeUtils.unescapeXml(srcText);
         
         int startPos = 0;
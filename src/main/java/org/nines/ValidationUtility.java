@@ -17,9 +17,7 @@ package org.nines;
 
 import java.util.Arrays;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.List;
 
 //import org.jdom.Element;
 //import org.jdom.IllegalDataException;
@@ -61,14 +59,14 @@ public class ValidationUtility {
     public static final String[] REQUIRED_PAGE_FIELDS = new String[] { "text", "page_of", "page_num" };
     private static final String[] RDF_PAGE_TERM = new String[] { "collex:text", "collex:pageof", "collex:pagenum"};
 
-    private static final String[] ROLE_FIELDS = new String[] { "role_ART", "role_AUT", "role_EDT", "role_PBL", "role_CRE",
+    static final String[] ROLE_FIELDS = new String[] { "role_ART", "role_AUT", "role_EDT", "role_PBL", "role_CRE",
 		"role_BRD","role_CNG","role_CND","role_DRT","role_IVR","role_IVE","role_OWN","role_FMO","role_PRF","role_PRO","role_PRN",
        "role_EGR", "role_ETR", "role_TRL", "role_ARC", "role_BND", "role_BKD", "role_BKP", "role_CLL", "role_CTG", "role_COL",
         "role_CLR", "role_CWT", "role_COM", "role_CMT", "role_CRE", "role_DUB", "role_FAC", "role_ILU", "role_ILL", "role_LTG",
         "role_PRT", "role_POP", "role_PRM", "role_RPS", "role_RBR", "role_SCR", "role_SCL", "role_TYD", "role_TYG", "role_WDE",
         "role_WDC", "role_OWN" };
 
-    public static ArrayList<String> validateObject(boolean isPagesArchive, HashMap<String, ArrayList<String>> object) {
+    public static ArrayList<String> validateObject(boolean isPagesArchive, Document object) {
         ArrayList<String> messages = new ArrayList<String>();
 
         if ( !isPagesArchive ) {
@@ -86,15 +84,15 @@ public class ValidationUtility {
         return messages;
     }
 
-    public static ArrayList<String> validateRole(HashMap<String, ArrayList<String>> object) {
+    public static ArrayList<String> validateRole(Document object) {
         ArrayList<String> messages = new ArrayList<String>();
 
         // look for all role_* keys in object, validate that they are in this list:
         //    ART, AUT, EDT, PBL, and TRL, also CRE, EGR, ETR
         ArrayList<String> validRoles = new ArrayList<String>(Arrays.asList(ROLE_FIELDS));
 
-        Set<String> keys = object.keySet();
-        for (String key : keys) {
+        for (int i = 0; i < object.size(); i++) {
+            String key = object.name(i);
             if (key.startsWith("role_")
                 &&  !validRoles.contains(key) ) {
                 messages.add("invalid role: " + key);
@@ -104,11 +102,11 @@ public class ValidationUtility {
         return messages;
     }
 
-    public static ArrayList<String> validateUri(HashMap<String, ArrayList<String>> object) {
+    public static ArrayList<String> validateUri(Document object) {
         ArrayList<String> messages = new ArrayList<String>();
 
         // The URI can't contain foo
-        ArrayList<String> fields = object.get("uri");
+        List<String> fields = object.get("uri");
         if (fields.size() > 1)
             messages.add("must contain exactly one URI field");
         if (!fields.isEmpty()) {
@@ -120,33 +118,36 @@ public class ValidationUtility {
         return messages;
     }
 
-	private static void maxOne(String fieldName, HashMap<String, ArrayList<String>> object, ArrayList<String> messages) {
-        ArrayList<String> fields = object.get(fieldName);
+	private static void maxOne(String fieldName, Document object, ArrayList<String> messages) {
+        List<String> fields = object.get(fieldName);
         if (fields != null && fields.size() > 1) {
             String f = "";
             for (String s : fields) {
                 f += s + ";";
             }
             messages.add("must not contain more than one " + fieldName + " field:" + f);
-            while (fields.size() > 1)
-            	fields.remove(1);
+            object.truncate(fieldName, 1);
         }
 	}
 	
 	/**
      * Confirms that required fields for PAGES archives are present and non-null
      */
-    public static ArrayList<String> validatePagesRequired(HashMap<String, ArrayList<String>> object) {
+    public static ArrayList<String> validatePagesRequired(Document object) {
         ArrayList<String> messages = new ArrayList<String>();
 
         for (int i = 0; i < REQUIRED_PAGE_FIELDS.length; i++) {
-            if (!object.containsKey(REQUIRED_PAGE_FIELDS[i])) {
+            if (REQUIRED_PAGE_FIELDS[i].equals("text") && object.has(NinesStatementHandler.TEXT_FILE)) {
+                // external text, read when the document is posted
+                continue;
+            }
+            if (!object.has(REQUIRED_PAGE_FIELDS[i])) {
                 messages.add("object must contain the " + RDF_PAGE_TERM[i] + " field");
             }
         }
         
-        if ( object.containsKey("text") ) {
-            ArrayList<String> txtVal = object.get("text");
+        if ( object.has("text") ) {
+            List<String> txtVal = object.get("text");
             if ( txtVal.get(0).length() == 0) {
                 object.remove("text");
                 messages.add("Warning - collex:text is blank");
@@ -158,16 +159,16 @@ public class ValidationUtility {
     /**
      * Confirms that required fields are present and non-null
      */
-    public static ArrayList<String> validateRequired(HashMap<String, ArrayList<String>> object) {
+    public static ArrayList<String> validateRequired(Document object) {
         ArrayList<String> messages = new ArrayList<String>();
 
         for (int i = 0; i < REQUIRED_FIELDS.length; i++) {
-            if (!object.containsKey(REQUIRED_FIELDS[i])) {
+            if (!object.has(REQUIRED_FIELDS[i])) {
                 messages.add("object must contain the " + RDF_TERM[i] + " field");
             }
         }
 
-        ArrayList<String> fields = object.get("archive");
+        List<String> fields = object.get("archive");
         if (fields == null || fields.size() > 1) {
             messages.add("must contain exactly one archive field");
         }
@@ -176,10 +177,9 @@ public class ValidationUtility {
 		maxOne("url", object, messages);
 		maxOne("thumbnail", object, messages);
 
-        Set<String> keys = object.keySet();
         boolean hasRole = false;
-        for (String key : keys) {
-            if (key.startsWith("role_")) {
+        for (int i = 0; i < object.size(); i++) {
+            if (object.name(i).startsWith("role_")) {
                 hasRole = true;
                 break;
             }
@@ -195,20 +195,15 @@ public class ValidationUtility {
     /**
      * The genre must be in a constrained list.
      */
-    public static ArrayList<String> validateGenre(HashMap<String, ArrayList<String>> object) {
+    public static ArrayList<String> validateGenre(Document object) {
         ArrayList<String> messages = new ArrayList<String>();
 
-        for (Map.Entry<String, ArrayList<String>> entry : object.entrySet()) {
-
-            String key = entry.getKey();
-            ArrayList<String> valueList = entry.getValue();
-
-            if ("genre".equals(key)) {
-                // test 1: each genre is valid
-                for (String genre : valueList) {
-                    if (!validateGenreInList(genre)) {
-                        messages.add(genre + " genre not approved by ARC");
-                    }
+        List<String> valueList = object.get("genre");
+        if (valueList != null) {
+            // test 1: each genre is valid
+            for (String genre : valueList) {
+                if (!validateGenreInList(genre)) {
+                    messages.add(genre + " genre not approved by ARC");
                 }
             }
         }
@@ -230,20 +225,15 @@ public class ValidationUtility {
     /**
      * The genre must be in a constrained list.
      */
-    public static ArrayList<String> validateDiscipline(HashMap<String, ArrayList<String>> object) {
+    public static ArrayList<String> validateDiscipline(Document object) {
         ArrayList<String> messages = new ArrayList<String>();
 
-        for (Map.Entry<String, ArrayList<String>> entry : object.entrySet()) {
-
-            String key = entry.getKey();
-            ArrayList<String> valueList = entry.getValue();
-
-            if ("discipline".equals(key)) {
-                // test 1: each discipline is valid
-                for (String discipline : valueList) {
-                    if (!validateDisciplineInList(discipline)) {
-                        messages.add(discipline + " discipline not approved by ARC");
-                    }
+        List<String> valueList = object.get("discipline");
+        if (valueList != null) {
+            // test 1: each discipline is valid
+            for (String discipline : valueList) {
+                if (!validateDisciplineInList(discipline)) {
+                    messages.add(discipline + " discipline not approved by ARC");
                 }
             }
         }
@@ -266,19 +256,14 @@ public class ValidationUtility {
     /**
      * The genre must be in a constrained list.
      */
-    public static ArrayList<String> validateType(HashMap<String, ArrayList<String>> object) {
+    public static ArrayList<String> validateType(Document object) {
         ArrayList<String> messages = new ArrayList<String>();
-        for (Map.Entry<String, ArrayList<String>> entry : object.entrySet()) {
-
-            String key = entry.getKey();
-            ArrayList<String> valueList = entry.getValue();
-
-            if ("doc_type".equals(key)) {
-                // test 1: each type is valid
-                for (String type : valueList) {
-                    if (!validateTypeInList(type)) {
-                        messages.add(type + " type not approved by ARC");
-                    }
+        List<String> valueList = object.get("doc_type");
+        if (valueList != null) {
+            // test 1: each type is valid
+            for (String type : valueList) {
+                if (!validateTypeInList(type)) {
+                    messages.add(type + " type not approved by ARC");
                 }
             }
         }
@@ -295,10 +280,10 @@ public class ValidationUtility {
         return false;
     }
 
-    public static ArrayList<String> validateFreecultureElement(HashMap<String, ArrayList<String>> object) {
+    public static ArrayList<String> validateFreecultureElement(Document object) {
         ArrayList<String> messages = new ArrayList<String>();
 
-        ArrayList<String> fields = object.get("freeculture");
+        List<String> fields = object.get("freeculture");
         String fieldVal = fields.get(0);
         if (!validateFreeculture(fieldVal)) {
             messages.add(fieldVal + " is not a valid value for collex:freeculture");
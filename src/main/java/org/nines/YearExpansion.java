@@ -0,0 +1,194 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The years of a date value together with the decade, quarter century, half
+ * century and century fields derived from them. Expansions are immutable and
+ * cached by date value, since an archive uses the same handful of dates over
+ * and over; a thousand year range is expanded once rather than once per
+ * document.
+ */
+final class YearExpansion {
+
+    // bounds the cache against archives with a distinct date on every object
+    private static final int MAX_CACHED = 10000;
+    private static final ConcurrentMap<String, YearExpansion> CACHE = new ConcurrentHashMap<String, YearExpansion>();
+
+    // shared strings for the years 0000 - 9999, filled in as they are used
+    private static final String[] YEARS = new String[10000];
+
+    private static final YearExpansion NONE = new YearExpansion(new ArrayList<String>());
+
+    private final List<String> years;
+    private final List<String> decades;
+    private final List<String> quarterCenturies;
+    private final List<String> halfCenturies;
+    private final List<String> centuries;
+
+    private YearExpansion(final List<String> parsed) {
+        BitSet seen = new BitSet(10000);
+        BitSet decade = new BitSet(1000);
+        BitSet quarter = new BitSet(400);
+        BitSet half = new BitSet(200);
+        BitSet century = new BitSet(100);
+        List<String> years = new ArrayList<String>(parsed.size());
+        List<String> decades = new ArrayList<String>();
+        List<String> quarters = new ArrayList<String>();
+        List<String> halves = new ArrayList<String>();
+        List<String> centuries = new ArrayList<String>();
+
+        for (String value : parsed) {
+            int year = toYear(value);
+            if (year < 0) {
+                // not four digits: kept as a year, but nothing is derived from it
+                if (years.contains(value) == false) {
+                    years.add(value);
+                }
+                continue;
+            }
+            if (seen.get(year)) {
+                continue;
+            }
+            seen.set(year);
+            years.add(yearString(year));
+            add(decades, decade, year / 10, 10);
+            add(quarters, quarter, year / 25, 25);
+            add(halves, half, year / 50, 50);
+            add(centuries, century, year / 100, 100);
+        }
+
+        this.years = freeze(years);
+        this.decades = freeze(decades);
+        this.quarterCenturies = freeze(quarters);
+        this.halfCenturies = freeze(halves);
+        this.centuries = freeze(centuries);
+    }
+
+    /**
+     * @return The expansion of a date value such as <code>1862-12-25</code>,
+     *         <code>184u</code> or <code>1800,1850</code>. It is empty if the
+     *         value is not a valid date.
+     */
+    public static YearExpansion of(final String value) {
+        YearExpansion expansion = CACHE.get(value);
+        if (expansion == null) {
+            List<String> parsed = NinesStatementHandler.parseYears(value);
+            expansion = parsed.isEmpty() ? NONE : new YearExpansion(parsed);
+            if (CACHE.size() < MAX_CACHED) {
+                CACHE.putIfAbsent(value, expansion);
+            }
+        }
+        return expansion;
+    }
+
+    public boolean isEmpty() {
+        return this.years.isEmpty();
+    }
+
+    /**
+     * @return The distinct years, in the order the value gives them
+     */
+    public List<String> getYears() {
+        return this.years;
+    }
+
+    public List<String> getDecades() {
+        return this.decades;
+    }
+
+    public List<String> getQuarterCenturies() {
+        return this.quarterCenturies;
+    }
+
+    public List<String> getHalfCenturies() {
+        return this.halfCenturies;
+    }
+
+    public List<String> getCenturies() {
+        return this.centuries;
+    }
+
+    /**
+     * @return True if <code>value</code> is exactly four digits
+     */
+    static boolean isYear(final String value) {
+        return toYear(value) >= 0;
+    }
+
+    /**
+     * @return The four digit string for <code>year</code>, 0 - 9999
+     */
+    static String yearString(final int year) {
+        String s = YEARS[year];
+        if (s == null) {
+            char[] digits = new char[4];
+            pad(digits, 0, year, 4);
+            s = new String(digits);
+            YEARS[year] = s;
+        }
+        return s;
+    }
+
+    /**
+     * Write <code>value</code> into <code>chars</code> as <code>width</code>
+     * digits, zero padded, starting at <code>offset</code>
+     */
+    static void pad(final char[] chars, final int offset, final int value, final int width) {
+        int v = value;
+        for (int i = offset + width - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + v % 10);
+            v /= 10;
+        }
+    }
+
+    private static int toYear(final String value) {
+        if (value.length() != 4) {
+            return -1;
+        }
+        int year = 0;
+        for (int i = 0; i < 4; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            year = year * 10 + (c - '0');
+        }
+        return year;
+    }
+
+    private static void add(final List<String> list, final BitSet seen, final int bucket, final int span) {
+        if (seen.get(bucket) == false) {
+            seen.set(bucket);
+            list.add(yearString(bucket * span));
+        }
+    }
+
+    private static List<String> freeze(final List<String> list) {
+        if (list.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Arrays.asList(list.toArray(new String[list.size()])));
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class CircuitBreakerTest extends TestCase {
+
+    public void testOpensAfterThreshold() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(3, 50, 1000);
+        breaker.failure();
+        breaker.failure();
+        breaker.success();
+        breaker.failure();
+        breaker.failure();
+        assertFalse(breaker.isOpen());
+        breaker.failure();
+        assertTrue(breaker.isOpen());
+
+        // the first request after the cooldown probes
+        long start = System.currentTimeMillis();
+        breaker.acquire();
+        assertTrue(System.currentTimeMillis() - start >= 40);
+        assertTrue(breaker.isOpen());
+        breaker.success();
+        assertFalse(breaker.isOpen());
+    }
+
+    public void testOthersWaitForProbe() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker(1, 10, 1000);
+        breaker.failure();
+        breaker.acquire();
+
+        final CountDownLatch passed = new CountDownLatch(1);
+        Thread other = new Thread() {
+            public void run() {
+                try {
+                    breaker.acquire();
+                    passed.countDown();
+                } catch (Exception e) {
+                    // the latch stays shut
+                }
+            }
+        };
+        other.start();
+        assertFalse(passed.await(100, TimeUnit.MILLISECONDS));
+        breaker.success();
+        assertTrue(passed.await(1, TimeUnit.SECONDS));
+    }
+
+    public void testCancelledProbe() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker(1, 10, 1000);
+        breaker.failure();
+        breaker.acquire();
+
+        // a request that never reached SOLR neither closes the circuit nor backs off
+        breaker.cancel();
+        assertTrue(breaker.isOpen());
+        long start = System.currentTimeMillis();
+        breaker.acquire();
+        assertTrue(System.currentTimeMillis() - start < 100);
+
+        // only the probe can give its place up
+        Thread other = new Thread() {
+            public void run() {
+                breaker.cancel();
+            }
+        };
+        other.start();
+        other.join();
+        final CountDownLatch passed = new CountDownLatch(1);
+        new Thread() {
+            public void run() {
+                try {
+                    breaker.acquire();
+                    passed.countDown();
+                } catch (Exception e) {
+                    // the latch stays shut
+                }
+            }
+        }.start();
+        assertFalse(passed.await(100, TimeUnit.MILLISECONDS));
+        breaker.success();
+        assertTrue(passed.await(1, TimeUnit.SECONDS));
+    }
+
+    public void testFailedProbeBacksOff() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50, 1000);
+        breaker.failure();
+        breaker.acquire();
+        breaker.failure();
+
+        // twice the cooldown, for producers as well
+        long start = System.currentTimeMillis();
+        breaker.awaitCooldown();
+        assertTrue(System.currentTimeMillis() - start >= 90);
+        breaker.acquire();
+        breaker.success();
+        breaker.awaitCooldown();
+    }
+}
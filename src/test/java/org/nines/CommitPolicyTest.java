@@ -0,0 +1,69 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import junit.framework.TestCase;
+
+import org.nines.CommitPolicy.Commit;
+
+public class CommitPolicyTest extends TestCase {
+
+    public void testDefaultCommitsEveryFifthPost() {
+        CommitPolicy policy = CommitPolicy.parse(CommitPolicy.DEFAULT, 0);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Commit.NONE, policy.afterPost(100, 0));
+        }
+        assertEquals(Commit.HARD, policy.afterPost(100, 0));
+        assertEquals(Commit.NONE, policy.afterPost(100, 0));
+        assertEquals(0, policy.getCommitWithin());
+    }
+
+    public void testFinalOnly() {
+        CommitPolicy policy = CommitPolicy.parse("final", 0);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Commit.NONE, policy.afterPost(10000, i * 60000L));
+        }
+    }
+
+    public void testSoftAndHardRules() {
+        CommitPolicy policy = CommitPolicy.parse("soft:10,docs:1000,within:5000", 0);
+        assertEquals(5000, policy.getCommitWithin());
+        assertEquals(Commit.NONE, policy.afterPost(400, 5000));
+        assertEquals(Commit.SOFT, policy.afterPost(400, 10000));
+        assertEquals(Commit.HARD, policy.afterPost(400, 12000));
+        // a hard commit also restarts the soft commit interval
+        assertEquals(Commit.NONE, policy.afterPost(1, 20000));
+        assertEquals(Commit.SOFT, policy.afterPost(1, 22000));
+    }
+
+    public void testHardInterval() {
+        CommitPolicy policy = CommitPolicy.parse("hard:60", 0);
+        assertEquals(Commit.NONE, policy.afterPost(1, 59000));
+        assertEquals(Commit.HARD, policy.afterPost(1, 60000));
+    }
+
+    public void testInvalid() {
+        String[] bad = { "often", "posts:", "docs:x", "soft:0", "weekly:1" };
+        for (String spec : bad) {
+            try {
+                CommitPolicy.parse(spec);
+                fail("Expected " + spec + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+public class CorrectedTextIndexTest extends TestCase {
+    private File dir;
+    private File textDir;
+    private File cache;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = new File("target", "corrected_test");
+        FileUtils.deleteDirectory(dir);
+        textDir = new File(dir, "correctedtext");
+        cache = new File(dir, "test_correctedtext.idx");
+        FileUtils.writeStringToFile(new File(textDir, "http_C__S__S_foo.org_S_doc1.txt"), "one", "UTF-8");
+        FileUtils.writeStringToFile(new File(textDir, "http_C__S__S_foo.org_S_doc2.txt"), "two", "UTF-8");
+        FileUtils.writeStringToFile(new File(textDir, "notes.md"), "x", "UTF-8");
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+        super.tearDown();
+    }
+
+    public void testFind() {
+        CorrectedTextIndex index = new CorrectedTextIndex(textDir, null);
+        assertEquals(2, index.size());
+        assertEquals(new File(textDir, "http_C__S__S_foo.org_S_doc1.txt"), index.find("http://foo.org/doc1"));
+        assertTrue(index.contains("http://foo.org/doc2"));
+        assertFalse(index.contains("http://foo.org/doc3"));
+        assertFalse(index.contains("http://foo.org/notes"));
+    }
+
+    public void testMissingDirectory() {
+        assertEquals(0, new CorrectedTextIndex(new File(dir, "none"), cache).size());
+        assertFalse(new CorrectedTextIndex(null, null).contains("http://foo.org/doc1"));
+    }
+
+    public void testCache() throws Exception {
+        // make the directory old enough for its listing to be trusted
+        long old = (System.currentTimeMillis() - 10000) / 1000 * 1000;
+        textDir.setLastModified(old);
+        assertEquals(2, new CorrectedTextIndex(textDir, cache).size());
+        assertTrue(cache.exists());
+
+        // the cached listing is used while the directory is unchanged...
+        FileUtils.writeStringToFile(new File(textDir, "http_C__S__S_foo.org_S_doc3.txt"), "three", "UTF-8");
+        long modified = textDir.lastModified();
+        textDir.setLastModified(old);
+        assertEquals(2, new CorrectedTextIndex(textDir, cache).size());
+
+        // ... and the directory is listed again once it changes
+        textDir.setLastModified(modified);
+        CorrectedTextIndex index = new CorrectedTextIndex(textDir, cache);
+        assertEquals(3, index.size());
+        assertTrue(index.contains("http://foo.org/doc3"));
+    }
+}
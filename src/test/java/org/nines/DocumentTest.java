@@ -0,0 +1,105 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class DocumentTest extends TestCase {
+
+    public void testAddAndGet() {
+        Document doc = new Document();
+        assertNull(doc.get("title"));
+        assertEquals("", doc.getFirst("title"));
+
+        doc.add("title", "one");
+        doc.add("genre", "Poetry");
+        doc.add("title", "two");
+        doc.add("title", "three");
+        doc.add("title", "four");
+        doc.add("title", "five");
+
+        assertEquals(2, doc.size());
+        assertEquals(Arrays.asList("title", "genre"), doc.names());
+        assertEquals(Arrays.asList("one", "two", "three", "four", "five"), doc.get("title"));
+        assertEquals("one", doc.getFirst("title"));
+        assertEquals("five", doc.getLast("title"));
+        assertEquals(Arrays.asList("Poetry"), doc.values(1));
+        assertTrue(doc.has("genre"));
+        assertFalse(doc.has("never_seen_before"));
+    }
+
+    public void testSetAndRemove() {
+        Document doc = new Document();
+        doc.add("archive", "rossetti");
+        doc.add("tag", "a");
+        doc.add("tag", "b");
+        doc.add("uri", "http://foo/");
+
+        doc.set("archive", "blake");
+        assertEquals(Arrays.asList("blake"), doc.get("archive"));
+
+        assertEquals(Arrays.asList("a", "b"), doc.remove("tag"));
+        assertNull(doc.remove("tag"));
+        assertEquals(Arrays.asList("archive", "uri"), doc.names());
+
+        doc.set("blake_tag", Arrays.asList("x", "y"));
+        assertEquals(Arrays.asList("x", "y"), doc.get("blake_tag"));
+        doc.set("blake_tag", new ArrayList<String>());
+        assertFalse(doc.has("blake_tag"));
+    }
+
+    public void testTruncate() {
+        Document doc = new Document();
+        doc.add("title", "one");
+        doc.add("title", "two");
+        doc.add("title", "three");
+        doc.truncate("title", 2);
+        assertEquals(Arrays.asList("one", "two"), doc.get("title"));
+        doc.truncate("title", 1);
+        assertEquals(Arrays.asList("one"), doc.get("title"));
+        doc.truncate("missing", 1);
+        assertFalse(doc.has("missing"));
+    }
+
+    public void testGrow() {
+        Document doc = new Document();
+        for (int i = 0; i < 100; i++) {
+            doc.add("field_" + i, Integer.toString(i));
+        }
+        assertEquals(100, doc.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("field_" + i, doc.name(i));
+            assertEquals(Integer.toString(i), doc.getFirst("field_" + i));
+        }
+    }
+
+    public void testReadOnlyValues() {
+        Document doc = new Document();
+        doc.add("genre", "Poetry");
+        doc.add("genre", "Primary");
+        List<String> values = doc.get("genre");
+        try {
+            values.add("Fiction");
+            fail("values should be read only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringEscapeUtils;
+
+public class EscapeCheckingReaderTest extends TestCase {
+
+    public void testPassesSourceThrough() throws IOException {
+        String src = "<a>caf&#233; &amp;amp;#8212; &lt;b&gt;</a>";
+        EscapeCheckingReader reader = new EscapeCheckingReader(new StringReader(src));
+        assertEquals(src, IOUtils.toString(reader));
+    }
+
+    public void testDoubleEscaped() throws IOException {
+        String src = "<dc:title>Rossetti &amp;#8212; The Blessed Damozel</dc:title>";
+        assertEquals(wholeFileScan(src), check(src));
+        assertEquals(1, check(src).size());
+    }
+
+    public void testSameAsWholeFileScan() throws IOException {
+        String[] samples = { "", "&", "&#", "&#;", "&#x41;", "&#xZZ;", "&#99999999;", "&amp;&#", "a & b &amp; c;",
+            "&&#38;#38;", "&amp;#38;&amp;#x26;", "&unknown;#", "&#38#38;", "&;&#0;", "text &amp;#", "&amp;#12" };
+        for (String src : samples) {
+            assertEquals(src, wholeFileScan(src), check(src));
+        }
+
+        // long documents exercise the sliding window
+        Random random = new Random(1138);
+        String[] parts = { "&", "#", ";", "amp", "lt", "x", "4", "1", " ", "text ", "<p>", "&amp;#8212;" };
+        for (int n = 0; n < 200; n++) {
+            StringBuilder src = new StringBuilder();
+            int len = random.nextInt(3000);
+            for (int i = 0; i < len; i++) {
+                src.append(parts[random.nextInt(parts.length)]);
+            }
+            assertEquals(src.toString(), wholeFileScan(src.toString()), check(src.toString()));
+        }
+    }
+
+    private List<String> check(String src) throws IOException {
+        EscapeCheckingReader reader = new EscapeCheckingReader(new StringReader(src));
+        char[] buf = new char[7];
+        reader.read(buf, 0, buf.length);
+        reader.read();
+        reader.skip(5);
+        reader.drain();
+        return reader.getWarnings();
+    }
+
+    // the check as it was done before the reader: unescape the whole file and search it
+    private List<String> wholeFileScan(String content) {
+        List<String> warnings = new ArrayList<String>();
+        String unescaped = StringEscapeUtils.unescapeXml(content);
+        int startPos = 0;
+        while (true) {
+            int pos = unescaped.indexOf("&#", startPos);
+            if (pos < 0) {
+                break;
+            }
+            String snip = unescaped.substring(Math.max(0, pos - 25), Math.min(unescaped.length(), pos + 25));
+            warnings.add("Potentially Invalid Escape sequence.\n   Position: [" + pos + "]\n   Snippet: [" + snip + "]");
+            startPos = pos + 2;
+        }
+        return warnings;
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+public class FileWalkerTest extends TestCase {
+    private File dir;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = new File("target", "walker_test");
+        FileUtils.deleteDirectory(dir);
+        for (int i = 0; i < 5; i++) {
+            File sub = new File(dir, "d" + i);
+            for (int j = 0; j < 3; j++) {
+                FileUtils.writeStringToFile(new File(new File(sub, "e" + j), "f.rdf"), "x", "UTF-8");
+                FileUtils.writeStringToFile(new File(sub, "g" + j + ".xml"), "x", "UTF-8");
+            }
+            FileUtils.writeStringToFile(new File(sub, "notes.txt"), "x", "UTF-8");
+        }
+        FileUtils.writeStringToFile(new File(new File(dir, ".svn"), "entries.xml"), "x", "UTF-8");
+        FileUtils.writeStringToFile(new File(dir, "top.rdf"), "x", "UTF-8");
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+        super.tearDown();
+    }
+
+    public void testSameOrderAsRecursiveWalk() {
+        List<File> expected = new ArrayList<File>();
+        recursiveWalk(dir, expected);
+        assertEquals(31, expected.size());
+
+        assertEquals(expected, walk(new FileWalker(dir, true, 1)));
+        assertEquals(expected, walk(new FileWalker(dir, true, 3)));
+    }
+
+    public void testAllFiles() {
+        assertEquals(36, walk(new FileWalker(dir, false, 1)).size());
+    }
+
+    public void testSingleFile() {
+        List<File> files = walk(new FileWalker(new File(dir, "top.rdf"), true, 1));
+        assertEquals(1, files.size());
+    }
+
+    private List<File> walk(FileWalker walker) {
+        List<File> files = new ArrayList<File>();
+        while (walker.hasNext()) {
+            files.add(walker.next());
+        }
+        assertEquals(files.size(), walker.getCount());
+        return files;
+    }
+
+    private void recursiveWalk(File parent, List<File> files) {
+        for (File entry : parent.listFiles()) {
+            if (entry.getName().endsWith(".svn") || entry.getName().endsWith(".git")) {
+                continue;
+            }
+            if (entry.isDirectory()) {
+                recursiveWalk(entry, files);
+            } else if (entry.getName().endsWith(".rdf") || entry.getName().endsWith(".xml")) {
+                files.add(entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+public class IndexCheckpointTest extends TestCase {
+    private File dir;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = new File("target", "checkpoint_test");
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+        super.tearDown();
+    }
+
+    public void testOutOfOrderAcknowledgement() throws Exception {
+        File a = new File(dir, "a.rdf");
+        File b = new File(dir, "b.rdf");
+        File cpFile = new File(dir, "test_checkpoint.txt");
+
+        IndexCheckpoint checkpoint = new IndexCheckpoint(cpFile);
+        checkpoint.open(false);
+        long first = checkpoint.batchQueued();
+        long second = checkpoint.batchQueued();
+
+        // the second batch is confirmed first; nothing may be recorded yet
+        checkpoint.batchPosted(second, Arrays.asList(b));
+        assertFalse(checkpoint.isDone(b));
+
+        checkpoint.batchPosted(first, Arrays.asList(a));
+        assertTrue(checkpoint.isDone(a));
+        assertTrue(checkpoint.isDone(b));
+    }
+
+    public void testResume() throws Exception {
+        File a = new File(dir, "a.rdf");
+        File b = new File(dir, "b.rdf");
+        File cpFile = new File(dir, "test_checkpoint.txt");
+
+        // interrupted run: the second batch never gets confirmed
+        IndexCheckpoint checkpoint = new IndexCheckpoint(cpFile);
+        checkpoint.open(false);
+        checkpoint.batchPosted(checkpoint.batchQueued(), Arrays.asList(a));
+        checkpoint.batchQueued();
+        assertFalse(checkpoint.close());
+        assertTrue(cpFile.exists());
+
+        IndexCheckpoint resumed = new IndexCheckpoint(cpFile);
+        resumed.open(true);
+        assertEquals(1, resumed.size());
+        assertTrue(resumed.isDone(a));
+        assertFalse(resumed.isDone(b));
+
+        // a completed run removes the checkpoint
+        resumed.batchPosted(resumed.batchQueued(), Arrays.asList(b));
+        assertTrue(resumed.close());
+        assertFalse(cpFile.exists());
+    }
+}
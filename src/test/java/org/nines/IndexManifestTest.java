@@ -0,0 +1,92 @@
+/** 
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+public class IndexManifestTest extends TestCase {
+    private File dir;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = new File("target", "manifest_test");
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+        super.tearDown();
+    }
+
+    public void testRoundTrip() throws Exception {
+        File rdf = new File(dir, "a.rdf");
+        FileUtils.writeStringToFile(rdf, "<rdf/>", "UTF-8");
+
+        IndexManifest manifest = new IndexManifest(new File(dir, "test_manifest.txt"));
+        manifest.load();
+        assertEquals(0, manifest.size());
+        assertFalse(manifest.isUnchanged(rdf));
+
+        manifest.update(rdf, Arrays.asList("http://foo/1", "http://foo/2"));
+        manifest.save();
+
+        IndexManifest reloaded = new IndexManifest(new File(dir, "test_manifest.txt"));
+        reloaded.load();
+        assertEquals(1, reloaded.size());
+        assertTrue(reloaded.isUnchanged(rdf));
+        assertEquals(new HashSet<String>(Arrays.asList("http://foo/1", "http://foo/2")), reloaded.getAllUris());
+    }
+
+    public void testChangedContent() throws Exception {
+        File rdf = new File(dir, "a.rdf");
+        FileUtils.writeStringToFile(rdf, "<rdf/>", "UTF-8");
+        IndexManifest manifest = new IndexManifest(new File(dir, "test_manifest.txt"));
+        manifest.update(rdf, Arrays.asList("http://foo/1"));
+
+        // touched but identical content is still unchanged
+        rdf.setLastModified(rdf.lastModified() - 10000);
+        assertTrue(manifest.isUnchanged(rdf));
+
+        FileUtils.writeStringToFile(rdf, "<rdf>changed</rdf>", "UTF-8");
+        assertFalse(manifest.isUnchanged(rdf));
+    }
+
+    public void testRemoveMissing() throws Exception {
+        File a = new File(dir, "a.rdf");
+        File b = new File(dir, "b.rdf");
+        FileUtils.writeStringToFile(a, "a", "UTF-8");
+        FileUtils.writeStringToFile(b, "b", "UTF-8");
+        IndexManifest manifest = new IndexManifest(new File(dir, "test_manifest.txt"));
+        manifest.update(a, Arrays.asList("http://foo/a"));
+        manifest.update(b, Arrays.asList("http://foo/b"));
+
+        Set<String> seen = new HashSet<String>();
+        seen.add(a.getAbsolutePath());
+        List<IndexManifest.Entry> removed = manifest.removeMissing(seen);
+        assertEquals(1, removed.size());
+        assertEquals("http://foo/b", removed.get(0).uris.get(0));
+        assertEquals(1, manifest.getAllUris().size());
+    }
+}
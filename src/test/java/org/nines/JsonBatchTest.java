@@ -0,0 +1,157 @@
+/** 
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class JsonBatchTest extends TestCase {
+
+    public void testDocuments() throws Exception {
+        JsonBatch batch = new JsonBatch(16);
+        assertTrue(batch.isEmpty());
+
+        batch.beginDocument();
+        batch.field("uri", new ArrayList<String>(Arrays.asList("http://foo/1")));
+        batch.field("title", new ArrayList<String>(Arrays.asList("A \"quoted\"\ttitle\n", "café  ")));
+        batch.field("date_created", "2013-01-01");
+        batch.endDocument();
+
+        JsonObject ref = new JsonObject();
+        ref.addProperty("uri", "http://foo/2");
+        batch.addDocument(ref, new Gson());
+        batch.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        batch.writeTo(out);
+        assertEquals(out.size(), batch.size());
+        assertEquals(2, batch.getDocumentCount());
+
+        JsonArray docs = new JsonParser().parse(out.toString("UTF-8")).getAsJsonArray();
+        assertEquals(2, docs.size());
+        JsonObject doc = docs.get(0).getAsJsonObject();
+        assertEquals("http://foo/1", doc.getAsJsonArray("uri").get(0).getAsString());
+        assertEquals("A \"quoted\"\ttitle\n", doc.getAsJsonArray("title").get(0).getAsString());
+        assertEquals("café  ", doc.getAsJsonArray("title").get(1).getAsString());
+        assertEquals("2013-01-01", doc.get("date_created").getAsString());
+        assertEquals("http://foo/2", docs.get(1).getAsJsonObject().get("uri").getAsString());
+    }
+
+    public void testTextFiles() throws Exception {
+        File dir = new File("target", "json_batch_test");
+        FileUtils.deleteDirectory(dir);
+        try {
+            StringBuilder text = new StringBuilder();
+            while (text.length() < 20000) {
+                text.append("Line \"").append(text.length()).append("\" caf\u00e9\u2028\\\n");
+            }
+            File textFile = new File(dir, "page.txt");
+            FileUtils.writeStringToFile(textFile, text.toString(), "UTF-8");
+
+            JsonBatch batch = new JsonBatch(16);
+            batch.beginDocument();
+            batch.field("text", new ArrayList<String>(Arrays.asList("inline")), Arrays.asList(textFile));
+            batch.endDocument();
+            batch.beginDocument();
+            try {
+                batch.field("text", new ArrayList<String>(), Arrays.asList(new File(dir, "missing.txt")));
+                fail("missing file was read");
+            } catch (IOException e) {
+                // expected
+            }
+            batch.endDocument();
+            batch.finish();
+
+            JsonArray docs = new JsonParser().parse(new String(toBytes(batch), "UTF-8")).getAsJsonArray();
+            JsonArray values = docs.get(0).getAsJsonObject().getAsJsonArray("text");
+            assertEquals("inline", values.get(0).getAsString());
+            assertEquals(text.toString(), values.get(1).getAsString());
+            assertEquals("", docs.get(1).getAsJsonObject().getAsJsonArray("text").get(0).getAsString());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    public void testAddDocuments() throws Exception {
+        JsonBatch batch = new JsonBatch(16);
+        batch.addDocuments(new JsonBatch(16));
+        assertTrue(batch.isEmpty());
+        for (int i = 0; i < 3; i++) {
+            JsonBatch doc = new JsonBatch(16);
+            doc.beginDocument();
+            doc.field("uri", "http://foo/" + i);
+            doc.field("title", new ArrayList<String>(Arrays.asList("caf\u00e9 " + i)));
+            doc.endDocument();
+            batch.addDocuments(doc);
+        }
+        batch.finish();
+        assertEquals(3, batch.getDocumentCount());
+
+        JsonArray docs = new JsonParser().parse(new String(toBytes(batch), "UTF-8")).getAsJsonArray();
+        assertEquals(3, docs.size());
+        assertEquals("http://foo/2", docs.get(2).getAsJsonObject().get("uri").getAsString());
+        assertEquals("caf\u00e9 1", docs.get(1).getAsJsonObject().getAsJsonArray("title").get(0).getAsString());
+    }
+
+    public void testUnreadableTextFile() throws Exception {
+        Document doc = new Document();
+        doc.add("uri", "http://foo/1");
+        doc.add(NinesStatementHandler.TEXT_FILE, new File("target", "no_such_text.txt").getPath());
+        doc.add("has_full_text", "T");
+        doc.add("title", "One");
+        try {
+            RDFIndexer.docToJson(new JsonBatch(16), doc, "2013-01-01");
+            fail("missing file was read");
+        } catch (IOException e) {
+            // expected
+        }
+
+        JsonBatch batch = new JsonBatch(16);
+        RDFIndexer.docToJson(batch, RDFIndexer.withoutTextFiles(doc), "2013-01-01");
+        batch.finish();
+        JsonObject json = new JsonParser().parse(new String(toBytes(batch), "UTF-8")).getAsJsonArray().get(0)
+            .getAsJsonObject();
+        assertFalse(json.has("text"));
+        assertFalse(json.has(NinesStatementHandler.TEXT_FILE));
+        assertEquals("F", json.getAsJsonArray("has_full_text").get(0).getAsString());
+        assertEquals("One", json.getAsJsonArray("title").get(0).getAsString());
+        assertTrue(doc.has(NinesStatementHandler.TEXT_FILE));
+    }
+
+    public void testEmptyBatch() throws Exception {
+        JsonBatch batch = new JsonBatch(16);
+        batch.finish();
+        assertEquals("[]", new String(toBytes(batch), "UTF-8"));
+    }
+
+    private byte[] toBytes(JsonBatch batch) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        batch.writeTo(out);
+        return out.toByteArray();
+    }
+}
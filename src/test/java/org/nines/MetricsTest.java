@@ -0,0 +1,74 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import junit.framework.TestCase;
+
+import com.google.gson.JsonObject;
+
+public class MetricsTest extends TestCase {
+
+    public void testPercentiles() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.update(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        assertWithin(500, histogram.getPercentile(50));
+        assertWithin(950, histogram.getPercentile(95));
+        assertWithin(990, histogram.getPercentile(99));
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    public void testBuckets() {
+        long[] values = { 0, 1, 15, 16, 17, 100, 1000000, Long.MAX_VALUE };
+        for (long v : values) {
+            int bucket = Metrics.Histogram.bucket(v);
+            assertTrue(v + " above its bucket", v <= Metrics.Histogram.upperBound(bucket));
+            if (bucket > 0) {
+                assertTrue(v + " below its bucket", v > Metrics.Histogram.upperBound(bucket - 1));
+            }
+        }
+    }
+
+    public void testSummary() {
+        Metrics.reset();
+        Metrics.counter("test.docs").add(500);
+        Metrics.Timer timer = Metrics.timer("test.stage");
+        timer.update(2000000);
+        timer.update(4000000);
+
+        JsonObject json = Metrics.summary(10000);
+        JsonObject docs = json.getAsJsonObject("counters").getAsJsonObject("test.docs");
+        assertEquals(500, docs.get("count").getAsLong());
+        assertEquals(50.0, docs.get("per_sec").getAsDouble(), 0.001);
+        JsonObject stage = json.getAsJsonObject("timers").getAsJsonObject("test.stage");
+        assertEquals(2, stage.get("count").getAsLong());
+        assertEquals(6.0, stage.get("total_ms").getAsDouble(), 0.001);
+        assertEquals(4.0, stage.get("max_ms").getAsDouble(), 0.001);
+
+        Metrics.reset();
+        assertEquals(0, Metrics.counter("test.docs").get());
+        assertEquals(0, Metrics.timer("test.stage").getCount());
+    }
+
+    // bucketed percentiles are accurate to within one bucket (1/8 of a power of two)
+    private void assertWithin(long expected, long actual) {
+        assertTrue("expected about " + expected + " got " + actual, Math.abs(actual - expected) <= expected / 8);
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.openrdf.model.Statement;
+import org.openrdf.rio.ParseErrorListener;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.helpers.StatementCollector;
+import org.openrdf.rio.ntriples.NTriplesParser;
+
+public class NTriplesLineParserTest extends TestCase {
+
+    private static final String TRIPLES = "# a comment\n"
+        + "<http://foo/doc1> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://www.collex.org/schema#nines> .\n"
+        + "\n"
+        + "<http://foo/doc1> <http://purl.org/dc/elements/1.1/title> \"The \\\"Blessed\\\" Damozel\\n\\tpart \\u00e6\" .\n"
+        + "\t<http://foo/doc1>  <http://purl.org/dc/elements/1.1/title>\t\"Title\"@en-GB .\n"
+        + "<http://foo/doc1> <http://purl.org/dc/elements/1.1/date> \"1870\"^^<http://www.w3.org/2001/XMLSchema#string> .\n"
+        + "<http://foo/doc1> <http://www.collex.org/schema#date> _:date1 .\n"
+        + "_:date1 <http://www.w3.org/2000/01/rdf-schema#label> \"\\U000000e6 back\\\\slash\" .\n"
+        + "<http://foo/doc\\u0032> <http://www.w3.org/2000/01/rdf-schema#seeAlso> <http://foo/doc1> .\n"
+        + "<http://foo/doc2> <http://purl.org/dc/elements/1.1/title> \"\" .\n";
+
+    public void testMatchesRio() throws Exception {
+        assertEquals(parse(new NTriplesParser(), TRIPLES), parse(new NTriplesLineParser(), TRIPLES));
+    }
+
+    public void testErrors() throws Exception {
+        String input = "<http://foo/doc1> <http://purl.org/dc/elements/1.1/title> \"unterminated .\n"
+            + "<http://foo/doc1> <http://purl.org/dc/elements/1.1/title> \"bad \\q escape\" .\n"
+            + "<http://foo/doc1> <http://purl.org/dc/elements/1.1/title> \"no dot\"\n"
+            + "<http://foo/doc1> <http://purl.org/dc/elements/1.1/title> \"good\" .\n";
+        final List<Integer> errorLines = new ArrayList<Integer>();
+        NTriplesLineParser parser = new NTriplesLineParser();
+        parser.setStopAtFirstError(false);
+        parser.setParseErrorListener(new ParseErrorListener() {
+            public void warning(String msg, int lineNo, int colNo) {
+            }
+
+            public void error(String msg, int lineNo, int colNo) {
+                errorLines.add(lineNo);
+            }
+
+            public void fatalError(String msg, int lineNo, int colNo) {
+                errorLines.add(lineNo);
+            }
+        });
+        List<String> statements = parse(parser, input);
+        assertEquals(1, statements.size());
+        assertTrue(statements.get(0).contains("\"good\""));
+        assertEquals(3, errorLines.size());
+        assertEquals(Integer.valueOf(1), errorLines.get(0));
+        assertEquals(Integer.valueOf(3), errorLines.get(2));
+    }
+
+    private static List<String> parse(final RDFParser parser, final String input) throws Exception {
+        StatementCollector collector = new StatementCollector();
+        parser.setRDFHandler(collector);
+        parser.setPreserveBNodeIDs(true);
+        parser.parse(new StringReader(input), "http://foo/");
+        List<String> statements = new ArrayList<String>();
+        for (Statement statement : collector.getStatements()) {
+            statements.add(statement.getSubject() + " " + statement.getPredicate() + " " + statement.getObject()
+                + " " + statement.getObject().getClass().getSimpleName());
+        }
+        return statements;
+    }
+}
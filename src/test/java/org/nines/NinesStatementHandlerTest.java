@@ -19,12 +19,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import junit.framework.TestCase;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.util.PDFTextStripper;
 import org.junit.Test;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
 
 public class NinesStatementHandlerTest extends TestCase {
     private NinesStatementHandler sh;
@@ -55,15 +59,15 @@ public class NinesStatementHandlerTest extends TestCase {
     }
 
     public void testAddField() {
-        HashMap<String, ArrayList<String>> map = new HashMap<String, ArrayList<String>>();
+        Document map = new Document();
 
         sh.addField(map, "Genre", "Poetry");
-        assertTrue(map.containsKey("Genre"));
-        ArrayList<String> values = map.get("Genre");
+        assertTrue(map.has("Genre"));
+        List<String> values = map.get("Genre");
         assertTrue(values.size() == 1);
 
         sh.addField(map, "Genre", "Primary");
-        assertTrue(map.containsKey("Genre"));
+        assertTrue(map.has("Genre"));
         values = map.get("Genre");
         assertTrue(values.size() == 2);
     }
@@ -89,4 +93,69 @@ public class NinesStatementHandlerTest extends TestCase {
         assertEquals(1, years.size());
         assertEquals("Uncertain", years.get(0));
     }
+
+    public void testDocumentSink() throws Exception {
+        RDFIndexerConfig config = new RDFIndexerConfig();
+        config.archiveName = "rossetti";
+        NinesStatementHandler handler = new NinesStatementHandler(errorReport, new LinkCollector(), config);
+        handler.setFile(new File("test.rdf"));
+        final List<String> finished = new ArrayList<String>();
+        handler.setDocumentSink(new DocumentSink() {
+            public void document(String uri, Document document) {
+                assertEquals("F", document.getFirst("has_full_text"));
+                finished.add(uri);
+            }
+        });
+
+        ValueFactory vf = ValueFactoryImpl.getInstance();
+        URI type = vf.createURI("http://www.w3.org/1999/02/22-rdf-syntax-ns#type");
+        URI title = vf.createURI("http://purl.org/dc/elements/1.1/title");
+        URI doc1 = vf.createURI("http://foo/doc1");
+        URI doc2 = vf.createURI("http://foo/doc2");
+        handler.handleStatement(vf.createStatement(doc1, type, vf.createURI("http://www.collex.org/schema#nines")));
+        handler.handleStatement(vf.createStatement(doc1, title, vf.createLiteral("One")));
+        assertTrue(finished.isEmpty());
+
+        // the first document is passed on when the second starts...
+        handler.handleStatement(vf.createStatement(doc2, type, vf.createURI("http://www.collex.org/schema#nines")));
+        assertEquals(1, finished.size());
+        assertEquals("http://foo/doc1", finished.get(0));
+
+        // ... and the last at the end of the file
+        handler.handleStatement(vf.createStatement(doc2, title, vf.createLiteral("Two")));
+        handler.endRDF();
+        assertEquals(2, finished.size());
+        assertEquals("http://foo/doc2", finished.get(1));
+        handler.finish();
+        assertEquals(2, finished.size());
+    }
+
+    public void testReset() throws Exception {
+        RDFIndexerConfig config = new RDFIndexerConfig();
+        config.archiveName = "rossetti";
+        NinesStatementHandler handler = new NinesStatementHandler(errorReport, new LinkCollector(), config);
+        ValueFactory vf = ValueFactoryImpl.getInstance();
+        URI type = vf.createURI("http://www.w3.org/1999/02/22-rdf-syntax-ns#type");
+        URI title = vf.createURI("http://purl.org/dc/elements/1.1/title");
+        URI doc1 = vf.createURI("http://foo/doc1");
+
+        handler.reset(new File("one.rdf"));
+        handler.handleStatement(vf.createStatement(doc1, type, vf.createURI("http://www.collex.org/schema#nines")));
+        handler.handleStatement(vf.createStatement(doc1, title, vf.createLiteral("One")));
+        HashMap<String, Document> first = handler.getDocuments();
+        assertEquals(1, first.size());
+
+        // the same object in the next file is not a duplicate, and the first
+        // file's documents are left alone
+        int errors = errorReport.getErrorCount();
+        handler.reset(new File("two.rdf"));
+        assertTrue(handler.getDocuments().isEmpty());
+        handler.handleStatement(vf.createStatement(doc1, type, vf.createURI("http://www.collex.org/schema#nines")));
+        handler.handleStatement(vf.createStatement(doc1, title, vf.createLiteral("Two")));
+        handler.endRDF();
+        assertEquals(errors, errorReport.getErrorCount());
+        assertEquals("Two", handler.getDocuments().get("http://foo/doc1").getFirst("title"));
+        assertEquals("One", first.get("http://foo/doc1").getFirst("title"));
+        assertEquals(1, first.get("http://foo/doc1").get("title").size());
+    }
 }
@@ -0,0 +1,188 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+public class ParseCacheTest extends TestCase {
+    private File dir;
+    private RDFIndexerConfig config;
+    private LinkCollector linkCollector;
+
+    private static final String RDF = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+        + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\""
+        + " xmlns:role=\"http://www.loc.gov/loc.terms/relators/\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\""
+        + " xmlns:collex=\"http://www.collex.org/schema#\" xmlns:rdfs=\"http://www.w3.org/2000/01/rdf-schema#\""
+        + " xmlns:test=\"http://www.patacriticism.org/test/schema#\">\n"
+        + "  <test:works rdf:about=\"http://www.patacriticism.org/test/one\">\n"
+        + "    <collex:archive>test</collex:archive>\n"
+        + "    <dc:title>TITLE</dc:title>\n"
+        + "    <role:AUT>Rossetti, Dante Gabriel</role:AUT>\n"
+        + "    <collex:genre>Poetry</collex:genre>\n"
+        + "    <collex:unknown>reported</collex:unknown>\n"
+        + "    <dc:date>1870</dc:date>\n"
+        + "    <rdfs:seeAlso rdf:resource=\"http://www.rossettiarchive.org/one\"/>\n"
+        + "  </test:works>\n"
+        + "  <test:works rdf:about=\"http://www.patacriticism.org/test/two\">\n"
+        + "    <collex:archive>test</collex:archive>\n"
+        + "    <dc:title>Second</dc:title>\n"
+        + "    <dc:date>184u</dc:date>\n"
+        + "  </test:works>\n"
+        + "</rdf:RDF>\n";
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = new File("target", "parsecache_test");
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        config = new RDFIndexerConfig();
+        config.archiveName = "test";
+        config.mode = RDFIndexerConfig.Mode.TEST;
+        linkCollector = new LinkCollector(new File(dir, "test").getPath());
+    }
+
+    protected void tearDown() throws Exception {
+        linkCollector.close();
+        FileUtils.deleteDirectory(dir);
+        super.tearDown();
+    }
+
+    public void testReplay() throws Exception {
+        File rdf = writeRdf("works.rdf", "The Blessed Damozel");
+        File expectedLinks = new File(dir, "test_link_data.txt");
+
+        // parsed without the cache, then into it, then out of it
+        Run plain = parse(rdf, "plain.txt");
+        String links = FileUtils.readFileToString(expectedLinks, "UTF-8");
+        assertTrue(links.contains("http://www.rossettiarchive.org/one"));
+        config.parseCache = new ParseCache(new File(dir, "cache"), 1000000, config);
+        long hits = Metrics.counter("parse.cache.hit").get();
+        Run recorded = parse(rdf, "recorded.txt");
+        Run replayed = parse(rdf, "replayed.txt");
+        assertEquals(hits + 1, Metrics.counter("parse.cache.hit").get());
+
+        assertEquals(2, plain.count);
+        assertTrue(plain.report.contains("Collex does not support this property"));
+        for (Run run : new Run[] { recorded, replayed }) {
+            assertEquals(plain.count, run.count);
+            assertEquals(plain.uris, run.uris);
+            assertEquals(plain.fields, run.fields);
+            assertEquals(plain.report, run.report);
+        }
+        assertEquals(links + links + links, FileUtils.readFileToString(expectedLinks, "UTF-8"));
+    }
+
+    public void testChangedFile() throws Exception {
+        config.parseCache = new ParseCache(new File(dir, "cache"), 1000000, config);
+        File rdf = writeRdf("works.rdf", "Before");
+        parse(rdf, "before.txt");
+        long hits = Metrics.counter("parse.cache.hit").get();
+
+        // same content, new time: still cached
+        assertTrue(rdf.setLastModified(rdf.lastModified() - 60000));
+        assertTrue(parse(rdf, "touched.txt").fields.toString().contains("Before"));
+        assertEquals(hits + 1, Metrics.counter("parse.cache.hit").get());
+
+        // same size, new content
+        writeRdf("works.rdf", "Behind");
+        assertTrue(rdf.setLastModified(rdf.lastModified() - 120000));
+        assertTrue(parse(rdf, "after.txt").fields.toString().contains("Behind"));
+        assertEquals(hits + 1, Metrics.counter("parse.cache.hit").get());
+
+        // a new archive name misses
+        config.archiveName = "other";
+        config.parseCache = new ParseCache(new File(dir, "cache"), 1000000, config);
+        parse(rdf, "other.txt");
+        assertEquals(hits + 1, Metrics.counter("parse.cache.hit").get());
+    }
+
+    /**
+     * Errors reported downstream of the parser are not part of the entry
+     */
+    public void testSinkErrorsNotRecorded() throws Exception {
+        config.parseCache = new ParseCache(new File(dir, "cache"), 1000000, config);
+        File rdf = writeRdf("works.rdf", "Title");
+        for (int i = 0; i < 2; i++) {
+            File reportFile = new File(dir, "sink" + i + ".txt");
+            final ErrorReport errorReport = new ErrorReport(reportFile);
+            RdfDocumentParser.parse(rdf, errorReport, linkCollector, config, new DocumentSink() {
+                public void document(String uri, Document document) {
+                    errorReport.addError(new IndexerError("sink", uri, "downstream"));
+                }
+            });
+            errorReport.close();
+            String report = FileUtils.readFileToString(reportFile, "UTF-8");
+            assertEquals(report, 2, report.split("downstream", -1).length - 1);
+        }
+    }
+
+    public void testEviction() throws Exception {
+        File cacheDir = new File(dir, "cache");
+        config.parseCache = new ParseCache(cacheDir, 8000, config);
+        for (int i = 0; i < 20; i++) {
+            parse(writeRdf("works" + i + ".rdf", "Title " + i), "report" + i + ".txt");
+        }
+        long total = 0;
+        for (File file : cacheDir.listFiles()) {
+            total += file.length();
+        }
+        assertTrue(total > 0);
+        assertTrue("cache holds " + total, total <= 8000);
+        assertTrue(cacheDir.listFiles().length < 20);
+    }
+
+    public void testBuildStamp() throws Exception {
+        String stamp = ParseCache.buildStamp();
+        assertTrue(stamp, stamp.matches(".*/[0-9a-f]{40}"));
+        assertEquals(stamp, ParseCache.buildStamp());
+    }
+
+    private File writeRdf(String name, String title) throws Exception {
+        File file = new File(dir, name);
+        FileUtils.writeStringToFile(file, RDF.replace("TITLE", title), "UTF-8");
+        return file;
+    }
+
+    private Run parse(File rdf, String reportName) throws Exception {
+        File reportFile = new File(dir, reportName);
+        ErrorReport errorReport = new ErrorReport(reportFile);
+        final Run run = new Run();
+        run.count = RdfDocumentParser.parse(rdf, errorReport, linkCollector, config, new DocumentSink() {
+            public void document(String uri, Document document) {
+                run.uris.add(uri);
+                for (int i = 0; i < document.size(); i++) {
+                    run.fields.add(document.name(i) + "=" + document.values(i));
+                }
+            }
+        });
+        errorReport.close();
+        run.report = FileUtils.readFileToString(reportFile, "UTF-8");
+        return run;
+    }
+
+    private static final class Run {
+        int count;
+        List<String> uris = new ArrayList<String>();
+        List<String> fields = new ArrayList<String>();
+        String report;
+    }
+}
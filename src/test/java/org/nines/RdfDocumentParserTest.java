@@ -16,12 +16,28 @@
 package org.nines;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 import junit.framework.TestCase;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.openrdf.model.Statement;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFWriter;
+import org.openrdf.rio.helpers.StatementCollector;
+import org.openrdf.rio.nquads.NQuadsWriter;
+import org.openrdf.rio.ntriples.NTriplesWriter;
+import org.openrdf.rio.rdfxml.RDFXMLParser;
+import org.openrdf.rio.turtle.TurtleWriter;
+
 public class RdfDocumentParserTest extends TestCase {
     private ErrorReport errorReport;
 
@@ -53,8 +69,183 @@ public class RdfDocumentParserTest extends TestCase {
         assertEquals(7, errorReport.getErrorCount());
     }
 
-    private HashMap<String, HashMap<String, ArrayList<String>>> parse(String filename) throws IOException {
+    private HashMap<String, Document> parse(String filename) throws IOException {
         return RdfDocumentParser.parse(new File(System.getProperty("test.data.dir"), filename), errorReport,
             new LinkCollector(), new RDFIndexerConfig());
     }
+
+    public void testSinkFailure() throws Exception {
+        File dir = new File("target", "rdfparser_sink_test");
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        try {
+            File rdfFile = new File(dir, "works.rdf");
+            FileUtils.writeStringToFile(rdfFile, "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\""
+                + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:collex=\"http://www.collex.org/schema#\""
+                + " xmlns:test=\"http://www.patacriticism.org/test/schema#\">\n"
+                + "  <test:works rdf:about=\"http://www.patacriticism.org/test/one\">\n"
+                + "    <collex:archive>test</collex:archive>\n"
+                + "    <dc:title>One</dc:title>\n"
+                + "  </test:works>\n"
+                + "  <test:works rdf:about=\"http://www.patacriticism.org/test/two\">\n"
+                + "    <collex:archive>test</collex:archive>\n"
+                + "    <dc:title>Two</dc:title>\n"
+                + "  </test:works>\n"
+                + "</rdf:RDF>\n", "UTF-8");
+            File reportFile = new File(dir, "report.txt");
+            ErrorReport report = new ErrorReport(reportFile);
+            RDFIndexerConfig config = new RDFIndexerConfig();
+            config.archiveName = "test";
+            final IllegalStateException failure = new IllegalStateException("sink is full");
+            try {
+                RdfDocumentParser.parse(rdfFile, report, new LinkCollector(), config, new DocumentSink() {
+                    public void document(String uri, Document document) {
+                        throw failure;
+                    }
+                });
+                fail("sink failure was swallowed");
+            } catch (IllegalStateException e) {
+                assertSame(failure, e);
+            }
+            report.close();
+            String text = FileUtils.readFileToString(reportFile, "UTF-8");
+            assertFalse(text, text.contains("sink is full"));
+            assertFalse(text, text.contains("RDF Parser Error"));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    public void testRepeatedUri() throws Exception {
+        File dir = new File("target", "rdfparser_repeat_test");
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        try {
+            File rdfFile = new File(dir, "works.rdf");
+            FileUtils.writeStringToFile(rdfFile, "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\""
+                + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:collex=\"http://www.collex.org/schema#\""
+                + " xmlns:test=\"http://www.patacriticism.org/test/schema#\">\n"
+                + "  <test:works rdf:about=\"http://www.patacriticism.org/test/one\">\n"
+                + "    <collex:archive>test</collex:archive>\n"
+                + "    <dc:title>First</dc:title>\n"
+                + "  </test:works>\n"
+                + "  <test:works rdf:about=\"http://www.patacriticism.org/test/one\">\n"
+                + "    <collex:archive>test</collex:archive>\n"
+                + "    <dc:title>Second</dc:title>\n"
+                + "  </test:works>\n"
+                + "  <test:works rdf:about=\"http://www.patacriticism.org/test/two\">\n"
+                + "    <collex:archive>test</collex:archive>\n"
+                + "    <dc:title>Two</dc:title>\n"
+                + "  </test:works>\n"
+                + "</rdf:RDF>\n", "UTF-8");
+            File reportFile = new File(dir, "report.txt");
+            ErrorReport report = new ErrorReport(reportFile);
+            RDFIndexerConfig config = new RDFIndexerConfig();
+            config.archiveName = "test";
+            final List<String> titles = new ArrayList<String>();
+            int count = RdfDocumentParser.parse(rdfFile, report, new LinkCollector(), config, new DocumentSink() {
+                public void document(String uri, Document document) {
+                    titles.add(document.getFirst("title"));
+                }
+            });
+            report.close();
+            assertEquals(Arrays.asList("Second", "Two"), titles);
+            assertEquals(2, count);
+            String text = FileUtils.readFileToString(reportFile, "UTF-8");
+            assertTrue(text, text.contains("Duplicate URI"));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    public void testFormatOf() {
+        assertEquals(RDFFormat.RDFXML, RdfDocumentParser.formatOf("a.rdf"));
+        assertEquals(RDFFormat.RDFXML, RdfDocumentParser.formatOf("a.XML"));
+        assertEquals(RDFFormat.NTRIPLES, RdfDocumentParser.formatOf("a.nt"));
+        assertEquals(RDFFormat.TURTLE, RdfDocumentParser.formatOf("a.b.ttl"));
+        assertEquals(RDFFormat.NQUADS, RdfDocumentParser.formatOf("a.nq"));
+        assertEquals(RDFFormat.RDFXML, RdfDocumentParser.formatOf("README"));
+        assertTrue(RdfDocumentParser.isRdfFile("a.nt"));
+        assertFalse(RdfDocumentParser.isRdfFile("a.txt"));
+    }
+
+    public void testOtherFormats() throws Exception {
+        File dir = new File("target", "rdfparser_test");
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        try {
+            String rdf = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\""
+                + " xmlns:rdfs=\"http://www.w3.org/2000/01/rdf-schema#\" xmlns:role=\"http://www.loc.gov/loc.terms/relators/\""
+                + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:collex=\"http://www.collex.org/schema#\""
+                + " xmlns:test=\"http://www.patacriticism.org/test/schema#\">\n"
+                + "  <test:works rdf:about=\"http://www.patacriticism.org/test/one\">\n"
+                + "    <collex:archive>test</collex:archive>\n"
+                + "    <dc:title>The \"Blessed\" Damozel &amp; other\n  Poems</dc:title>\n"
+                + "    <role:AUT>Rossetti, Dante Gabriel</role:AUT>\n"
+                + "    <collex:genre>Poetry</collex:genre>\n"
+                + "    <collex:genre>Primary</collex:genre>\n"
+                + "    <dc:date><collex:date><rdfs:label>Mid century</rdfs:label><rdf:value>1850,1852</rdf:value>"
+                + "</collex:date></dc:date>\n"
+                + "    <collex:freeculture>false</collex:freeculture>\n"
+                + "  </test:works>\n"
+                + "  <test:works rdf:about=\"http://www.patacriticism.org/test/two\">\n"
+                + "    <collex:archive>test</collex:archive>\n"
+                + "    <dc:title>Second \u00e6sthetic</dc:title>\n"
+                + "    <dc:date>184u</dc:date>\n"
+                + "  </test:works>\n"
+                + "</rdf:RDF>\n";
+            File rdfFile = new File(dir, "works.rdf");
+            FileUtils.writeStringToFile(rdfFile, rdf, "UTF-8");
+
+            StatementCollector statements = new StatementCollector();
+            RDFXMLParser parser = new RDFXMLParser();
+            parser.setRDFHandler(statements);
+            parser.parse(new StringReader(rdf), "http://foo/works.rdf");
+
+            RDFIndexerConfig config = new RDFIndexerConfig();
+            config.archiveName = "test";
+            HashMap<String, Document> expected = RdfDocumentParser.parse(rdfFile, errorReport, new LinkCollector(),
+                config);
+            assertEquals(2, expected.size());
+
+            File[] files = { new File(dir, "works.nt"), new File(dir, "works.ttl"), new File(dir, "works.nq") };
+            for (File file : files) {
+                OutputStream out = new FileOutputStream(file);
+                try {
+                    RDFWriter writer;
+                    if (file.getName().endsWith(".nt")) {
+                        writer = new NTriplesWriter(out);
+                    } else if (file.getName().endsWith(".ttl")) {
+                        writer = new TurtleWriter(out);
+                    } else {
+                        writer = new NQuadsWriter(out);
+                    }
+                    writer.startRDF();
+                    for (Statement statement : statements.getStatements()) {
+                        writer.handleStatement(statement);
+                    }
+                    writer.endRDF();
+                } finally {
+                    IOUtils.closeQuietly(out);
+                }
+
+                HashMap<String, Document> parsed = RdfDocumentParser.parse(file, errorReport, new LinkCollector(),
+                    config);
+                assertEquals(file.getName(), expected.keySet(), parsed.keySet());
+                for (String uri : expected.keySet()) {
+                    Document want = expected.get(uri);
+                    Document got = parsed.get(uri);
+                    assertEquals(file.getName(), want.names(), got.names());
+                    for (int i = 0; i < want.size(); i++) {
+                        assertEquals(file.getName() + " " + want.name(i), want.values(i), got.values(i));
+                    }
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
 }
@@ -0,0 +1,362 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class SolrClientTest extends TestCase {
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private SolrClient client;
+    private final List<String> acceptEncodings = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> queries = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Integer> statuses = Collections.synchronizedList(new ArrayList<Integer>());
+    private int statusRequests = 0;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/core/select", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                acceptEncodings.add(String.valueOf(accept));
+                respond(exchange, "{\"response\":{\"docs\":[{\"uri\":\"http://foo/1\"},{\"uri\":\"http://foo/2\"}]}}",
+                    accept != null && accept.contains("gzip"));
+            }
+        });
+        server.createContext("/core/update/json", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    in = new GZIPInputStream(in);
+                }
+                bodies.add(IOUtils.toString(in, "UTF-8"));
+                respond(exchange, "{\"responseHeader\":{\"status\":0}}", false);
+            }
+        });
+        // seven documents, paged by cursor mark or, like an old solr, only by start
+        server.createContext("/cursor/select", new PagingHandler(true));
+        server.createContext("/old/select", new PagingHandler(false));
+        // answers with the queued statuses, then with 200
+        server.createContext("/status/update/json", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                IOUtils.toString(exchange.getRequestBody(), "UTF-8");
+                statusRequests++;
+                int status = statuses.isEmpty() ? 200 : statuses.remove(0);
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            }
+        });
+        // posts take a while; records each request as it completes
+        server.createContext("/slow/update/json", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String body = IOUtils.toString(exchange.getRequestBody(), "UTF-8");
+                boolean commit = body.contains("commit");
+                if (commit == false) {
+                    try {
+                        Thread.sleep(300);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                bodies.add(commit ? "commit" : "post");
+                respond(exchange, "{\"responseHeader\":{\"status\":0}}", false);
+            }
+        });
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+        client = new SolrClient("http://127.0.0.1:" + server.getAddress().getPort());
+        client.setTimeouts(5000, 5000);
+        client.setRetryPolicy(new RetryPolicy(2, 1, 10));
+    }
+
+    protected void tearDown() throws Exception {
+        client.shutdown();
+        server.stop(0);
+        serverThreads.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testGzippedResponsesOnPooledConnection() throws Exception {
+        long opened = Metrics.counter("solr.connections.opened").get();
+        long reused = Metrics.counter("solr.connections.reused").get();
+        for (int i = 0; i < 3; i++) {
+            List<JsonObject> page = client.getResultsPage("core", "test", i, 2, "uri", null, null);
+            assertEquals(2, page.size());
+            assertEquals("http://foo/2", page.get(1).get("uri").getAsString());
+        }
+        assertEquals(3, acceptEncodings.size());
+        assertEquals("gzip", acceptEncodings.get(0));
+        assertEquals(opened + 1, Metrics.counter("solr.connections.opened").get());
+        assertEquals(reused + 2, Metrics.counter("solr.connections.reused").get());
+    }
+
+    public void testGzippedRequests() throws Exception {
+        String json = "[{\"uri\":\"http://foo/1\",\"title\":\"The Blessed Damozel\"}]";
+        client.postJSON(json, "core");
+        client.setCompressRequests(true);
+        long sent = Metrics.counter("solr.bytes.sent").get();
+        client.postJSON(json, "core");
+        assertEquals(2, bodies.size());
+        assertEquals(json, bodies.get(0));
+        assertEquals(json, bodies.get(1));
+        assertTrue(Metrics.counter("solr.bytes.sent").get() > sent);
+    }
+
+    public void testRetryUntilAvailable() throws Exception {
+        long retries = Metrics.counter("solr.retries").get();
+        statuses.addAll(Arrays.asList(503, 502));
+        client.postJSON("[]", "status");
+        assertEquals(3, statusRequests);
+        assertEquals(retries + 2, Metrics.counter("solr.retries").get());
+    }
+
+    public void testRetriesExhausted() throws Exception {
+        statuses.addAll(Arrays.asList(503, 503, 503, 503));
+        try {
+            client.postJSON("[]", "status");
+            fail("expected the post to fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("503"));
+        }
+        assertEquals(3, statusRequests);
+    }
+
+    public void testNoRetryOnBadRequest() throws Exception {
+        statuses.add(400);
+        try {
+            client.postJSON("[]", "status");
+            fail("expected the post to fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("400"));
+        }
+        assertEquals(1, statusRequests);
+    }
+
+    public void testFailureReportedThroughFuture() throws Exception {
+        AsyncPoster poster = new AsyncPoster(1);
+        JsonBatch batch = new JsonBatch(1024);
+        batch.beginDocument();
+        batch.field("uri", "http://foo/1");
+        batch.endDocument();
+        batch.finish();
+        statuses.add(400);
+        Future<?> failed = poster.asyncPost(client, "status", batch);
+        Future<?> committed = poster.asyncCommit(client, "status");
+        poster.waitForPending();
+        try {
+            failed.get();
+            fail("expected the post to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertNull(committed.get());
+        assertEquals(1, poster.getFailedCount());
+        poster.shutdown();
+    }
+
+    public void testCommitWaitsForEarlierPosts() throws Exception {
+        AsyncPoster poster = new AsyncPoster(2);
+        JsonBatch batch = new JsonBatch(1024);
+        batch.beginDocument();
+        batch.field("uri", "http://foo/1");
+        batch.endDocument();
+        batch.finish();
+        poster.asyncPost(client, "slow", batch);
+        poster.asyncCommit(client, "slow").get();
+        assertEquals(Arrays.asList("post", "commit"), bodies);
+        poster.shutdown();
+    }
+
+    public void testCursor() throws Exception {
+        assertEquals(Arrays.asList("d0", "d1", "d2", "d3", "d4", "d5", "d6"), readAll("cursor", 3));
+        assertEquals(3, queries.size());
+        assertEquals("*", params(queries.get(0)).get("cursorMark"));
+        assertEquals("d2", params(queries.get(1)).get("cursorMark"));
+        assertNull(params(queries.get(1)).get("start"));
+
+        // a full last page takes one more request to find the end
+        queries.clear();
+        assertEquals(7, readAll("cursor", 7).size());
+        assertEquals(2, queries.size());
+    }
+
+    public void testCursorWithoutCursorSupport() throws Exception {
+        assertEquals(Arrays.asList("d0", "d1", "d2", "d3", "d4", "d5", "d6"), readAll("old", 3));
+        assertEquals("3", params(queries.get(1)).get("start"));
+        assertEquals("6", params(queries.get(2)).get("start"));
+    }
+
+    public void testOffsetPage() throws Exception {
+        List<JsonObject> page = client.getResultsPage("old", "test", 2, 3, "uri", null, null);
+        assertEquals(1, page.size());
+        assertEquals("d6", page.get(0).get("uri").getAsString());
+    }
+
+    public void testTextLimit() throws Exception {
+        String json = "{\"responseHeader\":{\"status\":0,\"params\":{\"q\":\"archive:x\"}},"
+            + "\"response\":{\"numFound\":2,\"start\":0,\"docs\":["
+            + "{\"uri\":\"d0\",\"text\":\"The Blessed Damozel\",\"title\":[\"One\",\"Two\"]},"
+            + "{\"text\":[\"leaned out\",\"From the gold bar\"],\"uri\":\"d1\",\"year\":[1870]}]},"
+            + "\"nextCursorMark\":\"d1\"}";
+
+        List<JsonObject> all = read(json, SolrClient.TEXT_ALL, 2);
+        assertEquals("The Blessed Damozel", all.get(0).get("text").getAsString());
+        assertEquals("Two", all.get(0).getAsJsonArray("title").get(1).getAsString());
+        assertEquals(1870, all.get(1).getAsJsonArray("year").get(0).getAsInt());
+
+        List<JsonObject> skipped = read(json, SolrClient.TEXT_SKIP, 2);
+        assertFalse(skipped.get(0).has("text"));
+        assertFalse(skipped.get(1).has("text"));
+        assertEquals("d1", skipped.get(1).get("uri").getAsString());
+        assertEquals(all.get(0).get("title"), skipped.get(0).get("title"));
+
+        List<JsonObject> cut = read(json, 5, 2);
+        assertEquals("The B", cut.get(0).get("text").getAsString());
+        assertEquals("leane", cut.get(1).getAsJsonArray("text").get(0).getAsString());
+        assertEquals("From ", cut.get(1).getAsJsonArray("text").get(1).getAsString());
+    }
+
+    public void testCursorHandler() throws Exception {
+        SolrClient.ResultCursor cursor = client.getResults("cursor", "test", 4, "uri", null, null);
+        final List<String> uris = new ArrayList<String>();
+        SolrClient.ResultHandler handler = new SolrClient.ResultHandler() {
+            public void document(JsonObject doc) {
+                uris.add(doc.get("uri").getAsString());
+            }
+        };
+        assertEquals(4, cursor.nextPage(handler));
+        assertEquals(3, cursor.nextPage(handler));
+        assertFalse(cursor.hasMore());
+        assertEquals(0, cursor.nextPage(handler));
+        assertEquals(Arrays.asList("d0", "d1", "d2", "d3", "d4", "d5", "d6"), uris);
+    }
+
+    private static List<JsonObject> read(String json, int textLimit, int count) throws IOException {
+        final List<JsonObject> docs = new ArrayList<JsonObject>();
+        SolrClient.Response response = SolrClient.readResponse(new StringReader(json), textLimit,
+            new SolrClient.ResultHandler() {
+                public void document(JsonObject doc) {
+                    docs.add(doc);
+                }
+            });
+        assertEquals(count, response.count);
+        assertEquals("d1", response.nextCursorMark);
+        return docs;
+    }
+
+    private List<String> readAll(String core, int pageSize) {
+        SolrClient.ResultCursor cursor = client.getResults(core, "test", pageSize, "uri", null, null);
+        List<String> uris = new ArrayList<String>();
+        while (cursor.hasMore()) {
+            for (JsonObject doc : cursor.nextPage()) {
+                uris.add(doc.get("uri").getAsString());
+            }
+        }
+        assertTrue(cursor.nextPage().isEmpty());
+        // a page short of pageSize ends the results before paging is settled
+        if (pageSize < 7) {
+            assertEquals(core.equals("old"), cursor.isPagingByOffset());
+        }
+        return uris;
+    }
+
+    private static Map<String, String> params(String query) throws IOException {
+        Map<String, String> params = new HashMap<String, String>();
+        for (String param : query.split("&")) {
+            String[] pair = param.split("=", 2);
+            params.put(pair[0], URLDecoder.decode(pair[1], "UTF-8"));
+        }
+        return params;
+    }
+
+    // pages through d0 .. d6; the cursor mark is the uri of the last document sent
+    private final class PagingHandler implements HttpHandler {
+        private final boolean cursors;
+
+        PagingHandler(boolean cursors) {
+            this.cursors = cursors;
+        }
+
+        public void handle(HttpExchange exchange) throws IOException {
+            String query = exchange.getRequestURI().getRawQuery();
+            queries.add(query);
+            Map<String, String> params = params(query);
+            int rows = Integer.parseInt(params.get("rows"));
+            int start = params.containsKey("start") ? Integer.parseInt(params.get("start")) : 0;
+            String mark = params.get("cursorMark");
+            if (this.cursors && mark != null && mark.equals("*") == false) {
+                start = Integer.parseInt(mark.substring(1)) + 1;
+            }
+            StringBuilder docs = new StringBuilder();
+            int end = Math.min(start + rows, 7);
+            for (int i = start; i < end; i++) {
+                docs.append(i > start ? "," : "").append("{\"uri\":\"d" + i + "\"}");
+            }
+            String next = "";
+            if (this.cursors) {
+                next = ",\"nextCursorMark\":\"" + (end > start ? "d" + (end - 1) : mark) + "\"";
+            }
+            respond(exchange, "{\"response\":{\"docs\":[" + docs + "]}" + next + "}", false);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, String body, boolean gzip) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        if (gzip) {
+            ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(zipped);
+            out.write(bytes);
+            out.close();
+            bytes = zipped.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.io.File;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+public class TextUtilsTest extends TestCase {
+    private File dir;
+    private ErrorReport errorReport;
+    private ErrorReport expectedReport;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = new File("target", "textutils_test");
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        errorReport = new ErrorReport(new File(dir, "report.txt"));
+        expectedReport = new ErrorReport(new File(dir, "expected.txt"));
+    }
+
+    protected void tearDown() throws Exception {
+        errorReport.close();
+        expectedReport.close();
+        FileUtils.deleteDirectory(dir);
+        super.tearDown();
+    }
+
+    public void testNormalizeWhitespace() {
+        assertEquals("", TextUtils.normalizeWhitespace(""));
+        assertEquals("", TextUtils.normalizeWhitespace(" \n\t\n "));
+        assertEquals("a b", TextUtils.normalizeWhitespace("  a \t  b\t"));
+        assertEquals("a\nb c", TextUtils.normalizeWhitespace("a \r\n\n\n  b   c \n"));
+    }
+
+    public void testNeedsCleaning() {
+        assertFalse(TextUtils.needsCleaning(""));
+        assertFalse(TextUtils.needsCleaning("Poetry"));
+        assertFalse(TextUtils.needsCleaning("Rossetti, Dante Gabriel"));
+        assertTrue(TextUtils.needsCleaning(" Poetry"));
+        assertTrue(TextUtils.needsCleaning("Poetry\r"));
+        assertTrue(TextUtils.needsCleaning("Ellis  and White"));
+        assertTrue(TextUtils.needsCleaning("Ellis\tand White"));
+        assertTrue(TextUtils.needsCleaning("Ellis\nand White"));
+        assertTrue(TextUtils.needsCleaning("Ellis &amp; White"));
+        assertTrue(TextUtils.needsCleaning("Ellis \ufffd White"));
+    }
+
+    /**
+     * cleanField must give the same value and report the same errors as the
+     * three step cleaning it replaces
+     */
+    public void testCleanFieldMatchesSteps() throws Exception {
+        String[] samples = { "", "Poetry", " Poetry ", "The  Blessed Damozel &amp; other   Poems,\n  by D. G. Rossetti ",
+            "a &amp; b", "a &#12; b", "x\ufffd y \ufffd", "line one\n\n  line two\t\t", "\r\n", "a \u0001  b" };
+        for (String sample : samples) {
+            assertClean(sample);
+        }
+
+        String alphabet = "ab &amp;#;\t\n\r\ufffd\u0001";
+        Random random = new Random(17);
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder value = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int j = 0; j < length; j++) {
+                value.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertClean(value.toString());
+        }
+        errorReport.flush();
+        expectedReport.flush();
+        assertEquals(FileUtils.readFileToString(new File(dir, "expected.txt"), "UTF-8"),
+            FileUtils.readFileToString(new File(dir, "report.txt"), "UTF-8"));
+    }
+
+    private void assertClean(final String value) {
+        String expected = TextUtils.stripEscapeSequences(value, expectedReport, null, "uri");
+        expected = oldNormalizeWhitespace(expected);
+        expected = TextUtils.stripUnknownUTF8(expected, expectedReport, null, "uri");
+        assertEquals("cleaning [" + value + "]", expected, TextUtils.cleanField(value, errorReport, null, "uri"));
+    }
+
+    // the regular expression version of normalizeWhitespace
+    private static String oldNormalizeWhitespace(final String srcText) {
+        String[] lines = srcText.replaceAll("\n+", "\n").split("\n");
+        StringBuffer out = new StringBuffer();
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            line = line.replaceAll("\t", " ");
+            line = line.replaceAll(" +", " ");
+            line = line.trim();
+            if (line.length() > 0) {
+                out.append(line).append("\n");
+            }
+        }
+        return out.toString().trim();
+    }
+}
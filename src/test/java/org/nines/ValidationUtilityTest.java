@@ -18,7 +18,6 @@ package org.nines;
 import junit.framework.TestCase;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 
 public class ValidationUtilityTest extends TestCase {
  
@@ -36,24 +35,23 @@ public class ValidationUtilityTest extends TestCase {
 
   public void testValidateRequired() {
     // "archive","title","agent","genre","date_label"
-    HashMap<String, ArrayList<String>> testMap = new HashMap<String, ArrayList<String>>();
+    Document testMap = new Document();
 
-    ArrayList<String> genreVals = new ArrayList<String>();
-    testMap.put("genre", genreVals);
-    testMap.put("archive", genreVals);
-    testMap.put("year", genreVals);
+    testMap.add("genre", "Poetry");
+    testMap.add("archive", "rossetti");
+    testMap.add("year", "1870");
 
     ArrayList<String> messages = ValidationUtility.validateRequired(testMap);
 
     assertEquals(7, messages.size());
 
-    testMap.put("title", genreVals);
-    testMap.put("role_AUT", genreVals);
-    testMap.put("freeculture", genreVals);
-    testMap.put("has_full_text", genreVals);
-    testMap.put("is_ocr", genreVals);
-    testMap.put("federation", genreVals);
-    testMap.put("url", genreVals);
+    testMap.add("title", "title");
+    testMap.add("role_AUT", "author");
+    testMap.add("freeculture", "T");
+    testMap.add("has_full_text", "T");
+    testMap.add("is_ocr", "F");
+    testMap.add("federation", "NINES");
+    testMap.add("url", "http://foo/");
 
     messages = ValidationUtility.validateRequired(testMap);
 
@@ -68,19 +66,30 @@ public class ValidationUtilityTest extends TestCase {
   }
 
   public void testValidateRole() {
-    HashMap<String, ArrayList<String>> object = new HashMap<String, ArrayList<String>>();
+    Document object = new Document();
     // ART, AUT, EDT, PBL, and TRL are all we currently support
-    object.put("role_ART", null);
-    object.put("role_AUT", null);
-    object.put("role_EDT", null);
-    object.put("role_PBL", null);
-    object.put("role_TRL", null);
-    object.put("something_else", null);
+    object.add("role_ART", "x");
+    object.add("role_AUT", "x");
+    object.add("role_EDT", "x");
+    object.add("role_PBL", "x");
+    object.add("role_TRL", "x");
+    object.add("something_else", "x");
 
     assertEquals(0, ValidationUtility.validateRole(object).size());
 
-    object.put("role_XXX", null);
+    object.add("role_XXX", "x");
     assertEquals(1, ValidationUtility.validateRole(object).size());
 
   }
+
+  public void testMaxOne() {
+    Document object = new Document();
+    object.add("title", "first");
+    object.add("title", "second");
+    object.add("title", "third");
+    ArrayList<String> messages = ValidationUtility.validateRequired(object);
+    assertTrue(messages.contains("must not contain more than one title field:first;second;third;"));
+    assertEquals(1, object.get("title").size());
+    assertEquals("first", object.getFirst("title"));
+  }
 }
@@ -0,0 +1,80 @@
+/**
+ *  Copyright 2011 Applied Research in Patacriticism and the University of Virginia
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ **/
+package org.nines;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class YearExpansionTest extends TestCase {
+
+    public void testSingleYear() {
+        YearExpansion years = YearExpansion.of("1862-12-25");
+        assertEquals(Arrays.asList("1862"), years.getYears());
+        assertEquals(Arrays.asList("1860"), years.getDecades());
+        assertEquals(Arrays.asList("1850"), years.getQuarterCenturies());
+        assertEquals(Arrays.asList("1850"), years.getHalfCenturies());
+        assertEquals(Arrays.asList("1800"), years.getCenturies());
+    }
+
+    public void testRange() {
+        YearExpansion years = YearExpansion.of("1848,1851");
+        assertEquals(Arrays.asList("1848", "1849", "1850", "1851"), years.getYears());
+        assertEquals(Arrays.asList("1840", "1850"), years.getDecades());
+        assertEquals(Arrays.asList("1825", "1850"), years.getQuarterCenturies());
+        assertEquals(Arrays.asList("1800", "1850"), years.getHalfCenturies());
+        assertEquals(Arrays.asList("1800"), years.getCenturies());
+    }
+
+    public void testWildcard() {
+        YearExpansion years = YearExpansion.of("1uuu");
+        assertEquals(1000, years.getYears().size());
+        assertEquals("1000", years.getYears().get(0));
+        assertEquals("1999", years.getYears().get(999));
+        assertEquals(100, years.getDecades().size());
+        assertEquals(40, years.getQuarterCenturies().size());
+        assertEquals(20, years.getHalfCenturies().size());
+        assertEquals(10, years.getCenturies().size());
+
+        List<String> parsed = NinesStatementHandler.parseYears("0u");
+        assertEquals(Arrays.asList("00", "01", "02", "03", "04", "05", "06", "07", "08", "09"), parsed);
+        assertTrue(YearExpansion.of("0u").getDecades().isEmpty());
+    }
+
+    public void testDuplicatesAndOrder() {
+        YearExpansion years = YearExpansion.of("1870 1850 1870");
+        assertEquals(Arrays.asList("1870", "1850"), years.getYears());
+        assertEquals(Arrays.asList("1870", "1850"), years.getDecades());
+    }
+
+    public void testInvalid() {
+        assertTrue(YearExpansion.of("Aug 1850").isEmpty());
+        assertTrue(YearExpansion.of("unknown").isEmpty());
+        assertTrue(YearExpansion.of("185").isEmpty());
+    }
+
+    public void testCached() {
+        YearExpansion years = YearExpansion.of("1500,1900");
+        assertSame(years, YearExpansion.of("1500,1900"));
+        try {
+            years.getYears().add("2000");
+            fail("expansions should be immutable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+}